@@ -0,0 +1,140 @@
+package ske.benchmarks;
+
+import model.CryptographicAlgorithms;
+import model.KeyStoreService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Замеры криптографических алгоритмов</h2>
+ *
+ * <p>Время операций {@link CryptographicAlgorithms}, через которые проходит защита соединения и отправка сообщения:
+ * генерация ключевой пары RSA, развёртка сеансового ключа, шифрование AES и получение ключа ЭЦП. Для ключа ЭЦП
+ * замеряется и путь без кэша - чтение и разбор хранилища при каждом вызове.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class CryptographicAlgorithmsBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Keys
+    {
+        private KeyStoreFixture keyStore;
+
+        private PrivateKey privateKey;
+        private byte[] wrappedKey;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception
+        {
+            keyStore = KeyStoreFixture.create();
+
+            System.setProperty(KeyStoreService.PATH_PROPERTY, keyStore.getFile().toString());
+
+            KeyPair keyPair = CryptographicAlgorithms.generateKeyPair();
+
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+
+            generator.init(128);
+
+            Cipher cipher = Cipher.getInstance("RSA");
+
+            cipher.init(Cipher.WRAP_MODE, keyPair.getPublic());
+
+            privateKey = keyPair.getPrivate();
+            wrappedKey = cipher.wrap(generator.generateKey());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception
+        {
+            keyStore.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Data
+    {
+        @Param({"64", "1024", "16384"})
+        public int size;
+
+        private byte[] data;
+        private SecretKey key;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception
+        {
+            data = new byte[size];
+
+            new Random(size).nextBytes(data);
+
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+
+            generator.init(128);
+
+            key = generator.generateKey();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public KeyPair generateKeyPair()
+    {
+        return CryptographicAlgorithms.generateKeyPair();
+    }
+
+    @Benchmark
+    public Key unwrapKey(Keys keys)
+    {
+        return CryptographicAlgorithms.unwrapKey(keys.wrappedKey, keys.privateKey);
+    }
+
+    @Benchmark
+    public byte[] encrypt(Data data)
+    {
+        return CryptographicAlgorithms.encrypt(data.data, data.key);
+    }
+
+    @Benchmark
+    public PrivateKey getPrivateKey(Keys keys) throws Exception
+    {
+        return CryptographicAlgorithms.getPrivateKey(KeyStoreFixture.ALIAS, KeyStoreFixture.PASSWORD);
+    }
+
+    /**
+     * Чтение, разбор хранилища и расшифровка записи при каждом вызове, как до появления {@link KeyStoreService}.
+     */
+    @Benchmark
+    public PrivateKey getPrivateKeyUncached(Keys keys) throws Exception
+    {
+        return new KeyStoreService(keys.keyStore.getFile()).getPrivateKey(KeyStoreFixture.ALIAS,
+                KeyStoreFixture.PASSWORD);
+    }
+}
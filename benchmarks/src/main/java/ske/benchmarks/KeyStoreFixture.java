@@ -0,0 +1,59 @@
+package ske.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <h2>Временное хранилище ключей для замеров</h2>
+ *
+ * <p>Создаёт хранилище PKCS12 с ключом RSA-2048 утилитой {@code keytool} из текущей JDK.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+final class KeyStoreFixture
+{
+    static final String ALIAS = "benchmark";
+    static final String PASSWORD = "benchmark";
+
+    private final Path directory;
+    private final Path file;
+
+    private KeyStoreFixture(Path directory)
+    {
+        this.directory = directory;
+        this.file = directory.resolve(".keystore");
+    }
+
+    static KeyStoreFixture create() throws IOException, InterruptedException
+    {
+        KeyStoreFixture fixture = new KeyStoreFixture(Files.createTempDirectory("ske-benchmark"));
+
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", ALIAS, "-dname", "CN=benchmark", "-storetype", "PKCS12", "-storepass", PASSWORD,
+                "-keypass", PASSWORD, "-keystore", fixture.file.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        if (process.waitFor() != 0)
+            throw new IOException("keytool завершился с кодом " + process.exitValue() + ".");
+
+        return fixture;
+    }
+
+    Path getFile()
+    {
+        return file;
+    }
+
+    void delete() throws IOException
+    {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+}
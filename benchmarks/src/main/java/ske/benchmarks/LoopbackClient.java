@@ -0,0 +1,145 @@
+package ske.benchmarks;
+
+import model.AuthenticationMode;
+import model.ClientHello;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Клиент для замеров на петлевом интерфейсе</h2>
+ *
+ * <p>Выполняет рукопожатие с обёрткой ключа RSA и затем в отдельном потоке читает и отбрасывает все записи сервера,
+ * не расшифровывая их, чтобы замер отражал только работу сервера.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+final class LoopbackClient
+{
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final LongAdder records = new LongAdder();
+
+    LoopbackClient(int port) throws IOException
+    {
+        socket = new Socket("localhost", port);
+
+        socket.setTcpNoDelay(true);
+
+        in = new DataInputStream(socket.getInputStream());
+        out = new DataOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * <h3>Рукопожатие</h3>
+     *
+     * <p>Подпись сервера в режиме {@link AuthenticationMode#HMAC} читается, но не проверяется.</p>
+     */
+    void handshake(AuthenticationMode mode) throws Exception
+    {
+        ClientHello hello = new ClientHello(mode);
+
+        ByteBuffer encoded = ByteBuffer.allocate(hello.length());
+
+        hello.encode(encoded);
+
+        send(encoded.array());
+
+        PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(frame()));
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+
+        generator.init(128);
+
+        Cipher cipher = Cipher.getInstance("RSA");
+
+        cipher.init(Cipher.WRAP_MODE, publicKey);
+
+        send(cipher.wrap(generator.generateKey()));
+
+        if (mode == AuthenticationMode.HMAC)
+            frame();
+    }
+
+    /**
+     * <h3>Запуск чтения записей</h3>
+     */
+    void startDraining()
+    {
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    byte[] buffer = new byte[64 * 1024];
+
+                    while (true)
+                    {
+                        int length = in.readInt();
+
+                        while (length > 0)
+                        {
+                            int n = in.read(buffer, 0, Math.min(length, buffer.length));
+
+                            if (n < 0)
+                                throw new EOFException();
+
+                            length -= n;
+                        }
+
+                        records.increment();
+                    }
+                }
+                catch (IOException ex)
+                {
+                    // соединение закрыто
+                }
+            }
+        }, "loopback-client");
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    long getRecords()
+    {
+        return records.sum();
+    }
+
+    void close() throws IOException
+    {
+        socket.close();
+    }
+
+    private byte[] frame() throws IOException
+    {
+        byte[] frame = new byte[in.readInt()];
+
+        in.readFully(frame);
+
+        return frame;
+    }
+
+    private void send(byte[] data) throws IOException
+    {
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+}
@@ -0,0 +1,119 @@
+package ske.benchmarks;
+
+import model.AuthenticationMode;
+import model.KeyStoreService;
+import model.Server;
+import model.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Замер отправки сообщения</h2>
+ *
+ * <p>Время {@link Server#sendMessage(Session, String)} по петлевому интерфейсу для сообщений разной длины и разных
+ * способов аутентификации: подготовка кадра, шифрование, подпись или HMAC и запись в сокет. Клиент читает записи
+ * в отдельном потоке, не расшифровывая их.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class SendMessageBenchmark
+{
+    @Param({"16", "1024", "16384"})
+    public int size;
+
+    @Param({"HMAC", "SIGNATURE"})
+    public AuthenticationMode mode;
+
+    private KeyStoreFixture keyStore;
+
+    private Server server;
+    private Session session;
+    private LoopbackClient client;
+
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        keyStore = KeyStoreFixture.create();
+
+        server = new Server();
+
+        server.setKeyStoreService(new KeyStoreService(keyStore.getFile()));
+        server.initSignature(KeyStoreFixture.ALIAS, KeyStoreFixture.PASSWORD);
+        server.highlightSocket(0);
+
+        client = new LoopbackClient(server.getLocalPort());
+
+        Exception[] failure = new Exception[1];
+
+        Thread handshake = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    client.handshake(mode);
+                }
+                catch (Exception ex)
+                {
+                    failure[0] = ex;
+                }
+            }
+        }, "loopback-handshake");
+
+        handshake.start();
+
+        session = server.connection();
+
+        server.connectionProtection(session);
+
+        handshake.join();
+
+        if (failure[0] != null)
+            throw failure[0];
+
+        client.startDraining();
+
+        message = "x".repeat(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        server.disconnect(session);
+        server.disconnect();
+
+        client.close();
+
+        keyStore.delete();
+    }
+
+    @Benchmark
+    public void sendMessage() throws Exception
+    {
+        server.sendMessage(session, message);
+    }
+}
@@ -0,0 +1,56 @@
+package model;
+
+/**
+ * <h2>Способ аутентификации сообщений сессии</h2>
+ *
+ * <p>Запрашивается клиент-приложением в {@link ClientHello} при защите соединения.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public enum AuthenticationMode
+{
+    /**
+     * Каждое сообщение подписывается ЭЦП сервера.
+     */
+    SIGNATURE(0),
+
+    /**
+     * Сообщения аутентифицируются HMAC на ключе, выведенном из секретного ключа сессии. ЭЦП сервера подписывается
+     * только протокол рукопожатия.
+     */
+    HMAC(1),
+
+    /**
+     * Сообщения подписываются пакетами: ЭЦП сервера вычисляется над корнем дерева Меркла, а каждое сообщение несёт
+     * путь до корня ({@link MerkleBatchSigner}).
+     */
+    BATCH_SIGNATURE(2);
+
+    private final int code;
+
+    AuthenticationMode(int code)
+    {
+        this.code = code;
+    }
+
+    public int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * @return способ аутентификации с кодом {@code code} или {@code null}, если такого нет.
+     */
+    public static AuthenticationMode fromCode(int code)
+    {
+        for (AuthenticationMode mode : values())
+        {
+            if (mode.code == code)
+                return mode;
+        }
+
+        return null;
+    }
+}
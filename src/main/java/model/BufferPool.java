@@ -0,0 +1,338 @@
+package model;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Пул прямых буферов ввода-вывода</h2>
+ *
+ * <p>Запись в {@link java.nio.channels.SocketChannel} из буфера в куче JDK выполняет через временный прямой буфер,
+ * копируя данные. Пул раздаёт прямые буферы классов размера {@value BufferPool#MIN_CAPACITY} &times; 2<sup>n</sup> до
+ * {@value BufferPool#MAX_CAPACITY} байт, так что сокет читает и пишет их без промежуточной копии, а буферы
+ * переиспользуются между сессиями вместо выделения и сборки мусора.</p>
+ *
+ * <p>Буфер выдаётся в аренду ({@link BufferPool#lease(int, Object)}) и возвращается методом {@link Lease#release()}.
+ * Сессия держит арендованные буферы, пока они ей нужны, и возвращает их при закрытии. Пул хранит не больше
+ * {@code retainedBytes} свободной памяти; лишние буферы остаются сборщику мусора. Запросы больше
+ * {@value BufferPool#MAX_CAPACITY} байт обслуживаются буфером в куче вне пула.</p>
+ *
+ * <p>В отладочном режиме (системное свойство {@value BufferPool#DEBUG_PROPERTY}) для каждой аренды запоминается место
+ * выдачи, и если аренда стала недостижимой, не вернув буфер, в {@link EventLog} пишется предупреждение об утечке.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+final class BufferPool
+{
+    /**
+     * Системное свойство, включающее поиск утечек буферов.
+     */
+    static final String DEBUG_PROPERTY = "ske.buffers.debug";
+
+    static final int MIN_CAPACITY = 4 * 1024;
+    static final int MAX_CAPACITY = 256 * 1024;
+
+    /**
+     * Сколько свободной памяти хранит общий пул.
+     */
+    static final long DEFAULT_RETAINED_BYTES = 32L * 1024 * 1024;
+
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_CAPACITY / MIN_CAPACITY) + 1;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_RETAINED_BYTES, Boolean.getBoolean(DEBUG_PROPERTY));
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+    private final AtomicInteger[] freeCounts;
+    private final int[] maxFree;
+
+    private final AtomicInteger leased = new AtomicInteger();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Очиститель аренд в отладочном режиме, иначе {@code null}.
+     */
+    private final Cleaner cleaner;
+
+    /**
+     * @param retainedBytes наибольший объём свободных буферов, который пул хранит; делится поровну между классами.
+     * @param debug искать ли утечки.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    BufferPool(long retainedBytes, boolean debug)
+    {
+        free = new ConcurrentLinkedQueue[CLASSES];
+        freeCounts = new AtomicInteger[CLASSES];
+        maxFree = new int[CLASSES];
+
+        for (int i = 0; i < CLASSES; i++)
+        {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+            maxFree[i] = (int) Math.min(Integer.MAX_VALUE, retainedBytes / CLASSES / capacityOf(i));
+        }
+
+        cleaner = debug ? Cleaner.create() : null;
+    }
+
+    /**
+     * @return Общий пул сервера.
+     */
+    static BufferPool shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * <h3>Аренда буфера</h3>
+     *
+     * @param capacity сколько байт нужно.
+     * @param owner владелец аренды для отчёта об утечке, обычно сессия.
+     *
+     * @return Аренду очищенного буфера не меньше {@code capacity} байт.
+     */
+    Lease lease(int capacity, Object owner)
+    {
+        if (capacity > MAX_CAPACITY)
+            return new Lease(this, -1, ByteBuffer.allocate(capacity), owner);
+
+        int index = classOf(capacity);
+
+        ByteBuffer buffer = free[index].poll();
+
+        if (buffer != null)
+        {
+            freeCounts[index].decrementAndGet();
+
+            buffer.clear();
+        }
+        else
+        {
+            buffer = ByteBuffer.allocateDirect(capacityOf(index));
+
+            allocated.increment();
+        }
+
+        leased.incrementAndGet();
+
+        return new Lease(this, index, buffer, owner);
+    }
+
+    private void recycle(int index, ByteBuffer buffer)
+    {
+        if (index < 0)
+            return;
+
+        leased.decrementAndGet();
+
+        if (freeCounts[index].incrementAndGet() <= maxFree[index])
+            free[index].offer(buffer);
+        else
+            freeCounts[index].decrementAndGet();
+    }
+
+    /**
+     * @return Число прямых буферов, выданных и ещё не возвращённых.
+     */
+    int getLeased()
+    {
+        return leased.get();
+    }
+
+    /**
+     * @return Сколько прямых буферов пул выделил за всё время работы.
+     */
+    long getAllocated()
+    {
+        return allocated.sum();
+    }
+
+    /**
+     * @return Число найденных утечек; считается только в отладочном режиме.
+     */
+    long getLeaks()
+    {
+        return leaks.sum();
+    }
+
+    boolean isDebug()
+    {
+        return cleaner != null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BufferPool{leased=" + getLeased() + ", allocated=" + getAllocated() + ", leaks=" + getLeaks() + "}";
+    }
+
+    /**
+     * @return Сколько байт осталось в буферах {@code srcs[offset..offset+length)}.
+     */
+    static long remaining(ByteBuffer[] srcs, int offset, int length)
+    {
+        long remaining = 0;
+
+        for (int i = offset; i < offset + length; i++)
+            remaining += srcs[i].remaining();
+
+        return remaining;
+    }
+
+    /**
+     * <h3>Сбор буферов в один</h3>
+     *
+     * <p>Копирует оставшиеся байты {@code srcs[offset..offset+length)} в {@code dst}, пока в нём есть место, и сдвигает
+     * позиции обоих.</p>
+     *
+     * @return Индекс первого буфера, в котором ещё остались данные, или {@code offset + length}.
+     */
+    static int gather(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst)
+    {
+        int end = offset + length;
+
+        while (offset < end && dst.hasRemaining())
+        {
+            ByteBuffer src = srcs[offset];
+
+            int count = Math.min(src.remaining(), dst.remaining());
+
+            dst.put(dst.position(), src, src.position(), count);
+
+            dst.position(dst.position() + count);
+            src.position(src.position() + count);
+
+            if (!src.hasRemaining())
+                offset++;
+        }
+
+        while (offset < end && !srcs[offset].hasRemaining())
+            offset++;
+
+        return offset;
+    }
+
+    private static int classOf(int capacity)
+    {
+        if (capacity <= MIN_CAPACITY)
+            return 0;
+
+        return 32 - Integer.numberOfLeadingZeros((capacity - 1) / MIN_CAPACITY);
+    }
+
+    private static int capacityOf(int index)
+    {
+        return MIN_CAPACITY << index;
+    }
+
+    /**
+     * <h2>Аренда буфера</h2>
+     *
+     * <p>Не потокобезопасна: арендой пользуется её владелец под своей блокировкой. Повторный
+     * {@link Lease#release()} ничего не делает.</p>
+     */
+    static final class Lease
+    {
+        private final BufferPool pool;
+        private final int index;
+
+        private ByteBuffer buffer;
+
+        /**
+         * Место выдачи в отладочном режиме, иначе {@code null}.
+         */
+        private final Tracker tracker;
+
+        private Lease(BufferPool pool, int index, ByteBuffer buffer, Object owner)
+        {
+            this.pool = pool;
+            this.index = index;
+            this.buffer = buffer;
+
+            if (pool.cleaner != null && index >= 0)
+            {
+                tracker = new Tracker(pool, buffer.capacity(), String.valueOf(owner));
+
+                pool.cleaner.register(this, tracker);
+            }
+            else
+            {
+                tracker = null;
+            }
+        }
+
+        /**
+         * @return Арендованный буфер.
+         *
+         * @throws IllegalStateException если буфер уже возвращён в пул.
+         */
+        ByteBuffer buffer()
+        {
+            if (buffer == null)
+                throw new IllegalStateException("Буфер уже возвращён в пул.");
+
+            return buffer;
+        }
+
+        /**
+         * <h3>Возврат буфера в пул</h3>
+         *
+         * <p>После возврата буфер принадлежит пулу, и ссылки на него, полученные из {@link Lease#buffer()}, больше
+         * использовать нельзя.</p>
+         */
+        void release()
+        {
+            ByteBuffer released = buffer;
+
+            if (released == null)
+                return;
+
+            buffer = null;
+
+            if (tracker != null)
+                tracker.released = true;
+
+            pool.recycle(index, released);
+        }
+    }
+
+    /**
+     * <h2>Поиск утечки</h2>
+     *
+     * <p>Вызывается очистителем, когда аренда стала недостижимой. Не ссылается ни на аренду, ни на владельца, иначе
+     * они никогда не стали бы недостижимыми.</p>
+     */
+    private static final class Tracker implements Runnable
+    {
+        private final BufferPool pool;
+        private final int capacity;
+        private final String owner;
+        private final Throwable site = new Throwable("Место выдачи буфера");
+
+        private volatile boolean released;
+
+        Tracker(BufferPool pool, int capacity, String owner)
+        {
+            this.pool = pool;
+            this.capacity = capacity;
+            this.owner = owner;
+        }
+
+        @Override
+        public void run()
+        {
+            if (released)
+                return;
+
+            pool.leaks.increment();
+            pool.leased.decrementAndGet();
+
+            EventLog.get().log(EventLog.Level.WARNING, BufferPool.class, "lease", null,
+                    "Буфер " + capacity + " байт не возвращён в пул (" + owner + ").", site);
+        }
+    }
+}
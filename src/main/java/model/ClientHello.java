@@ -0,0 +1,235 @@
+package model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h2>Приветствие клиент-приложения</h2>
+ *
+ * <p>Первый кадр рукопожатия, с которым клиент сообщает параметры сессии. Формат:</p>
+ * <pre>
+ * authMode   1 байт, код {@link AuthenticationMode}
+ * extensions до конца кадра: тип 1 байт, varint длина, значение
+ * </pre>
+ *
+ * <p>Расширения:</p>
+ * <ul>
+ *     <li>{@value ClientHello#EXTENSION_TICKET} - билет сессии (возможно, пустой) и случайное число клиента длиной
+ *     {@value ClientHello#NONCE_LENGTH} байта. Означает, что клиент поддерживает возобновление сессий
+ *     ({@link SessionTicketCache}): сервер отвечает кадром с результатом возобновления и выдаёт билет после защиты
+ *     соединения.</li>
+ *     <li>{@value ClientHello#EXTENSION_KEY_EXCHANGE} - коды {@link KeyExchangeSuite} в порядке предпочтения клиента.
+ *     Сервер выбирает первый поддерживаемый и сообщает его в начале своего кадра обмена ключами.</li>
+ * </ul>
+ *
+ * <p>Неизвестные расширения пропускаются; отсутствующие поля принимают значения по умолчанию.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class ClientHello
+{
+    public static final int NONCE_LENGTH = 32;
+
+    public static final int EXTENSION_TICKET = 1;
+    public static final int EXTENSION_KEY_EXCHANGE = 2;
+
+    /**
+     * Наибольшая длина билета сессии.
+     */
+    private static final int MAX_TICKET_LENGTH = 256;
+
+    private final AuthenticationMode authenticationMode;
+
+    /**
+     * Билет сессии, пустой массив, если билета нет, или {@code null}, если клиент не поддерживает возобновление.
+     */
+    private final byte[] ticket;
+    private final byte[] nonce;
+
+    /**
+     * Предлагаемые способы обмена ключами или {@code null}, если клиент их не перечислил.
+     */
+    private final List<KeyExchangeSuite> suites;
+
+    public ClientHello(AuthenticationMode authenticationMode)
+    {
+        this(authenticationMode, null, null, null);
+    }
+
+    /**
+     * @param ticket билет прошлой сессии, пустой массив или {@code null}, если возобновление не нужно.
+     * @param nonce случайное число длиной {@value ClientHello#NONCE_LENGTH} байта; нужно только вместе с билетом.
+     * @param suites способы обмена ключами в порядке предпочтения или {@code null}.
+     */
+    public ClientHello(AuthenticationMode authenticationMode, byte[] ticket, byte[] nonce,
+                       List<KeyExchangeSuite> suites)
+    {
+        if (ticket != null && (nonce == null || nonce.length != NONCE_LENGTH))
+            throw new IllegalArgumentException("Некорректное случайное число клиента.");
+
+        if (ticket != null && ticket.length > MAX_TICKET_LENGTH)
+            throw new IllegalArgumentException("Слишком длинный билет сессии.");
+
+        this.authenticationMode = authenticationMode;
+        this.ticket = ticket;
+        this.nonce = nonce;
+        this.suites = suites == null ? null : List.copyOf(suites);
+    }
+
+    public AuthenticationMode getAuthenticationMode()
+    {
+        return authenticationMode;
+    }
+
+    /**
+     * @return {@code True}, если клиент поддерживает возобновление сессий.
+     */
+    public boolean isResumptionSupported()
+    {
+        return ticket != null;
+    }
+
+    /**
+     * @return билет сессии, пустой массив или {@code null}.
+     */
+    public byte[] getTicket()
+    {
+        return ticket;
+    }
+
+    public byte[] getNonce()
+    {
+        return nonce;
+    }
+
+    /**
+     * @return предлагаемые способы обмена ключами или {@code null}, если клиент ожидает
+     * {@link KeyExchangeSuite#RSA_WRAP} без кода способа в ответе сервера.
+     */
+    public List<KeyExchangeSuite> getKeyExchangeSuites()
+    {
+        return suites;
+    }
+
+    public int length()
+    {
+        int length = 1;
+
+        if (ticket != null)
+            length += extensionLength(ticket.length + NONCE_LENGTH);
+
+        if (suites != null)
+            length += extensionLength(suites.size());
+
+        return length;
+    }
+
+    private static int extensionLength(int valueLength)
+    {
+        return 1 + FrameCodec.varintLength(valueLength) + valueLength;
+    }
+
+    public void encode(ByteBuffer dst)
+    {
+        dst.put((byte) authenticationMode.getCode());
+
+        if (ticket != null)
+        {
+            dst.put((byte) EXTENSION_TICKET);
+
+            FrameCodec.putVarint(dst, ticket.length + NONCE_LENGTH);
+
+            dst.put(ticket);
+            dst.put(nonce);
+        }
+
+        if (suites != null)
+        {
+            dst.put((byte) EXTENSION_KEY_EXCHANGE);
+
+            FrameCodec.putVarint(dst, suites.size());
+
+            for (KeyExchangeSuite suite : suites)
+                dst.put((byte) suite.getCode());
+        }
+    }
+
+    /**
+     * @throws IOException если кадр повреждён или запрошен неизвестный способ аутентификации.
+     */
+    public static ClientHello decode(ByteBuffer src) throws IOException
+    {
+        try
+        {
+            AuthenticationMode mode = AuthenticationMode.SIGNATURE;
+
+            if (src.hasRemaining())
+            {
+                int code = src.get() & 0xFF;
+
+                mode = AuthenticationMode.fromCode(code);
+
+                if (mode == null)
+                    throw new IOException("Неизвестный способ аутентификации: " + code + ".");
+            }
+
+            byte[] ticket = null;
+            byte[] nonce = null;
+            List<KeyExchangeSuite> suites = null;
+
+            while (src.hasRemaining())
+            {
+                int type = src.get() & 0xFF;
+                long length = FrameCodec.getVarint(src);
+
+                if (length < 0 || length > src.remaining())
+                    throw new IOException("Недопустимая длина расширения приветствия: " + length + ".");
+
+                ByteBuffer value = src.slice(src.position(), (int) length);
+
+                src.position(src.position() + (int) length);
+
+                switch (type)
+                {
+                    case EXTENSION_TICKET ->
+                    {
+                        if (length < NONCE_LENGTH || length > MAX_TICKET_LENGTH + NONCE_LENGTH)
+                            throw new IOException("Недопустимая длина билета сессии: " + length + ".");
+
+                        ticket = new byte[(int) length - NONCE_LENGTH];
+                        nonce = new byte[NONCE_LENGTH];
+
+                        value.get(ticket);
+                        value.get(nonce);
+                    }
+                    case EXTENSION_KEY_EXCHANGE ->
+                    {
+                        suites = new ArrayList<>();
+
+                        while (value.hasRemaining())
+                        {
+                            KeyExchangeSuite suite = KeyExchangeSuite.fromCode(value.get() & 0xFF);
+
+                            if (suite != null)
+                                suites.add(suite);
+                        }
+                    }
+                    default ->
+                    {
+                    }
+                }
+            }
+
+            return new ClientHello(mode, ticket, nonce, suites);
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw new IOException("Приветствие клиента повреждено.");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h2>Событие JFR: принятие подключения</h2>
+ *
+ * <p>Длительность - время ожидания в {@link Server#connection()}. Как и остальные события сервера (категория
+ * {@code SKE}), по умолчанию выключено и включается настройкой записи JFR, например:</p>
+ * <pre>
+ * -XX:StartFlightRecording:+ske.HandshakePhase#enabled=true,+ske.MessagePhase#enabled=true,filename=ske.jfr
+ * </pre>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@Name("ske.ConnectionAccept")
+@Label("Connection Accept")
+@Category({"SKE", "Connection"})
+@Description("Ожидание и принятие подключения клиента")
+@Enabled(false)
+@StackTrace(false)
+final class ConnectionAcceptEvent extends Event
+{
+    @Label("Session Id")
+    long sessionId;
+
+    @Label("Remote Address")
+    String remoteAddress;
+}
@@ -0,0 +1,49 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h2>Событие JFR: защита соединения</h2>
+ *
+ * <p>Охватывает весь вызов {@link Server#connectionProtection(Session)}; этапы рукопожатия записываются событиями
+ * {@link HandshakePhaseEvent}. По умолчанию выключено.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@Name("ske.ConnectionProtection")
+@Label("Connection Protection")
+@Category({"SKE", "Handshake"})
+@Description("Рукопожатие с клиентом от приветствия до выдачи билета")
+@Enabled(false)
+@StackTrace(false)
+final class ConnectionProtectionEvent extends Event
+{
+    @Label("Session Id")
+    long sessionId;
+
+    @Label("Authentication Mode")
+    String authenticationMode;
+
+    @Label("Resumed")
+    boolean resumed;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+}
@@ -0,0 +1,55 @@
+package model;
+
+/**
+ * <h2>Управляющий сигнал протокола синхронизации</h2>
+ *
+ * <p>Передаётся кадром {@link FrameCodec#TYPE_CONTROL}: код сигнала в первом байте нагрузки, затем необязательный
+ * varint-аргумент.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public enum ControlSignal
+{
+    /**
+     * Проверка связи; отправляется только простаивающим сессиям, если включена.
+     */
+    KEEPALIVE(1),
+
+    /**
+     * Клиент получил сообщение; аргумент - номер кадра сообщения или пакета {@link FrameCodec#TYPE_BATCH}.
+     */
+    MESSAGE_DELIVERED(3),
+
+    /**
+     * Сторона завершает сессию.
+     */
+    DISCONNECT(0xFF);
+
+    private final int code;
+
+    ControlSignal(int code)
+    {
+        this.code = code;
+    }
+
+    public int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * @return сигнал с кодом {@code code} или {@code null}, если такого нет.
+     */
+    public static ControlSignal fromCode(int code)
+    {
+        for (ControlSignal signal : values())
+        {
+            if (signal.code == code)
+                return signal;
+        }
+
+        return null;
+    }
+}
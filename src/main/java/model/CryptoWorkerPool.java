@@ -0,0 +1,161 @@
+package model;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h2>Пул потоков шифрования</h2>
+ *
+ * <p>Отделяет вычисления отправки - кодирование кадра, ЭЦП или HMAC и шифрование - от потоков, пишущих в сокет. Писатель
+ * очереди сессии отдаёт кадры пулу, не дожидаясь готовности предыдущих, и пишет их в сокет по порядку номеров, поэтому
+ * сообщения одной сессии подписываются и шифруются параллельно, а порядок записи не меняется
+ * ({@link Server#setCryptoWorkerPool(CryptoWorkerPool)}).</p>
+ *
+ * <p>Экземпляры {@link java.security.Signature}, {@link javax.crypto.Cipher} и {@link javax.crypto.Mac} кэшируются
+ * {@link CryptographicAlgorithms} отдельно для каждого потока, так что каждый поток пула подписывает и шифрует своими
+ * экземплярами, инициализированными при первом использовании ключом {@link Server#initSignature(String, String)}.</p>
+ *
+ * <p>Писатель сессии держит в пуле не больше {@link CryptoWorkerPool#getWindow()} кадров. Закрытый пул не принимает
+ * задачи, и они выполняются в вызывающем потоке.</p>
+ *
+ * <p>Буферы, в которых кадры собираются и шифруются, общие для всех сессий: кадр берёт их у пула
+ * ({@link CryptoWorkerPool#takeBuffers()}) и возвращает, когда записан. Пул хранит не больше двух окон свободных
+ * буферов, так что память под кадры зависит от числа потоков, а не от числа сессий.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class CryptoWorkerPool implements Closeable
+{
+    /**
+     * Число потоков по умолчанию - по числу процессоров.
+     */
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    private final int workers;
+    private final int window;
+
+    private final ExecutorService executor;
+
+    private final ArrayBlockingQueue<OutboundBuffers> freeBuffers;
+
+    public CryptoWorkerPool()
+    {
+        this(DEFAULT_WORKERS);
+    }
+
+    /**
+     * <h3>Создание пула</h3>
+     *
+     * <p>Потоки создаются по мере поступления задач и живут, пока пул не закрыт.</p>
+     *
+     * @param workers число потоков шифрования.
+     */
+    public CryptoWorkerPool(int workers)
+    {
+        if (workers <= 0)
+            throw new IllegalArgumentException("Число потоков шифрования должно быть положительным.");
+
+        this.workers = workers;
+        this.window = 2 * workers;
+
+        freeBuffers = new ArrayBlockingQueue<>(2 * window);
+
+        AtomicInteger sequence = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable task)
+                    {
+                        Thread thread = new Thread(task, "crypto-worker-" + sequence.getAndIncrement());
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+    }
+
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * @return Сколько кадров одной сессии могут одновременно ждать или проходить шифрование: вдвое больше числа
+     * потоков, чтобы потоки не простаивали, пока писатель пишет готовый кадр.
+     */
+    public int getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * @return Свободные буферы кадра из общего запаса пула или новые, если запас исчерпан.
+     */
+    OutboundBuffers takeBuffers()
+    {
+        OutboundBuffers buffers = freeBuffers.poll();
+
+        return buffers != null ? buffers : new OutboundBuffers();
+    }
+
+    /**
+     * <h3>Возврат буферов кадра</h3>
+     *
+     * <p>Буферы очищаются ({@link OutboundBuffers#release()}) и остаются в запасе пула, если в нём есть место.</p>
+     */
+    void releaseBuffers(OutboundBuffers buffers)
+    {
+        buffers.release();
+
+        freeBuffers.offer(buffers);
+    }
+
+    /**
+     * <h3>Передача задачи пулу</h3>
+     *
+     * @return Результат задачи. Если пул закрыт, задача уже выполнена в вызывающем потоке.
+     */
+    <T> Future<T> submit(Callable<T> task)
+    {
+        try
+        {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            FutureTask<T> future = new FutureTask<>(task);
+
+            future.run();
+
+            return future;
+        }
+    }
+
+    /**
+     * <h3>Остановка пула</h3>
+     *
+     * <p>Принятые задачи выполняются до конца, новые выполняются в вызывающем потоке.</p>
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+
+        freeBuffers.clear();
+    }
+}
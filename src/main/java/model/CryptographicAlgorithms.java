@@ -1,31 +1,56 @@
 package model;
 
 import javax.crypto.*;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <h2>Класс криптографических алгоритмов</h2>
  *
  * <p>В этом классе реализованы криптоалгоритмы, необходимые для создания защищенного соединения и шифрования сообщения.</p>
  *
+ * <p>Объекты {@link Cipher} и {@link Signature} не потокобезопасны и дороги в создании, поэтому каждый поток хранит
+ * свои экземпляры, уже инициализированные последним использованным ключом. Повторная инициализация выполняется только
+ * при смене ключа или режима, а после ошибки экземпляр выбрасывается из кэша.</p>
+ *
  * @author Kydryavcev Ilya
  * @version 1.0
  * @since 12.03.24
  */
 public class CryptographicAlgorithms
 {
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_BITS = 128;
+
+    /**
+     * Шифр записей, зашифрованных на месте: дополнение PKCS#5 дописывает вызывающий.
+     */
+    private static final String AES_NO_PADDING = "AES/ECB/NoPadding";
+    private static final int AES_BLOCK_SIZE = 16;
+
+    private static final ThreadLocal<Map<String, CachedCipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+
+    private static final ThreadLocal<Map<String, CachedSignature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private static final ThreadLocal<Map<String, CachedMac>> MACS = ThreadLocal.withInitial(HashMap::new);
+
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * <h3>Генерирование ключевой пары для алгоритма RSA</h3>
      *
      * @return ключевую пару {@code KerPair}
+     *
+     * @throws IllegalStateException если RSA не поддерживается платформой.
      */
     public static KeyPair generateKeyPair()
     {
-        KeyPairGenerator kpg = null;
+        KeyPairGenerator kpg;
 
         try
         {
@@ -33,19 +58,7 @@ public class CryptographicAlgorithms
         }
         catch (NoSuchAlgorithmException ex)
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
-            {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
-            }
-            catch (IOException ex1)
-            {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
-            }
+            throw new IllegalStateException("Алгоритм RSA не поддерживается.", ex);
         }
 
         kpg.initialize(2048);
@@ -53,6 +66,44 @@ public class CryptographicAlgorithms
         return kpg.generateKeyPair();
     }
 
+    /**
+     * <h3>Генерирование ключевой пары алгоритма с параметрами по умолчанию</h3>
+     *
+     * @param algorithm алгоритм, например {@code X25519}.
+     *
+     * @throws NoSuchAlgorithmException если алгоритм не поддерживается.
+     */
+    public static KeyPair generateKeyPair(String algorithm) throws NoSuchAlgorithmException
+    {
+        return KeyPairGenerator.getInstance(algorithm).generateKeyPair();
+    }
+
+    /**
+     * <h3>Согласование общего секрета</h3>
+     *
+     * @param algorithm алгоритм согласования, например {@code X25519}.
+     * @param key свой закрытый ключ.
+     * @param encodedPeerKey открытый ключ другой стороны в кодировке X.509.
+     *
+     * @return Общий секрет в виде ключа HMAC для вывода ключей
+     * ({@link CryptographicAlgorithms#deriveKey(Key, String, String, ByteBuffer...)}).
+     *
+     * @throws GeneralSecurityException если открытый ключ некорректен.
+     */
+    public static SecretKey agree(String algorithm, PrivateKey key, byte[] encodedPeerKey)
+            throws GeneralSecurityException
+    {
+        PublicKey peerKey = KeyFactory.getInstance(algorithm)
+                .generatePublic(new java.security.spec.X509EncodedKeySpec(encodedPeerKey));
+
+        KeyAgreement agreement = KeyAgreement.getInstance(algorithm);
+
+        agreement.init(key);
+        agreement.doPhase(peerKey, true);
+
+        return new javax.crypto.spec.SecretKeySpec(agreement.generateSecret(), "HmacSHA256");
+    }
+
     /**
      * <h3>Развёртка симметричного ключа</h3>
      *
@@ -67,27 +118,15 @@ public class CryptographicAlgorithms
     {
         try
         {
-            Cipher cipher = Cipher.getInstance("RSA");
-
-            cipher.init(Cipher.UNWRAP_MODE, key);
+            Cipher cipher = getCipher("RSA", Cipher.UNWRAP_MODE, key);
 
             return cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
         }
         catch (NoSuchAlgorithmException|NoSuchPaddingException|InvalidKeyException ex)
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
-            {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
-            }
-            catch (IOException ex1)
-            {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
-            }
+            CIPHERS.get().remove("RSA");
+
+            EventLog.error(CryptographicAlgorithms.class, "unwrapKey", ex);
         }
 
         return null;
@@ -109,105 +148,669 @@ public class CryptographicAlgorithms
     {
         try
         {
-            Cipher cipher = Cipher.getInstance("AES");
-
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+            Cipher cipher = getCipher("AES", Cipher.ENCRYPT_MODE, key);
 
             return cipher.doFinal(data);
         }
         catch (NoSuchAlgorithmException|NoSuchPaddingException|InvalidKeyException|IllegalBlockSizeException|
                BadPaddingException ex)
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
-            {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
-            }
-            catch (IOException ex1)
-            {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
-            }
+            CIPHERS.get().remove("AES");
+
+            EventLog.error(CryptographicAlgorithms.class, "encrypt", ex);
         }
 
         return null;
     }
 
     /**
-     * <h3>Получение секретного ключа для ЭЦП</h3>
+     * <h3>Зашифрование в готовый массив</h3>
      *
-     * <p>Находит в хранилище ключей запись с псевдонимом {@code alias}. Загружает из записи секретный ключ.</p>
+     * <p>Шифрует {@code length} байт массива {@code input} начиная с {@code inputOffset} и записывает шифртекст в
+     * {@code output} начиная с {@code outputOffset}, не создавая массивов. Результат совпадает с
+     * {@link CryptographicAlgorithms#encrypt(byte[], Key)}: дополнение PKCS#5 дописывается вызывающим
+     * ({@link CryptographicAlgorithms#pad(byte[], int, int)}), а шифр текущего потока работает без дополнения.</p>
      *
-     * @param alias псевдоним записи.
-     * @param password пароль от хранилища ключей.
+     * <p>Области входа и выхода не должны пересекаться: для пересекающихся областей шифр сам копирует вход.</p>
      *
-     * @return Секретный ключ для ЭЦП.
+     * @param length длина данных вместе с дополнением, кратная 16.
      *
-     * @throws UnrecoverableKeyException если задан не верный пароль {@code password}.
-     * @throws NullPointerException если запись с псевдонимом {@code alias} не существует.
+     * @return Число зашифрованных байт.
+     *
+     * @throws GeneralSecurityException если данные не удалось зашифровать.
      */
-    public static PrivateKey getPrivateKey(String alias, String password)
-            throws UnrecoverableKeyException, NullPointerException
+    public static int encrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, Key key)
+            throws GeneralSecurityException
+    {
+        try
+        {
+            Cipher cipher = getCipher(AES_NO_PADDING, Cipher.ENCRYPT_MODE, key);
+
+            return cipher.doFinal(input, inputOffset, length, output, outputOffset);
+        }
+        catch (GeneralSecurityException ex)
+        {
+            CIPHERS.get().remove(AES_NO_PADDING);
+
+            throw new GeneralSecurityException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * <h3>Дополнение PKCS#5</h3>
+     *
+     * <p>Дописывает после {@code length} байт данных от 1 до 16 байт дополнения.</p>
+     *
+     * @param data массив, в котором после данных есть место для дополнения.
+     *
+     * @return Длина данных вместе с дополнением.
+     */
+    public static int pad(byte[] data, int offset, int length)
+    {
+        int padding = AES_BLOCK_SIZE - length % AES_BLOCK_SIZE;
+
+        Arrays.fill(data, offset + length, offset + length + padding, (byte) padding);
+
+        return length + padding;
+    }
+
+    /**
+     * <h3>Длина шифртекста AES с дополнением PKCS#5</h3>
+     */
+    public static int encryptedLength(int length)
+    {
+        return (length / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE;
+    }
+
+    /**
+     * <h3>Расшифрование данных</h3>
+     *
+     * <p>Обратная операция к {@link CryptographicAlgorithms#encrypt(byte[], Key)}: расшифровывает кадр клиента
+     * шифром AES из кэша текущего потока.</p>
+     *
+     * @param data зашифрованные данные.
+     * @param key секретный ключ сессии.
+     *
+     * @return Открытый текст.
+     *
+     * @throws GeneralSecurityException если данные не удалось расшифровать.
+     */
+    public static byte[] decrypt(ByteBuffer data, Key key) throws GeneralSecurityException
+    {
+        try
+        {
+            Cipher cipher = getCipher("AES", Cipher.DECRYPT_MODE, key);
+
+            byte[] result = new byte[cipher.getOutputSize(data.remaining())];
+
+            int length = cipher.doFinal(data, ByteBuffer.wrap(result));
+
+            return length == result.length ? result : java.util.Arrays.copyOf(result, length);
+        }
+        catch (GeneralSecurityException|RuntimeException ex)
+        {
+            CIPHERS.get().remove("AES");
+
+            throw ex;
+        }
+    }
+
+    /**
+     * <h3>Формирование ЭЦП</h3>
+     *
+     * <p>Подписывает данные {@code data} закрытым ключом {@code key} экземпляром {@link Signature} текущего потока.</p>
+     *
+     * @param algorithm алгоритм ЭЦП, например {@code MD5withRSA}.
+     * @param data подписываемые данные.
+     * @param key закрытый ключ ЭЦП.
+     *
+     * @return Подпись данных.
+     *
+     * @throws SignatureException если ключ не задан или не подходит алгоритму, или если подпись не удалось сформировать.
+     */
+    public static byte[] sign(String algorithm, byte[] data, PrivateKey key) throws SignatureException
+    {
+        try
+        {
+            Signature signature = getSignature(algorithm, key);
+
+            signature.update(data);
+
+            return signature.sign();
+        }
+        catch (NoSuchAlgorithmException|InvalidKeyException|SignatureException ex)
+        {
+            SIGNATURES.get().remove(algorithm);
+
+            throw new SignatureException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * <h3>Формирование ЭЦП над несколькими фрагментами</h3>
+     *
+     * <p>Подписывает последовательность фрагментов {@code parts}, не объединяя их в один массив. Позиции буферов
+     * сдвигаются на конец.</p>
+     *
+     * @throws SignatureException если ключ не задан или не подходит алгоритму, или если подпись не удалось сформировать.
+     */
+    public static byte[] sign(String algorithm, PrivateKey key, ByteBuffer... parts) throws SignatureException
     {
-        KeyStore.PrivateKeyEntry pkEntry = null;
+        try
+        {
+            Signature signature = getSignature(algorithm, key);
+
+            for (ByteBuffer part : parts)
+                signature.update(part);
+
+            return signature.sign();
+        }
+        catch (NoSuchAlgorithmException|InvalidKeyException|SignatureException ex)
+        {
+            SIGNATURES.get().remove(algorithm);
+
+            throw new SignatureException(ex.getMessage(), ex);
+        }
+    }
 
+    /**
+     * <h3>Формирование ЭЦП в готовый массив</h3>
+     *
+     * <p>Подписывает оставшиеся байты {@code data} и записывает подпись в {@code output} начиная с {@code offset}.
+     * Позиция буфера сдвигается на конец.</p>
+     *
+     * @return Длина подписи.
+     *
+     * @throws SignatureException если ключ не задан или не подходит алгоритму, если подпись не удалось сформировать
+     * или она не помещается в {@code output}.
+     */
+    public static int sign(String algorithm, PrivateKey key, ByteBuffer data, byte[] output, int offset)
+            throws SignatureException
+    {
         try
         {
-            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            Signature signature = getSignature(algorithm, key);
+
+            signature.update(data);
+
+            return signature.sign(output, offset, output.length - offset);
+        }
+        catch (NoSuchAlgorithmException|InvalidKeyException|SignatureException ex)
+        {
+            SIGNATURES.get().remove(algorithm);
+
+            throw new SignatureException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * <h3>Вычисление кода аутентификации</h3>
+     *
+     * <p>Вычисляет HMAC над последовательностью фрагментов {@code parts} экземпляром {@link Mac} текущего потока.
+     * Позиции буферов сдвигаются на конец.</p>
+     *
+     * @param algorithm алгоритм, например {@code HmacSHA256}.
+     * @param key ключ аутентификации.
+     *
+     * @return Код аутентификации.
+     *
+     * @throws InvalidKeyException если ключ не задан или не подходит алгоритму.
+     */
+    public static byte[] mac(String algorithm, Key key, ByteBuffer... parts) throws InvalidKeyException
+    {
+        Mac mac = getMac(algorithm, key);
+
+        try
+        {
+            for (ByteBuffer part : parts)
+                mac.update(part);
+
+            return mac.doFinal();
+        }
+        catch (RuntimeException ex)
+        {
+            MACS.get().remove(algorithm);
+
+            throw new InvalidKeyException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * <h3>Вычисление кода аутентификации в готовый массив</h3>
+     *
+     * <p>Вычисляет HMAC над оставшимися байтами {@code data} и записывает его в {@code output} начиная с
+     * {@code offset}. Позиция буфера сдвигается на конец.</p>
+     *
+     * @return Длина кода аутентификации.
+     *
+     * @throws InvalidKeyException если ключ не задан или не подходит алгоритму, или код не помещается в
+     * {@code output}.
+     */
+    public static int mac(String algorithm, Key key, ByteBuffer data, byte[] output, int offset)
+            throws InvalidKeyException
+    {
+        CachedMac cached = getCachedMac(algorithm, key);
+
+        try
+        {
+            if (cached.digest != null)
+                return cached.hmac(data, output, offset);
+
+            Mac mac = cached.mac;
+
+            mac.update(data);
+
+            int length = mac.getMacLength();
+
+            mac.doFinal(output, offset);
+
+            return length;
+        }
+        catch (ShortBufferException|DigestException|RuntimeException ex)
+        {
+            MACS.get().remove(algorithm);
+
+            throw new InvalidKeyException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * <h3>Получение HMAC текущего потока</h3>
+     *
+     * @return Объект {@link Mac}, инициализированный ключом {@code key}.
+     */
+    private static Mac getMac(String algorithm, Key key) throws InvalidKeyException
+    {
+        return getCachedMac(algorithm, key).mac;
+    }
 
-            char[] charsPassword = password.toCharArray();
+    private static CachedMac getCachedMac(String algorithm, Key key) throws InvalidKeyException
+    {
+        if (key == null)
+            throw new InvalidKeyException("Ключ аутентификации не задан.");
+
+        Map<String, CachedMac> macs = MACS.get();
 
-            final String HOMEPATH = System.getenv("HOMEPATH");
+        CachedMac cached = macs.get(algorithm);
 
-            try (FileInputStream fis = new FileInputStream("C:\\"+HOMEPATH+"\\.keystore"))
+        try
+        {
+            if (cached == null)
             {
-                keyStore.load(fis, charsPassword);
+                cached = new CachedMac(Mac.getInstance(algorithm),
+                        HMAC_SHA256.equals(algorithm) ? MessageDigest.getInstance("SHA-256") : null);
+
+                macs.put(algorithm, cached);
             }
-            catch (IOException ex)
+
+            if (cached.key != key)
             {
-                if (ex.getCause().getClass() == UnrecoverableKeyException.class)
-                {
-                    throw new UnrecoverableKeyException();
-                }
-                else
-                {
-                    System.out.println("Файла для логирования не существует");
-                    System.out.println(ex.getMessage());
-                }
-            }
+                cached.key = null;
 
-            KeyStore.ProtectionParameter protectionParameter = new KeyStore.PasswordProtection(charsPassword);
+                cached.init(key);
 
-            pkEntry = (KeyStore.PrivateKeyEntry) keyStore.getEntry(alias, protectionParameter);
+                cached.key = key;
+            }
 
-            if (pkEntry == null)
-                throw new NullPointerException("Запись с псевдонимом " + alias + " не найдена.");
+            return cached;
         }
-        catch (UnrecoverableKeyException ex) // чтобы UnrecoverableEntryException не перехватил
+        catch (NoSuchAlgorithmException|InvalidKeyException|RuntimeException ex)
         {
-            throw ex;
+            macs.remove(algorithm);
+
+            throw new InvalidKeyException(ex.getMessage(), ex);
         }
-        catch (KeyStoreException|NoSuchAlgorithmException|java.security.cert.CertificateException|
-               java.security.UnrecoverableEntryException ex)
+    }
+
+    /**
+     * <h3>Вычисление хеша</h3>
+     *
+     * <p>Хеширует последовательность фрагментов {@code parts} экземпляром {@link MessageDigest} текущего потока.
+     * Позиции буферов сдвигаются на конец.</p>
+     *
+     * @param algorithm алгоритм хеширования, например {@code SHA-256}.
+     *
+     * @return Хеш данных.
+     *
+     * @throws IllegalArgumentException если алгоритм не поддерживается.
+     */
+    public static byte[] digest(String algorithm, ByteBuffer... parts)
+    {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+
+        MessageDigest digest = digests.get(algorithm);
+
+        if (digest == null)
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
+            try
+            {
+                digest = MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException ex)
             {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
+                throw new IllegalArgumentException(ex.getMessage(), ex);
             }
-            catch (IOException ex1)
+
+            digests.put(algorithm, digest);
+        }
+
+        for (ByteBuffer part : parts)
+            digest.update(part);
+
+        return digest.digest();
+    }
+
+    /**
+     * <h3>Вывод ключа из секретного ключа сессии</h3>
+     *
+     * <p>Ключ вычисляется как {@code HmacSHA256(secret, label)}, поэтому для разных назначений ({@code label})
+     * получаются независимые ключи.</p>
+     *
+     * @param secret секретный ключ сессии.
+     * @param label назначение ключа.
+     * @param algorithm алгоритм, для которого предназначен выведенный ключ.
+     *
+     * @return Выведенный ключ длиной 32 байта.
+     *
+     * @throws InvalidKeyException если секретный ключ не задан или не может быть экспортирован.
+     */
+    public static SecretKey deriveKey(Key secret, String label, String algorithm) throws InvalidKeyException
+    {
+        return deriveKey(secret, label, algorithm, new ByteBuffer[0]);
+    }
+
+    /**
+     * <h3>Вывод ключа с дополнительными данными</h3>
+     *
+     * <p>Ключ вычисляется как {@code HmacSHA256(secret, label || context)}: например, с nonce обеих сторон, чтобы из
+     * одного секрета при каждом подключении получался новый ключ.</p>
+     *
+     * @see CryptographicAlgorithms#deriveKey(Key, String, String)
+     */
+    public static SecretKey deriveKey(Key secret, String label, String algorithm, ByteBuffer... context)
+            throws InvalidKeyException
+    {
+        if (secret == null || secret.getEncoded() == null)
+            throw new InvalidKeyException("Секретный ключ не задан.");
+
+        ByteBuffer[] parts = new ByteBuffer[context.length + 1];
+
+        parts[0] = ByteBuffer.wrap(label.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+
+        System.arraycopy(context, 0, parts, 1, context.length);
+
+        byte[] bytes = mac("HmacSHA256", new javax.crypto.spec.SecretKeySpec(secret.getEncoded(), "HmacSHA256"),
+                parts);
+
+        return new javax.crypto.spec.SecretKeySpec(bytes, algorithm);
+    }
+
+    /**
+     * <h3>Получение экземпляра ЭЦП текущего потока</h3>
+     *
+     * <p>Экземпляр принадлежит вызывающему потоку и уже инициализирован ключом {@code key} для подписи.</p>
+     *
+     * @param algorithm алгоритм ЭЦП.
+     * @param key закрытый ключ ЭЦП.
+     *
+     * @return Инициализированный объект {@link Signature}.
+     *
+     * @throws NoSuchAlgorithmException если алгоритм не поддерживается.
+     * @throws InvalidKeyException если ключ не задан или не подходит алгоритму.
+     */
+    public static Signature getSignature(String algorithm, PrivateKey key)
+            throws NoSuchAlgorithmException, InvalidKeyException
+    {
+        if (key == null)
+            throw new InvalidKeyException("Ключ ЭЦП не задан.");
+
+        Map<String, CachedSignature> signatures = SIGNATURES.get();
+
+        CachedSignature cached = signatures.get(algorithm);
+
+        if (cached == null)
+        {
+            cached = new CachedSignature(Signature.getInstance(algorithm));
+
+            signatures.put(algorithm, cached);
+        }
+
+        if (cached.key != key)
+        {
+            cached.key = null;
+
+            cached.signature.initSign(key);
+
+            cached.key = key;
+        }
+
+        return cached.signature;
+    }
+
+    /**
+     * <h3>Получение шифра текущего потока</h3>
+     *
+     * @return Объект {@link Cipher}, инициализированный в режиме {@code mode} ключом {@code key}.
+     */
+    private static Cipher getCipher(String transformation, int mode, Key key)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException
+    {
+        Map<String, CachedCipher> ciphers = CIPHERS.get();
+
+        CachedCipher cached = ciphers.get(transformation);
+
+        if (cached == null)
+        {
+            cached = new CachedCipher(Cipher.getInstance(transformation));
+
+            ciphers.put(transformation, cached);
+        }
+
+        if (cached.key != key || cached.mode != mode)
+        {
+            cached.key = null;
+
+            cached.cipher.init(mode, key);
+
+            cached.key = key;
+            cached.mode = mode;
+        }
+
+        return cached.cipher;
+    }
+
+    /**
+     * <h2>Шифр вместе с ключом и режимом последней инициализации</h2>
+     */
+    private static class CachedCipher
+    {
+        private final Cipher cipher;
+
+        private Key key;
+        private int mode;
+
+        CachedCipher(Cipher cipher)
+        {
+            this.cipher = cipher;
+        }
+    }
+
+    /**
+     * <h2>HMAC вместе с ключом последней инициализации</h2>
+     *
+     * <p>Для {@code HmacSHA256} код в готовый массив считается по RFC 2104 поверх {@link MessageDigest} с заранее
+     * вычисленными дополнениями ключа: {@link Mac#doFinal(byte[], int)} создаёт два промежуточных массива хеша на
+     * каждый вызов, а {@link MessageDigest#digest(byte[], int, int)} пишет хеш в готовый массив.</p>
+     */
+    private static class CachedMac
+    {
+        private static final int BLOCK_SIZE = 64;
+
+        private final Mac mac;
+
+        /**
+         * Хеш для вычисления HMAC без промежуточных массивов или {@code null}, если алгоритм им не поддерживается.
+         */
+        private final MessageDigest digest;
+
+        private final byte[] innerPad;
+        private final byte[] outerPad;
+        private final byte[] inner;
+
+        private Key key;
+
+        CachedMac(Mac mac, MessageDigest digest)
+        {
+            this.mac = mac;
+            this.digest = digest;
+
+            innerPad = digest != null ? new byte[BLOCK_SIZE] : null;
+            outerPad = digest != null ? new byte[BLOCK_SIZE] : null;
+            inner = digest != null ? new byte[digest.getDigestLength()] : null;
+        }
+
+        void init(Key key) throws InvalidKeyException
+        {
+            mac.init(key);
+
+            if (digest == null)
+                return;
+
+            byte[] encoded = key.getEncoded();
+
+            if (encoded == null)
+                throw new InvalidKeyException("Ключ аутентификации не раскрывает своё значение.");
+
+            if (encoded.length > BLOCK_SIZE)
+                encoded = digest.digest(encoded);
+
+            Arrays.fill(innerPad, (byte) 0x36);
+            Arrays.fill(outerPad, (byte) 0x5C);
+
+            for (int i = 0; i < encoded.length; i++)
             {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
+                innerPad[i] ^= encoded[i];
+                outerPad[i] ^= encoded[i];
             }
+
+            Arrays.fill(encoded, (byte) 0);
+        }
+
+        int hmac(ByteBuffer data, byte[] output, int offset) throws DigestException
+        {
+            int length = inner.length;
+
+            if (output.length - offset < length)
+                throw new DigestException("Код аутентификации не помещается в массив.");
+
+            digest.reset();
+            digest.update(innerPad);
+            digest.update(data);
+            digest.digest(inner, 0, length);
+
+            digest.update(outerPad);
+            digest.update(inner);
+
+            return digest.digest(output, offset, length);
         }
+    }
 
-        return pkEntry.getPrivateKey();
+    /**
+     * <h2>ЭЦП вместе с ключом последней инициализации</h2>
+     */
+    private static class CachedSignature
+    {
+        private final Signature signature;
+
+        private PrivateKey key;
+
+        CachedSignature(Signature signature)
+        {
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * <h3>Зашифрование AES-GCM</h3>
+     *
+     * <p>Шифрует {@code input} в {@code output} без промежуточных массивов. Шифр берётся из кэша текущего потока и
+     * инициализируется заново при каждом вызове, так как GCM требует нового nonce для каждой операции.</p>
+     *
+     * @param nonce уникальный для ключа {@code key} nonce длиной 12 байт.
+     * @param aad дополнительные аутентифицируемые данные.
+     *
+     * @return Число байт, записанных в {@code output} (шифртекст и тег).
+     *
+     * @throws GeneralSecurityException если данные не удалось зашифровать.
+     */
+    public static int encryptGcm(Key key, byte[] nonce, ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException
+    {
+        return gcm(Cipher.ENCRYPT_MODE, key, nonce, aad, input, output);
+    }
+
+    /**
+     * <h3>Расшифрование AES-GCM</h3>
+     *
+     * @return Число байт открытого текста, записанных в {@code output}.
+     *
+     * @throws GeneralSecurityException если тег не совпал или данные не удалось расшифровать.
+     */
+    public static int decryptGcm(Key key, byte[] nonce, ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException
+    {
+        return gcm(Cipher.DECRYPT_MODE, key, nonce, aad, input, output);
+    }
+
+    private static int gcm(int mode, Key key, byte[] nonce, ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException
+    {
+        Map<String, CachedCipher> ciphers = CIPHERS.get();
+
+        CachedCipher cached = ciphers.get(GCM_TRANSFORMATION);
+
+        if (cached == null)
+        {
+            cached = new CachedCipher(Cipher.getInstance(GCM_TRANSFORMATION));
+
+            ciphers.put(GCM_TRANSFORMATION, cached);
+        }
+
+        try
+        {
+            cached.cipher.init(mode, key, new javax.crypto.spec.GCMParameterSpec(GCM_TAG_BITS, nonce));
+
+            if (aad != null)
+                cached.cipher.updateAAD(aad);
+
+            return cached.cipher.doFinal(input, output);
+        }
+        catch (GeneralSecurityException|RuntimeException ex)
+        {
+            ciphers.remove(GCM_TRANSFORMATION);
+
+            throw ex;
+        }
+    }
+
+    /**
+     * <h3>Получение секретного ключа для ЭЦП</h3>
+     *
+     * <p>Находит в хранилище ключей по умолчанию ({@link KeyStoreService#getDefault()}) запись с псевдонимом
+     * {@code alias}. Загружает из записи секретный ключ.</p>
+     *
+     * @param alias псевдоним записи.
+     * @param password пароль от хранилища ключей.
+     *
+     * @return Секретный ключ для ЭЦП.
+     *
+     * @throws UnrecoverableKeyException если задан не верный пароль {@code password}.
+     * @throws KeyStoreService.EntryNotFoundException если запись с псевдонимом {@code alias} не существует.
+     * @throws KeyStoreException если хранилище не прочитано или повреждено.
+     */
+    public static PrivateKey getPrivateKey(String alias, String password)
+            throws UnrecoverableKeyException, KeyStoreException
+    {
+        return KeyStoreService.getDefault().getPrivateKey(alias, password);
     }
 }
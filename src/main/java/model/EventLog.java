@@ -0,0 +1,503 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h2>Журнал событий</h2>
+ *
+ * <p>Асинхронный журнал ошибок сервера. Вызывающий поток только кладёт запись в кольцевой буфер без блокировок и
+ * сразу продолжает работу; форматирование и запись в файл выполняет фоновый поток пакетами до
+ * {@value EventLog#MAX_BATCH} записей, дописывая их в конец файла.</p>
+ *
+ * <p>Запись состоит из структурированных полей:</p>
+ * <pre>
+ * 2024-03-12T10:15:30.123 level=ERROR source=model.Server phase=initSignature session=Session#3
+ *     exception=java.security.InvalidKeyException message="..."
+ * </pre>
+ * <p>(в файле - одной строкой), за которой следует стек исключения.</p>
+ *
+ * <p>Когда файл превышает {@code maxFileBytes}, он переименовывается в {@code .log.1}, прежние архивы сдвигаются,
+ * а старше {@code maxFiles} удаляются. Если буфер переполнен, запись отбрасывается, а фоновый поток сообщает
+ * в журнал число отброшенных записей; ёмкость буфера рассчитана на всплески ошибок без потерь.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class EventLog implements Closeable
+{
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final long DEFAULT_MAX_FILE_BYTES = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    /**
+     * Системное свойство с каталогом журнала по умолчанию.
+     */
+    public static final String DIRECTORY_PROPERTY = "ske.log.dir";
+
+    private static final String DEFAULT_DIRECTORY = "src/main/resources/logs";
+    private static final String FILE_NAME = ".log";
+
+    private static final int MAX_BATCH = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * <h2>Уровень записи</h2>
+     */
+    public enum Level
+    {
+        INFO,
+        WARNING,
+        ERROR
+    }
+
+    private static volatile EventLog defaultLog;
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    /**
+     * Кольцевой буфер записей. Производители занимают ячейку сдвигом {@code tail}, фоновый поток освобождает ячейки и
+     * сдвигает {@code head}.
+     */
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Число отброшенных записей, о котором уже сообщено. Используется только фоновым потоком.
+     */
+    private long reportedDropped;
+
+    private OutputStream out;
+    private long size;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param file файл журнала.
+     * @param capacity ёмкость кольцевого буфера; округляется вверх до степени двойки.
+     * @param maxFileBytes размер файла, после которого он архивируется.
+     * @param maxFiles число хранимых архивов.
+     */
+    public EventLog(Path file, int capacity, long maxFileBytes, int maxFiles)
+    {
+        if (capacity <= 0 || maxFileBytes <= 0 || maxFiles <= 0)
+            throw new IllegalArgumentException("Параметры журнала должны быть положительными.");
+
+        this.file = file.toAbsolutePath();
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+
+        int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+
+        ring = new AtomicReferenceArray<>(length);
+        mask = length - 1;
+
+        writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "event-log-writer");
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * <h3>Журнал по умолчанию</h3>
+     *
+     * <p>Файл {@code .log} в каталоге из системного свойства {@value EventLog#DIRECTORY_PROPERTY} или в
+     * {@code src/main/resources/logs}. Оставшиеся записи дописываются при завершении процесса.</p>
+     */
+    public static EventLog get()
+    {
+        EventLog log = defaultLog;
+
+        if (log == null)
+        {
+            synchronized (EventLog.class)
+            {
+                log = defaultLog;
+
+                if (log == null)
+                {
+                    Path directory = Path.of(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY));
+
+                    log = new EventLog(directory.resolve(FILE_NAME), DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES,
+                            DEFAULT_MAX_FILES);
+
+                    EventLog closing = log;
+
+                    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            closing.close();
+                        }
+                    }, "event-log-shutdown"));
+
+                    defaultLog = log;
+                }
+            }
+        }
+
+        return log;
+    }
+
+    /**
+     * <h3>Запись ошибки в журнал по умолчанию</h3>
+     *
+     * @param source класс, в котором произошла ошибка.
+     * @param phase этап работы (как правило, имя метода).
+     * @param ex исключение.
+     */
+    public static void error(Class<?> source, String phase, Throwable ex)
+    {
+        get().log(Level.ERROR, source, phase, null, null, ex);
+    }
+
+    /**
+     * <h3>Запись ошибки сессии в журнал по умолчанию</h3>
+     */
+    public static void error(Class<?> source, String phase, Session session, Throwable ex)
+    {
+        get().log(Level.ERROR, source, phase, session, null, ex);
+    }
+
+    /**
+     * <h3>Добавление записи</h3>
+     *
+     * <p>Не блокирует вызывающий поток. Если буфер переполнен, запись отбрасывается и учитывается
+     * в {@link EventLog#getDropped()}.</p>
+     *
+     * @param session сессия, к которой относится запись, или {@code null}.
+     * @param message текст записи или {@code null}, если достаточно сообщения исключения.
+     * @param ex исключение или {@code null}.
+     */
+    public void log(Level level, Class<?> source, String phase, Session session, String message, Throwable ex)
+    {
+        if (!running)
+        {
+            dropped.increment();
+
+            return;
+        }
+
+        Entry entry = new Entry(System.currentTimeMillis(), level, source.getName(), phase,
+                session == null ? null : session.toString(), message, ex);
+
+        while (true)
+        {
+            long t = tail.get();
+
+            if (t - head >= ring.length())
+            {
+                dropped.increment();
+
+                return;
+            }
+
+            if (tail.compareAndSet(t, t + 1))
+            {
+                ring.set((int) (t & mask), entry);
+
+                break;
+            }
+        }
+
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop()
+    {
+        StringBuilder batch = new StringBuilder(8192);
+
+        while (true)
+        {
+            int count = drain(batch);
+
+            if (count == 0 && reportedDropped == dropped.sum())
+            {
+                if (!running && tail.get() == head)
+                    break;
+
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+
+                continue;
+            }
+
+            long lost = dropped.sum();
+
+            if (lost != reportedDropped)
+            {
+                format(new Entry(System.currentTimeMillis(), Level.WARNING, EventLog.class.getName(), "overflow",
+                        null, "Отброшено записей: " + (lost - reportedDropped) + ".", null), batch);
+
+                reportedDropped = lost;
+            }
+
+            write(batch, count);
+
+            batch.setLength(0);
+        }
+
+        closeFile();
+    }
+
+    /**
+     * Переносит готовые записи из буфера в {@code batch}. Ячейка, занятая производителем, но ещё не заполненная,
+     * останавливает перенос до следующего прохода, чтобы сохранить порядок записей.
+     */
+    private int drain(StringBuilder batch)
+    {
+        long h = head;
+        int count = 0;
+
+        while (count < MAX_BATCH)
+        {
+            int index = (int) (h & mask);
+
+            Entry entry = ring.get(index);
+
+            if (entry == null)
+                break;
+
+            ring.set(index, null);
+
+            format(entry, batch);
+
+            h++;
+            count++;
+        }
+
+        head = h;
+
+        return count;
+    }
+
+    private void write(StringBuilder batch, int count)
+    {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+
+        try
+        {
+            if (out == null)
+                openFile();
+
+            out.write(bytes);
+            out.flush();
+
+            size += bytes.length;
+
+            written.add(count);
+
+            if (size >= maxFileBytes)
+                rotate();
+        }
+        catch (IOException ex)
+        {
+            dropped.add(count);
+            reportedDropped += count;
+
+            closeFile();
+
+            System.err.println("Не удалось записать журнал " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private void openFile() throws IOException
+    {
+        Files.createDirectories(file.getParent());
+
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = Files.size(file);
+    }
+
+    private void closeFile()
+    {
+        if (out == null)
+            return;
+
+        try
+        {
+            out.close();
+        }
+        catch (IOException ex)
+        {
+            System.err.println(ex.getMessage());
+        }
+
+        out = null;
+    }
+
+    private void rotate() throws IOException
+    {
+        closeFile();
+
+        for (int i = maxFiles - 1; i >= 1; i--)
+        {
+            Path archive = archive(i);
+
+            if (Files.exists(archive))
+                Files.move(archive, archive(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Files.move(file, archive(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path archive(int index)
+    {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private static void format(Entry entry, StringBuilder sb)
+    {
+        sb.append(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.time), ZoneId.systemDefault()));
+        sb.append(" level=").append(entry.level);
+        sb.append(" source=").append(entry.source);
+
+        if (entry.phase != null)
+            sb.append(" phase=").append(entry.phase);
+
+        if (entry.session != null)
+            sb.append(" session=").append(entry.session);
+
+        if (entry.error != null)
+            sb.append(" exception=").append(entry.error.getClass().getName());
+
+        String message = entry.message != null ? entry.message
+                : entry.error != null ? entry.error.getMessage() : null;
+
+        if (message != null)
+        {
+            sb.append(" message=\"");
+
+            for (int i = 0; i < message.length(); i++)
+            {
+                char c = message.charAt(i);
+
+                switch (c)
+                {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    default -> sb.append(c);
+                }
+            }
+
+            sb.append('"');
+        }
+
+        sb.append('\n');
+
+        if (entry.error != null)
+        {
+            StringWriter trace = new StringWriter();
+
+            entry.error.printStackTrace(new PrintWriter(trace));
+
+            sb.append(trace);
+        }
+    }
+
+    /**
+     * <h3>Закрытие журнала</h3>
+     *
+     * <p>Дописывает оставшиеся записи и останавливает фоновый поток. Записи, добавленные после закрытия,
+     * отбрасываются.</p>
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+
+        LockSupport.unpark(writer);
+
+        try
+        {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return число записей, записанных в файл.
+     */
+    public long getWritten()
+    {
+        return written.sum();
+    }
+
+    /**
+     * @return число записей, отброшенных из-за переполнения буфера или ошибки записи.
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * <h2>Запись журнала</h2>
+     */
+    private static class Entry
+    {
+        private final long time;
+        private final Level level;
+        private final String source;
+        private final String phase;
+        private final String session;
+        private final String message;
+        private final Throwable error;
+
+        Entry(long time, Level level, String source, String phase, String session, String message, Throwable error)
+        {
+            this.time = time;
+            this.level = level;
+            this.source = source;
+            this.phase = phase;
+            this.session = session;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
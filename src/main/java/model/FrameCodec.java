@@ -0,0 +1,346 @@
+package model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * <h2>Кодек кадров прикладного протокола</h2>
+ *
+ * <p>Формат кадра версии {@value FrameCodec#VERSION}:</p>
+ * <pre>
+ * version  1 байт
+ * type     1 байт; старший бит означает, что далее следует байт флагов
+ * flags    1 байт, необязательный
+ * sequence varint
+ * length   varint, длина нагрузки
+ * payload  length байт
+ * tagLen   varint, только при флаге {@link FrameCodec#FLAG_TAG}
+ * tag      tagLen байт - ЭЦП или код аутентификации кадра
+ * </pre>
+ *
+ * <p>Тег вычисляется над байтами кадра от версии до конца нагрузки ({@link Frame#getAuthenticated()}), поэтому
+ * защищает и номер кадра. Числа varint записываются по 7 бит, младшими группами вперёд.</p>
+ *
+ * <p>Кодирование и декодирование работают прямо с {@link ByteBuffer}: декодированные нагрузка и тег - представления
+ * исходного буфера без копирования.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class FrameCodec
+{
+    public static final int VERSION = 1;
+
+    /**
+     * Сообщение пользователю клиент-приложения.
+     */
+    public static final int TYPE_MESSAGE = 1;
+
+    /**
+     * Начало потоковой передачи: varint номер потока, varint размер сегмента. За кадром следуют сегменты
+     * {@link StreamEncryptor}.
+     */
+    public static final int TYPE_STREAM_BEGIN = 2;
+
+    /**
+     * Конец потоковой передачи: varint номер потока, varint длина данных, SHA-256 данных.
+     */
+    public static final int TYPE_STREAM_END = 3;
+
+    /**
+     * Управляющий сигнал {@link ControlSignal}: код сигнала, затем необязательный varint-аргумент.
+     */
+    public static final int TYPE_CONTROL = 4;
+
+    /**
+     * Несколько сообщений в одной записи: varint число сообщений, затем для каждого varint длина и байты сообщения.
+     * Номер и тег кадра общие для всех сообщений пакета.
+     */
+    public static final int TYPE_BATCH = 5;
+
+    /**
+     * Билет возобновления сессии ({@link SessionTicketCache}): varint время жизни в секундах, затем билет.
+     */
+    public static final int TYPE_TICKET = 6;
+
+    private static final int TYPE_HAS_FLAGS = 0x80;
+    private static final int TYPE_MASK = 0x7F;
+
+    /**
+     * После нагрузки следует тег аутентификации.
+     */
+    public static final int FLAG_TAG = 0x01;
+
+    /**
+     * Наибольшая длина varint для значения типа {@code long}.
+     */
+    private static final int MAX_VARINT_LENGTH = 10;
+
+    private FrameCodec()
+    {
+    }
+
+    /**
+     * <h3>Длина заголовка кадра</h3>
+     *
+     * @return число байт от версии до начала нагрузки.
+     */
+    public static int headerLength(int flags, long sequence, int payloadLength)
+    {
+        return 2 + (flags != 0 ? 1 : 0) + varintLength(sequence) + varintLength(payloadLength);
+    }
+
+    /**
+     * <h3>Полная длина кадра</h3>
+     *
+     * @param tagLength длина тега; учитывается только при флаге {@link FrameCodec#FLAG_TAG}.
+     */
+    public static int frameLength(int flags, long sequence, int payloadLength, int tagLength)
+    {
+        int length = headerLength(flags, sequence, payloadLength) + payloadLength;
+
+        if ((flags & FLAG_TAG) != 0)
+            length += varintLength(tagLength) + tagLength;
+
+        return length;
+    }
+
+    /**
+     * <h3>Запись заголовка</h3>
+     *
+     * <p>После заголовка вызывающий записывает в {@code dst} ровно {@code payloadLength} байт нагрузки и, при флаге
+     * {@link FrameCodec#FLAG_TAG}, тег методом {@link FrameCodec#writeTag(ByteBuffer, ByteBuffer)}.</p>
+     */
+    public static void writeHeader(ByteBuffer dst, int type, int flags, long sequence, int payloadLength)
+    {
+        if ((type & ~TYPE_MASK) != 0 || (flags & ~0xFF) != 0)
+            throw new IllegalArgumentException("Некорректный тип или флаги кадра.");
+
+        dst.put((byte) VERSION);
+
+        if (flags != 0)
+        {
+            dst.put((byte) (type | TYPE_HAS_FLAGS));
+            dst.put((byte) flags);
+        }
+        else
+        {
+            dst.put((byte) type);
+        }
+
+        putVarint(dst, sequence);
+        putVarint(dst, payloadLength);
+    }
+
+    public static void writeTag(ByteBuffer dst, ByteBuffer tag)
+    {
+        putVarint(dst, tag.remaining());
+
+        dst.put(tag);
+    }
+
+    /**
+     * <h3>Кодирование кадра целиком</h3>
+     *
+     * @param tag тег или {@code null}; при наличии тега к флагам добавляется {@link FrameCodec#FLAG_TAG}.
+     */
+    public static void encode(ByteBuffer dst, int type, int flags, long sequence, ByteBuffer payload, ByteBuffer tag)
+    {
+        if (tag != null)
+            flags |= FLAG_TAG;
+
+        writeHeader(dst, type, flags, sequence, payload.remaining());
+
+        dst.put(payload);
+
+        if (tag != null)
+            writeTag(dst, tag);
+    }
+
+    /**
+     * <h3>Декодирование кадра</h3>
+     *
+     * @param src буфер с данными; при успехе позиция сдвигается за конец кадра.
+     *
+     * @return кадр или {@code null}, если кадр в буфере ещё не полный (позиция не меняется).
+     *
+     * @throws IOException если версия не поддерживается или кадр повреждён.
+     */
+    public static Frame decode(ByteBuffer src) throws IOException
+    {
+        int start = src.position();
+
+        try
+        {
+            int version = src.get() & 0xFF;
+
+            if (version != VERSION)
+                throw new IOException("Неподдерживаемая версия кадра: " + version + ".");
+
+            int type = src.get() & 0xFF;
+            int flags = 0;
+
+            if ((type & TYPE_HAS_FLAGS) != 0)
+                flags = src.get() & 0xFF;
+
+            long sequence = getVarint(src);
+            int payloadLength = toLength(getVarint(src));
+
+            if (src.remaining() < payloadLength)
+            {
+                src.position(start);
+
+                return null;
+            }
+
+            ByteBuffer payload = src.slice(src.position(), payloadLength);
+
+            src.position(src.position() + payloadLength);
+
+            ByteBuffer authenticated = src.slice(start, src.position() - start);
+            ByteBuffer tag = null;
+
+            if ((flags & FLAG_TAG) != 0)
+            {
+                int tagLength = toLength(getVarint(src));
+
+                if (src.remaining() < tagLength)
+                {
+                    src.position(start);
+
+                    return null;
+                }
+
+                tag = src.slice(src.position(), tagLength);
+
+                src.position(src.position() + tagLength);
+            }
+
+            return new Frame(type & TYPE_MASK, flags, sequence, payload, tag, authenticated);
+        }
+        catch (BufferUnderflowException ex)
+        {
+            src.position(start);
+
+            return null;
+        }
+    }
+
+    public static int varintLength(long value)
+    {
+        int length = 1;
+
+        while ((value & ~0x7FL) != 0)
+        {
+            value >>>= 7;
+
+            length++;
+        }
+
+        return length;
+    }
+
+    public static void putVarint(ByteBuffer dst, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+
+            value >>>= 7;
+        }
+
+        dst.put((byte) value);
+    }
+
+    /**
+     * @throws BufferUnderflowException если число в буфере не полное.
+     * @throws IOException если число длиннее 10 байт.
+     */
+    public static long getVarint(ByteBuffer src) throws IOException
+    {
+        long value = 0;
+
+        for (int i = 0; i < MAX_VARINT_LENGTH; i++)
+        {
+            int b = src.get();
+
+            value |= (long) (b & 0x7F) << (7 * i);
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Слишком длинное число varint.");
+    }
+
+    private static int toLength(long value) throws IOException
+    {
+        if (value < 0 || value > Integer.MAX_VALUE)
+            throw new IOException("Недопустимая длина в кадре: " + value + ".");
+
+        return (int) value;
+    }
+
+    /**
+     * <h2>Декодированный кадр</h2>
+     *
+     * <p>Буферы кадра - представления исходного буфера и действительны, пока он не переиспользован.</p>
+     */
+    public static final class Frame
+    {
+        private final int type;
+        private final int flags;
+        private final long sequence;
+        private final ByteBuffer payload;
+        private final ByteBuffer tag;
+        private final ByteBuffer authenticated;
+
+        Frame(int type, int flags, long sequence, ByteBuffer payload, ByteBuffer tag, ByteBuffer authenticated)
+        {
+            this.type = type;
+            this.flags = flags;
+            this.sequence = sequence;
+            this.payload = payload;
+            this.tag = tag;
+            this.authenticated = authenticated;
+        }
+
+        public int getType()
+        {
+            return type;
+        }
+
+        public int getFlags()
+        {
+            return flags;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public ByteBuffer getPayload()
+        {
+            return payload.duplicate();
+        }
+
+        /**
+         * @return тег аутентификации или {@code null}, если кадр без тега.
+         */
+        public ByteBuffer getTag()
+        {
+            return tag == null ? null : tag.duplicate();
+        }
+
+        /**
+         * @return байты кадра, покрываемые тегом: от версии до конца нагрузки.
+         */
+        public ByteBuffer getAuthenticated()
+        {
+            return authenticated.duplicate();
+        }
+    }
+}
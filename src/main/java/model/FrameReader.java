@@ -0,0 +1,180 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <h2>Чтение кадров с префиксом длины</h2>
+ *
+ * <p>Кадр состоит из заголовка - длины полезной нагрузки в 4 байтах (big-endian) - и самой нагрузки. Кадр собирается в
+ * одном переиспользуемом буфере за один проход, без опроса {@code available()} и промежуточных копий.</p>
+ *
+ * <p>Метод {@link FrameReader#read(ReadableByteChannel)} подходит для неблокирующего канала: он читает столько,
+ * сколько есть, и возвращает {@code null}, если кадр ещё не собран. Метод {@link FrameReader#readFully(ReadableByteChannel)}
+ * предназначен для блокирующих потоков. Данные, уже прочитанные из сокета, можно передать методом
+ * {@link FrameReader#feed(ByteBuffer)}.</p>
+ *
+ * <p>Возвращаемая нагрузка - представление внутреннего буфера и действительна до следующего вызова.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class FrameReader
+{
+    public static final int HEADER_LENGTH = 4;
+
+    private final int maxFrameLength;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Длина нагрузки текущего кадра или -1, если заголовок ещё не прочитан.
+     */
+    private int frameLength = -1;
+
+    /**
+     * Был ли возвращён кадр, который нужно освободить перед чтением следующего.
+     */
+    private boolean delivered;
+
+    /**
+     * @param initialCapacity начальный размер буфера нагрузки.
+     * @param maxFrameLength наибольшая допустимая длина нагрузки; буфер растёт до неё по мере необходимости.
+     */
+    public FrameReader(int initialCapacity, int maxFrameLength)
+    {
+        if (initialCapacity <= 0 || maxFrameLength < initialCapacity)
+            throw new IllegalArgumentException("Некорректный размер буфера кадра.");
+
+        this.maxFrameLength = maxFrameLength;
+
+        buffer = ByteBuffer.allocate(HEADER_LENGTH + initialCapacity);
+        buffer.limit(HEADER_LENGTH);
+    }
+
+    /**
+     * <h3>Неблокирующее чтение кадра</h3>
+     *
+     * @param channel канал, из которого читаются данные.
+     *
+     * @return нагрузку кадра или {@code null}, если данных пока недостаточно.
+     *
+     * @throws EOFException если канал закрыт до окончания кадра.
+     * @throws IOException если заявлена недопустимая длина кадра или при чтении возникла ошибка.
+     */
+    public ByteBuffer read(ReadableByteChannel channel) throws IOException
+    {
+        release();
+
+        while (true)
+        {
+            int count = channel.read(buffer);
+
+            if (count < 0)
+                throw new EOFException("Соединение закрыто до окончания кадра.");
+
+            ByteBuffer frame = advance();
+
+            if (frame != null || count == 0)
+                return frame;
+        }
+    }
+
+    /**
+     * <h3>Блокирующее чтение кадра</h3>
+     *
+     * @param channel блокирующий канал, из которого читаются данные.
+     *
+     * @return нагрузку кадра.
+     *
+     * @throws EOFException если канал закрыт до окончания кадра.
+     * @throws IOException если заявлена недопустимая длина кадра или при чтении возникла ошибка.
+     */
+    public ByteBuffer readFully(ReadableByteChannel channel) throws IOException
+    {
+        ByteBuffer frame;
+
+        while ((frame = read(channel)) == null)
+        {
+            // блокирующий канал всегда возвращает хотя бы один байт
+        }
+
+        return frame;
+    }
+
+    /**
+     * <h3>Разбор уже прочитанных данных</h3>
+     *
+     * <p>Забирает из {@code src} не больше, чем нужно для текущего кадра; остаток можно передать повторно.</p>
+     *
+     * @return нагрузку кадра или {@code null}, если данных пока недостаточно.
+     *
+     * @throws IOException если заявлена недопустимая длина кадра.
+     */
+    public ByteBuffer feed(ByteBuffer src) throws IOException
+    {
+        release();
+
+        while (src.hasRemaining())
+        {
+            int count = Math.min(src.remaining(), buffer.remaining());
+
+            ByteBuffer chunk = src.slice(src.position(), count);
+
+            buffer.put(chunk);
+            src.position(src.position() + count);
+
+            ByteBuffer frame = advance();
+
+            if (frame != null)
+                return frame;
+        }
+
+        return null;
+    }
+
+    private ByteBuffer advance() throws IOException
+    {
+        if (buffer.hasRemaining())
+            return null;
+
+        if (frameLength < 0)
+        {
+            frameLength = buffer.getInt(0);
+
+            if (frameLength < 0 || frameLength > maxFrameLength)
+                throw new IOException("Недопустимая длина кадра: " + frameLength + ".");
+
+            if (buffer.capacity() < HEADER_LENGTH + frameLength)
+            {
+                int capacity = (int) Math.min((long) HEADER_LENGTH + maxFrameLength,
+                        Math.max(2L * buffer.capacity(), HEADER_LENGTH + frameLength));
+
+                buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+            }
+
+            buffer.limit(HEADER_LENGTH + frameLength);
+
+            if (buffer.hasRemaining())
+                return null;
+        }
+
+        delivered = true;
+
+        return buffer.slice(HEADER_LENGTH, frameLength);
+    }
+
+    private void release()
+    {
+        if (!delivered)
+            return;
+
+        delivered = false;
+        frameLength = -1;
+
+        buffer.clear().limit(HEADER_LENGTH);
+    }
+}
@@ -0,0 +1,40 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <h2>Запись кадров с префиксом длины</h2>
+ *
+ * <p>Парный к {@link FrameReader} формат: длина нагрузки в 4 байтах (big-endian), затем нагрузка. Кадр передаётся в
+ * поток одной операцией записи.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class FrameWriter
+{
+    private FrameWriter()
+    {
+    }
+
+    public static void write(OutputStream out, byte[] payload) throws IOException
+    {
+        write(out, payload, 0, payload.length);
+    }
+
+    public static void write(OutputStream out, byte[] payload, int off, int len) throws IOException
+    {
+        byte[] frame = new byte[FrameReader.HEADER_LENGTH + len];
+
+        frame[0] = (byte) (len >>> 24);
+        frame[1] = (byte) (len >>> 16);
+        frame[2] = (byte) (len >>> 8);
+        frame[3] = (byte) len;
+
+        System.arraycopy(payload, off, frame, FrameReader.HEADER_LENGTH, len);
+
+        out.write(frame);
+    }
+}
@@ -0,0 +1,52 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h2>Событие JFR: этап рукопожатия</h2>
+ *
+ * <p>Этапы: {@value HandshakePhaseEvent#KEY_GENERATION} - подготовка части обмена сервера (пара RSA из пула или
+ * разовый ключ X25519), {@value HandshakePhaseEvent#KEY_SEND} - её отправка, {@value HandshakePhaseEvent#KEY_READ} -
+ * ожидание и чтение ответа клиента, {@value HandshakePhaseEvent#UNWRAP} - развёртка секретного ключа или
+ * согласование ECDH, {@value HandshakePhaseEvent#TRANSCRIPT_SIGN} - ЭЦП рукопожатия, {@value HandshakePhaseEvent#RESUME}
+ * - погашение билета и вывод ключа. По умолчанию выключено.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@Name("ske.HandshakePhase")
+@Label("Handshake Phase")
+@Category({"SKE", "Handshake"})
+@Description("Этап рукопожатия с клиентом")
+@Enabled(false)
+@StackTrace(false)
+final class HandshakePhaseEvent extends Event
+{
+    static final String KEY_GENERATION = "keyGeneration";
+    static final String KEY_SEND = "keySend";
+    static final String KEY_READ = "keyRead";
+    static final String UNWRAP = "unwrap";
+    static final String TRANSCRIPT_SIGN = "transcriptSign";
+    static final String RESUME = "resume";
+
+    @Label("Session Id")
+    long sessionId;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Key Exchange")
+    String suite;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
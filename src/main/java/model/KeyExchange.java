@@ -0,0 +1,35 @@
+package model;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * <h2>Обмен ключами одного рукопожатия</h2>
+ *
+ * <p>Сервер отправляет клиенту свою часть обмена {@link KeyExchange#getServerShare()}, получает в ответ часть
+ * клиента и вычисляет из неё секретный ключ сессии. Экземпляр используется для одного рукопожатия.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+interface KeyExchange
+{
+    KeyExchangeSuite getSuite();
+
+    /**
+     * @return кодированный открытый ключ сервера.
+     */
+    byte[] getServerShare();
+
+    /**
+     * <h3>Завершение обмена</h3>
+     *
+     * @param clientShare ответ клиента.
+     *
+     * @return секретный ключ AES сессии.
+     *
+     * @throws GeneralSecurityException если ответ клиента некорректен.
+     */
+    Key complete(byte[] clientShare) throws GeneralSecurityException;
+}
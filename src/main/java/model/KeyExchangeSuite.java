@@ -0,0 +1,50 @@
+package model;
+
+/**
+ * <h2>Способ обмена ключами при защите соединения</h2>
+ *
+ * <p>Предлагается клиент-приложением в {@link ClientHello} и выбирается сервером
+ * ({@link Server#setKeyExchangeSuites(java.util.Set)}).</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public enum KeyExchangeSuite
+{
+    /**
+     * Клиент шифрует свой секретный ключ AES открытым ключом RSA-2048 из {@link KeyPairPool}.
+     */
+    RSA_WRAP(0),
+
+    /**
+     * Обе стороны генерируют разовые ключи X25519, и секретный ключ выводится из общего секрета ECDH.
+     */
+    X25519(1);
+
+    private final int code;
+
+    KeyExchangeSuite(int code)
+    {
+        this.code = code;
+    }
+
+    public int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * @return способ обмена ключами с кодом {@code code} или {@code null}, если такого нет.
+     */
+    public static KeyExchangeSuite fromCode(int code)
+    {
+        for (KeyExchangeSuite suite : values())
+        {
+            if (suite.code == code)
+                return suite;
+        }
+
+        return null;
+    }
+}
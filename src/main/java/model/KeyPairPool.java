@@ -0,0 +1,255 @@
+package model;
+
+import java.io.Closeable;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Пул заранее сгенерированных ключевых пар RSA</h2>
+ *
+ * <p>Генерация пары RSA-2048 занимает десятки и сотни миллисекунд, поэтому пары готовятся фоновыми потоками заранее, а
+ * защита соединения ({@link Server#connectionProtection(Session)}) только забирает готовую пару из пула.</p>
+ *
+ * <p>Пул ограничен ёмкостью {@code capacity}. Когда число готовых пар опускается ниже {@code lowWaterMark}, фоновые
+ * потоки начинают генерацию и продолжают её до полного заполнения пула. Каждая пара выдаётся не более
+ * {@code maxUses} раз (1 - пара одноразовая). Если пул пуст, пара генерируется в вызывающем потоке, что учитывается
+ * как промах.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class KeyPairPool implements Closeable
+{
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final int DEFAULT_LOW_WATER_MARK = 4;
+    public static final int DEFAULT_WORKERS = 1;
+    public static final int DEFAULT_MAX_USES = 1;
+
+    private final int capacity;
+    private final int lowWaterMark;
+    private final int maxUses;
+
+    private final LinkedBlockingDeque<PooledKeyPair> pairs;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+
+    /**
+     * Идёт ли пополнение пула. Защищено монитором пула.
+     */
+    private boolean refilling = true;
+
+    private volatile boolean running = true;
+
+    public KeyPairPool()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_LOW_WATER_MARK, DEFAULT_WORKERS, DEFAULT_MAX_USES);
+    }
+
+    /**
+     * <h3>Создание пула</h3>
+     *
+     * <p>Фоновые потоки запускаются сразу и заполняют пул до ёмкости {@code capacity}.</p>
+     *
+     * @param capacity наибольшее число готовых пар.
+     * @param lowWaterMark число готовых пар, ниже которого начинается пополнение.
+     * @param workers число фоновых потоков генерации.
+     * @param maxUses сколько раз одна пара может быть выдана для защиты соединения.
+     */
+    public KeyPairPool(int capacity, int lowWaterMark, int workers, int maxUses)
+    {
+        if (capacity <= 0 || workers <= 0 || maxUses <= 0)
+            throw new IllegalArgumentException("Параметры пула должны быть положительными.");
+
+        if (lowWaterMark < 0 || lowWaterMark > capacity)
+            throw new IllegalArgumentException("lowWaterMark должен быть в диапазоне от 0 до capacity.");
+
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.maxUses = maxUses;
+
+        pairs = new LinkedBlockingDeque<>(capacity);
+
+        for (int i = 0; i < workers; i++)
+        {
+            Thread worker = new Thread(new Refill(), "key-pair-pool-" + i);
+
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+
+            worker.start();
+        }
+    }
+
+    /**
+     * <h3>Получение ключевой пары</h3>
+     *
+     * <p>Не ждёт фоновую генерацию: при пустом пуле пара генерируется в вызывающем потоке.</p>
+     *
+     * @return ключевую пару с закэшированным открытым ключом.
+     *
+     * @throws IllegalStateException если пул пуст, а RSA не поддерживается платформой.
+     */
+    public PooledKeyPair take()
+    {
+        PooledKeyPair pair = pairs.pollFirst();
+
+        if (pair == null)
+        {
+            misses.increment();
+
+            signalRefill();
+
+            return new PooledKeyPair(CryptographicAlgorithms.generateKeyPair());
+        }
+
+        hits.increment();
+
+        if (pair.uses.incrementAndGet() < maxUses)
+            pairs.offerFirst(pair);
+
+        signalRefill();
+
+        return pair;
+    }
+
+    public int size()
+    {
+        return pairs.size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return число пар, сгенерированных фоновыми потоками.
+     */
+    public long getGenerated()
+    {
+        return generated.sum();
+    }
+
+    private synchronized void signalRefill()
+    {
+        if (!refilling && pairs.size() < lowWaterMark)
+        {
+            refilling = true;
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * <h3>Остановка фоновой генерации</h3>
+     *
+     * <p>Уже сгенерированные пары остаются доступны.</p>
+     */
+    @Override
+    public synchronized void close()
+    {
+        running = false;
+
+        notifyAll();
+    }
+
+    /**
+     * <h2>Фоновое пополнение пула</h2>
+     */
+    private class Refill implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                synchronized (KeyPairPool.this)
+                {
+                    while (running && !refilling)
+                    {
+                        try
+                        {
+                            KeyPairPool.this.wait();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            return;
+                        }
+                    }
+                }
+
+                if (!running)
+                    return;
+
+                PooledKeyPair pair;
+
+                try
+                {
+                    pair = new PooledKeyPair(CryptographicAlgorithms.generateKeyPair());
+                }
+                catch (IllegalStateException ex)
+                {
+                    EventLog.error(KeyPairPool.class, "refill", ex);
+
+                    return;
+                }
+
+                generated.increment();
+
+                synchronized (KeyPairPool.this)
+                {
+                    if (!pairs.offerLast(pair) || pairs.size() >= capacity)
+                        refilling = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * <h2>Ключевая пара пула</h2>
+     *
+     * <p>Хранит закодированный открытый ключ, чтобы не вызывать {@code getEncoded()} при каждой защите соединения.</p>
+     */
+    public static class PooledKeyPair
+    {
+        private final KeyPair keyPair;
+        private final byte[] encodedPublicKey;
+
+        private final AtomicInteger uses = new AtomicInteger();
+
+        PooledKeyPair(KeyPair keyPair)
+        {
+            this.keyPair = keyPair;
+            this.encodedPublicKey = keyPair.getPublic().getEncoded();
+        }
+
+        public KeyPair getKeyPair()
+        {
+            return keyPair;
+        }
+
+        public PrivateKey getPrivate()
+        {
+            return keyPair.getPrivate();
+        }
+
+        /**
+         * @return закодированный открытый ключ. Массив общий для всех получателей пары и не должен изменяться.
+         */
+        public byte[] getEncodedPublicKey()
+        {
+            return encodedPublicKey;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Хранилище ключей ЭЦП</h2>
+ *
+ * <p>Читает файл хранилища ключей один раз и кэширует расшифрованные записи {@link KeyStore.PrivateKeyEntry} по
+ * псевдониму, поэтому повторная инициализация ЭЦП ({@link Server#initSignature(String, String)}) не обращается к
+ * диску и не расшифровывает запись заново.</p>
+ *
+ * <p>Содержимое файла и кэш записей образуют снимок, который заменяется целиком. После
+ * {@link KeyStoreService#startWatching()} изменение файла обнаруживается через {@link WatchService}: новый снимок
+ * строится из нового содержимого, записи кэша расшифровываются заново, и только после этого снимок подменяется. Если
+ * новое содержимое не читается ни одним из известных паролей (например, файл записан не до конца), прежний снимок
+ * остаётся в силе до следующего изменения.</p>
+ *
+ * <p>Перезагрузка не меняет ключ уже инициализированного сервера: новый ключ вступает в силу при следующем вызове
+ * {@link Server#initSignature(String, String)}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class KeyStoreService implements Closeable
+{
+    /**
+     * Системное свойство и переменная окружения с путём к хранилищу по умолчанию.
+     */
+    public static final String PATH_PROPERTY = "ske.keystore";
+    public static final String PATH_VARIABLE = "SKE_KEYSTORE";
+
+    private static volatile KeyStoreService defaultService;
+
+    private final Path path;
+
+    private volatile Snapshot snapshot;
+
+    private WatchService watchService;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /**
+     * <h3>Создание хранилища</h3>
+     *
+     * <p>Файл читается сразу. Если его нет, хранилище пусто до появления файла.</p>
+     *
+     * @param path путь к файлу хранилища ключей.
+     */
+    public KeyStoreService(Path path)
+    {
+        this.path = path.toAbsolutePath();
+
+        snapshot = read();
+    }
+
+    /**
+     * <h3>Хранилище по умолчанию</h3>
+     *
+     * <p>Путь берётся из системного свойства {@value KeyStoreService#PATH_PROPERTY}, переменной окружения
+     * {@value KeyStoreService#PATH_VARIABLE} или, если они не заданы, это файл {@code .keystore} в домашнем каталоге
+     * пользователя ({@code C:\%HOMEPATH%\.keystore} в Windows). За файлом сразу начинается наблюдение.</p>
+     */
+    public static KeyStoreService getDefault()
+    {
+        KeyStoreService service = defaultService;
+
+        if (service == null)
+        {
+            synchronized (KeyStoreService.class)
+            {
+                service = defaultService;
+
+                if (service == null)
+                {
+                    service = new KeyStoreService(defaultPath());
+
+                    try
+                    {
+                        service.startWatching();
+                    }
+                    catch (IOException ex)
+                    {
+                        EventLog.get().log(EventLog.Level.WARNING, KeyStoreService.class, "getDefault", null,
+                                "Наблюдение за хранилищем ключей недоступно.", ex);
+                    }
+
+                    defaultService = service;
+                }
+            }
+        }
+
+        return service;
+    }
+
+    private static Path defaultPath()
+    {
+        String configured = System.getProperty(PATH_PROPERTY);
+
+        if (configured == null)
+            configured = System.getenv(PATH_VARIABLE);
+
+        if (configured != null && !configured.isBlank())
+            return Path.of(configured);
+
+        final String HOMEPATH = System.getenv("HOMEPATH");
+
+        if (HOMEPATH != null)
+            return Path.of("C:\\" + HOMEPATH + "\\.keystore");
+
+        return Path.of(System.getProperty("user.home"), ".keystore");
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * <h3>Получение секретного ключа для ЭЦП</h3>
+     *
+     * @param alias псевдоним записи.
+     * @param password пароль от хранилища ключей и записи.
+     *
+     * @return Секретный ключ для ЭЦП.
+     *
+     * @throws UnrecoverableKeyException если задан не верный пароль {@code password}.
+     * @throws EntryNotFoundException если запись с псевдонимом {@code alias} не существует.
+     * @throws KeyStoreException если хранилище не прочитано или повреждено.
+     */
+    public PrivateKey getPrivateKey(String alias, String password)
+            throws UnrecoverableKeyException, KeyStoreException
+    {
+        char[] charsPassword = password.toCharArray();
+
+        Snapshot current = snapshot;
+
+        CachedEntry cached = current.entries.get(alias);
+
+        if (cached != null && cached.matches(charsPassword))
+        {
+            hits.increment();
+
+            return cached.entry.getPrivateKey();
+        }
+
+        misses.increment();
+
+        KeyStore.PrivateKeyEntry entry = resolve(current, alias, charsPassword);
+
+        current.entries.put(alias, new CachedEntry(entry, charsPassword));
+
+        return entry.getPrivateKey();
+    }
+
+    /**
+     * <h3>Расшифровка записи из содержимого снимка</h3>
+     *
+     * <p>Хранилище разбирается из уже прочитанного в память содержимого файла.</p>
+     */
+    private KeyStore.PrivateKeyEntry resolve(Snapshot source, String alias, char[] password)
+            throws UnrecoverableKeyException, KeyStoreException
+    {
+        return entry(load(source, password), alias, password);
+    }
+
+    /**
+     * <h3>Разбор содержимого снимка</h3>
+     *
+     * @throws UnrecoverableKeyException если пароль не подходит к хранилищу.
+     * @throws KeyStoreException если хранилище не прочитано или повреждено (например, файл записан не до конца).
+     */
+    private KeyStore load(Snapshot source, char[] password) throws UnrecoverableKeyException, KeyStoreException
+    {
+        if (source.content == null)
+            throw new KeyStoreException("Хранилище ключей " + path + " не прочитано.");
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+
+        try
+        {
+            keyStore.load(new ByteArrayInputStream(source.content), password);
+        }
+        catch (IOException ex)
+        {
+            if (ex.getCause() instanceof UnrecoverableKeyException)
+                throw new UnrecoverableKeyException("Неверный пароль хранилища ключей.");
+
+            throw new KeyStoreException("Хранилище ключей " + path + " повреждено.", ex);
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new KeyStoreException("Хранилище ключей " + path + " повреждено.", ex);
+        }
+
+        return keyStore;
+    }
+
+    /**
+     * @throws EntryNotFoundException если записи с псевдонимом {@code alias} нет.
+     * @throws KeyStoreException если запись не закрытый ключ или не расшифровывается.
+     */
+    private KeyStore.PrivateKeyEntry entry(KeyStore keyStore, String alias, char[] password)
+            throws UnrecoverableKeyException, KeyStoreException
+    {
+        KeyStore.Entry entry;
+
+        try
+        {
+            entry = keyStore.getEntry(alias, new KeyStore.PasswordProtection(password));
+        }
+        catch (UnrecoverableKeyException|KeyStoreException ex) // чтобы GeneralSecurityException не перехватил
+        {
+            throw ex;
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new KeyStoreException("Запись с псевдонимом " + alias + " не расшифрована.", ex);
+        }
+
+        if (entry == null)
+            throw new EntryNotFoundException("Запись с псевдонимом " + alias + " не найдена.");
+
+        if (!(entry instanceof KeyStore.PrivateKeyEntry pkEntry))
+            throw new KeyStoreException("Запись с псевдонимом " + alias + " не содержит закрытого ключа.");
+
+        return pkEntry;
+    }
+
+    /**
+     * <h3>Перезагрузка хранилища</h3>
+     *
+     * <p>Читает файл заново и заменяет снимок, если содержимое изменилось. Записи, которые были в кэше, расшифровываются
+     * из нового содержимого до подмены; записи, которых больше нет или пароль которых сменился, выпадают из кэша с
+     * предупреждением. Прежний снимок остаётся в силе, только если новое содержимое не разбирается как хранилище
+     * (файл записан не до конца или повреждён).</p>
+     *
+     * @return {@code True}, если снимок заменён.
+     */
+    public synchronized boolean reload()
+    {
+        Snapshot current = snapshot;
+        Snapshot next = read();
+
+        if (next.sameFile(current))
+            return false;
+
+        if (next.content == null && current.content != null)
+        {
+            // файл удалён или недоступен - продолжаем подписывать ключами последнего прочитанного хранилища
+            EventLog.get().log(EventLog.Level.WARNING, KeyStoreService.class, "reload", null,
+                    "Хранилище ключей " + path + " недоступно, используется прежнее содержимое.", null);
+
+            return false;
+        }
+
+        Map<String, Exception> dropped = new HashMap<>();
+
+        for (Map.Entry<String, CachedEntry> e : current.entries.entrySet())
+        {
+            char[] password = e.getValue().password;
+
+            KeyStore keyStore;
+
+            try
+            {
+                keyStore = load(next, password);
+            }
+            catch (UnrecoverableKeyException ex)
+            {
+                // пароль хранилища сменился
+                dropped.put(e.getKey(), ex);
+
+                continue;
+            }
+            catch (KeyStoreException ex)
+            {
+                EventLog.get().log(EventLog.Level.WARNING, KeyStoreService.class, "reload", null,
+                        "Хранилище ключей " + path + " повреждено, используется прежнее содержимое.", ex);
+
+                return false;
+            }
+
+            try
+            {
+                next.entries.put(e.getKey(), new CachedEntry(entry(keyStore, e.getKey(), password), password));
+            }
+            catch (UnrecoverableKeyException|KeyStoreException ex)
+            {
+                dropped.put(e.getKey(), ex);
+            }
+        }
+
+        for (Map.Entry<String, Exception> e : dropped.entrySet())
+        {
+            EventLog.get().log(EventLog.Level.WARNING, KeyStoreService.class, "reload", null,
+                    "Запись " + e.getKey() + " не перенесена из прежнего хранилища " + path + ".", e.getValue());
+        }
+
+        snapshot = next;
+
+        reloads.increment();
+
+        return true;
+    }
+
+    private Snapshot read()
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            return new Snapshot(Files.readAllBytes(path), attributes.lastModifiedTime(), attributes.size());
+        }
+        catch (IOException ex)
+        {
+            return new Snapshot(null, null, -1);
+        }
+    }
+
+    /**
+     * <h3>Наблюдение за файлом хранилища</h3>
+     *
+     * <p>Регистрирует каталог хранилища в {@link WatchService} и запускает фоновый поток, который вызывает
+     * {@link KeyStoreService#reload()} при создании или изменении файла. Замена файла переименованием также
+     * обнаруживается.</p>
+     *
+     * @throws IOException если каталог хранилища не существует или наблюдение не поддерживается.
+     */
+    public synchronized void startWatching() throws IOException
+    {
+        if (watchService != null)
+            return;
+
+        WatchService service = path.getFileSystem().newWatchService();
+
+        try
+        {
+            path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException ex)
+        {
+            service.close();
+
+            throw ex;
+        }
+
+        watchService = service;
+
+        Thread watcher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                watch(service);
+            }
+        }, "keystore-watcher");
+
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(WatchService service)
+    {
+        Path fileName = path.getFileName();
+
+        try
+        {
+            while (true)
+            {
+                WatchKey key = service.take();
+
+                boolean changed = false;
+
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+                        changed = true;
+                }
+
+                key.reset();
+
+                if (changed && reload())
+                    EventLog.get().log(EventLog.Level.INFO, KeyStoreService.class, "watch", null,
+                            "Хранилище ключей " + path + " перезагружено.", null);
+            }
+        }
+        catch (ClosedWatchServiceException|InterruptedException ex)
+        {
+            // наблюдение остановлено
+        }
+    }
+
+    /**
+     * <h3>Остановка наблюдения</h3>
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (watchService == null)
+            return;
+
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException ex)
+        {
+            EventLog.get().log(EventLog.Level.WARNING, KeyStoreService.class, "close", null,
+                    "Не удалось остановить наблюдение за хранилищем ключей " + path + ".", ex);
+        }
+
+        watchService = null;
+    }
+
+    /**
+     * @return число запросов ключа, обслуженных из кэша.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return число запросов ключа, для которых запись расшифровывалась.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getReloads()
+    {
+        return reloads.sum();
+    }
+
+    /**
+     * <h2>Запись не найдена</h2>
+     *
+     * <p>Хранилище прочитано, но записи закрытого ключа с запрошенным псевдонимом в нём нет.</p>
+     */
+    public static class EntryNotFoundException extends KeyStoreException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public EntryNotFoundException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * <h2>Снимок хранилища</h2>
+     *
+     * <p>Прочитанное содержимое файла и кэш записей, расшифрованных из него.</p>
+     */
+    private static class Snapshot
+    {
+        /**
+         * Содержимое файла или {@code null}, если файл не прочитан.
+         */
+        private final byte[] content;
+        private final FileTime modified;
+        private final long size;
+
+        private final Map<String, CachedEntry> entries = new ConcurrentHashMap<>();
+
+        Snapshot(byte[] content, FileTime modified, long size)
+        {
+            this.content = content;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        boolean sameFile(Snapshot other)
+        {
+            if (content == null || other.content == null)
+                return content == other.content;
+
+            return modified.equals(other.modified) && size == other.size
+                    && MessageDigest.isEqual(content, other.content);
+        }
+    }
+
+    /**
+     * <h2>Запись кэша</h2>
+     *
+     * <p>Хранит пароль, которым запись была расшифрована: запрос с другим паролем проверяется по содержимому
+     * хранилища, а при перезагрузке запись расшифровывается заново.</p>
+     */
+    private static class CachedEntry
+    {
+        private final KeyStore.PrivateKeyEntry entry;
+        private final char[] password;
+
+        CachedEntry(KeyStore.PrivateKeyEntry entry, char[] password)
+        {
+            this.entry = entry;
+            this.password = password;
+        }
+
+        boolean matches(char[] candidate)
+        {
+            if (candidate.length != password.length)
+                return false;
+
+            int difference = 0;
+
+            for (int i = 0; i < password.length; i++)
+                difference |= candidate[i] ^ password[i];
+
+            return difference == 0;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package model;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Гистограмма задержек</h2>
+ *
+ * <p>Корзины фиксированы и растут степенями двойки в микросекундах: корзина {@code i} считает замеры длительностью
+ * больше {@code 2^(i-1)} и не больше {@code 2^i} мкс, корзина 0 - не больше 1 мкс, последняя - всё, что длиннее
+ * {@code 2^(BUCKETS-2)} мкс (около 33 с). Номер корзины вычисляется одной инструкцией, а каждая корзина - отдельный
+ * {@link LongAdder}, поэтому запись не блокирует и почти не конкурирует между потоками.</p>
+ *
+ * <p>Перцентили снимка ({@link Snapshot#getPercentileMicros(double)}) возвращают верхнюю границу корзины, то есть
+ * оценку сверху с точностью до двух раз.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class LatencyHistogram
+{
+    public static final int BUCKETS = 27;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * <h3>Запись замера</h3>
+     *
+     * @param nanos длительность в наносекундах.
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets[bucket(nanos)].increment();
+
+        count.increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * <h3>Запись замера от момента {@code startNanos} до текущего</h3>
+     *
+     * @param startNanos значение {@link System#nanoTime()} в начале замера.
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    private static int bucket(long nanos)
+    {
+        long micros = (nanos + 999) / 1000;
+
+        if (micros <= 1)
+            return 0;
+
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+    }
+
+    /**
+     * @return верхняя граница корзины {@code index} в микросекундах; {@link Long#MAX_VALUE} для последней.
+     */
+    public static long getBucketBoundMicros(int index)
+    {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : 1L << index;
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * <h3>Снимок гистограммы</h3>
+     *
+     * <p>Суммирует счётчики без блокировок; замеры, записанные во время снимка, могут войти в него частично.</p>
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+
+        return new Snapshot(counts, count.sum(), sumNanos.sum(), maxNanos.get());
+    }
+
+    /**
+     * <h2>Снимок гистограммы задержек</h2>
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos, long maxNanos)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return число замеров в каждой корзине.
+         */
+        public long[] getCounts()
+        {
+            return counts.clone();
+        }
+
+        /**
+         * @return среднее в микросекундах или 0, если замеров не было.
+         */
+        public double getMeanMicros()
+        {
+            return count == 0 ? 0 : sumNanos / 1000.0 / count;
+        }
+
+        public double getMaxMicros()
+        {
+            return maxNanos / 1000.0;
+        }
+
+        /**
+         * @param quantile доля от 0 до 1, например {@code 0.99}.
+         *
+         * @return верхняя граница корзины, в которую попадает перцентиль, в микросекундах, но не больше максимума;
+         * 0, если замеров не было.
+         */
+        public double getPercentileMicros(double quantile)
+        {
+            long total = 0;
+
+            for (long c : counts)
+                total += c;
+
+            if (total == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(quantile * total);
+
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+
+                if (seen >= rank && counts[i] > 0)
+                    return Math.min(getBucketBoundMicros(i), getMaxMicros());
+            }
+
+            return getMaxMicros();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d, mean=%.1fus, p50=%.0fus, p99=%.0fus, max=%.1fus", count, getMeanMicros(),
+                    getPercentileMicros(0.5), getPercentileMicros(0.99), getMaxMicros());
+        }
+    }
+}
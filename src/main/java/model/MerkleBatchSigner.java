@@ -0,0 +1,436 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Пакетная подпись сообщений через корень дерева Меркла</h2>
+ *
+ * <p>Сообщения, поступившие за короткое окно {@code maxDelayMillis} (но не больше {@code maxBatchSize}), собираются в
+ * пакет. Из хешей сообщений строится дерево Меркла, и ЭЦП вычисляется один раз - над его корнем. Каждое сообщение
+ * получает тег {@link BatchProof}: свой номер в пакете, путь до корня и общую подпись корня. Так на пакет приходится
+ * одна операция закрытым ключом RSA вместо одной на сообщение.</p>
+ *
+ * <p>Листья и узлы хешируются SHA-256 с разными префиксами ({@code 0x00} и {@code 0x01}). Узел без пары на своём
+ * уровне переносится на уровень выше без изменений. Подписывается корень вместе с числом листьев.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class MerkleBatchSigner implements Closeable, Runnable
+{
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final String algorithm;
+    private final PrivateKey key;
+
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    private final MessageDigest digest;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param maxBatchSize наибольшее число сообщений в пакете.
+     * @param maxDelayMillis наибольшее время ожидания пакета после прихода первого сообщения.
+     * @param algorithm алгоритм ЭЦП корня.
+     * @param key закрытый ключ ЭЦП.
+     */
+    public MerkleBatchSigner(int maxBatchSize, long maxDelayMillis, String algorithm, PrivateKey key)
+            throws GeneralSecurityException
+    {
+        if (maxBatchSize <= 0 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("Некорректные границы пакета.");
+
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.algorithm = algorithm;
+        this.key = key;
+
+        digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+        // проверка ключа до запуска потока
+        CryptographicAlgorithms.getSignature(algorithm, key);
+
+        thread = new Thread(this, "merkle-batch-signer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * <h3>Постановка сообщения в пакет</h3>
+     *
+     * @param authenticated фрагменты байтов сообщения, покрываемых подписью ({@link FrameCodec.Frame#getAuthenticated()}).
+     *
+     * @return тег сообщения, который будет готов после подписи пакета.
+     */
+    public CompletableFuture<byte[]> submit(ByteBuffer... authenticated)
+    {
+        Entry entry = new Entry(leaf(authenticated));
+
+        if (!running)
+        {
+            entry.result.completeExceptionally(new IOException("Пакетная подпись остановлена."));
+
+            return entry.result;
+        }
+
+        queue.add(entry);
+
+        if (!running)
+            failPending();
+
+        return entry.result;
+    }
+
+    @Override
+    public void run()
+    {
+        List<Entry> batch = new ArrayList<>(maxBatchSize);
+
+        while (running)
+        {
+            try
+            {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+
+                if (first == null)
+                    continue;
+
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+
+                while (batch.size() < maxBatchSize)
+                {
+                    Entry next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                    if (next == null)
+                        break;
+
+                    batch.add(next);
+                }
+
+                try
+                {
+                    sign(batch);
+                }
+                catch (RuntimeException ex)
+                {
+                    // например ProviderException: пакет завершается с ошибкой, поток продолжает подписывать следующие
+                    EventLog.error(MerkleBatchSigner.class, "sign", ex);
+
+                    for (Entry entry : batch)
+                        entry.result.completeExceptionally(ex);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                for (Entry entry : batch)
+                    entry.result.completeExceptionally(new IOException("Пакетная подпись остановлена."));
+
+                break;
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+
+        failPending();
+    }
+
+    private void sign(List<Entry> batch)
+    {
+        int count = batch.size();
+
+        List<byte[][]> levels = new ArrayList<>();
+
+        byte[][] level = new byte[count][];
+
+        for (int i = 0; i < count; i++)
+            level[i] = batch.get(i).leaf;
+
+        levels.add(level);
+
+        while (level.length > 1)
+        {
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+
+            for (int i = 0; i < parent.length; i++)
+            {
+                if (2 * i + 1 < level.length)
+                    parent[i] = node(digest, level[2 * i], level[2 * i + 1]);
+                else
+                    parent[i] = level[2 * i];
+            }
+
+            levels.add(parent);
+
+            level = parent;
+        }
+
+        byte[] root = level[0];
+
+        byte[] rootSign;
+
+        try
+        {
+            rootSign = CryptographicAlgorithms.sign(algorithm, key, ByteBuffer.wrap(root),
+                    ByteBuffer.allocate(4).putInt(0, count));
+        }
+        catch (java.security.SignatureException ex)
+        {
+            for (Entry entry : batch)
+                entry.result.completeExceptionally(ex);
+
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+            batch.get(i).result.complete(BatchProof.encode(i, count, proof(levels, i), rootSign));
+    }
+
+    private static List<byte[]> proof(List<byte[][]> levels, int index)
+    {
+        List<byte[]> siblings = new ArrayList<>();
+
+        for (int depth = 0; depth < levels.size() - 1; depth++)
+        {
+            byte[][] level = levels.get(depth);
+
+            int sibling = index ^ 1;
+
+            if (sibling < level.length)
+                siblings.add(level[sibling]);
+
+            index >>= 1;
+        }
+
+        return siblings;
+    }
+
+    private static byte[] leaf(ByteBuffer... authenticated)
+    {
+        ByteBuffer[] parts = new ByteBuffer[authenticated.length + 1];
+
+        parts[0] = ByteBuffer.wrap(new byte[] {LEAF_PREFIX});
+
+        System.arraycopy(authenticated, 0, parts, 1, authenticated.length);
+
+        return CryptographicAlgorithms.digest(DIGEST_ALGORITHM, parts);
+    }
+
+    private static byte[] node(MessageDigest digest, byte[] left, byte[] right)
+    {
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+
+        return digest.digest();
+    }
+
+    /**
+     * <h3>Проверка тега пакетной подписи</h3>
+     *
+     * <p>Используется на стороне клиента: восстанавливает корень по байтам сообщения и пути и проверяет подпись
+     * корня открытым ключом сервера.</p>
+     *
+     * @return {@code True}, если тег подлинный.
+     */
+    public static boolean verify(ByteBuffer authenticated, ByteBuffer tag, String algorithm, PublicKey key)
+            throws GeneralSecurityException
+    {
+        BatchProof proof;
+
+        try
+        {
+            proof = BatchProof.decode(tag);
+        }
+        catch (IOException ex)
+        {
+            return false;
+        }
+
+        if (proof.index < 0 || proof.index >= proof.count)
+            return false;
+
+        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+        byte[] hash = leaf(authenticated);
+
+        int index = proof.index;
+        int width = proof.count;
+        int used = 0;
+
+        while (width > 1)
+        {
+            int sibling = index ^ 1;
+
+            if (sibling < width)
+            {
+                if (used == proof.siblings.size())
+                    return false;
+
+                byte[] other = proof.siblings.get(used++);
+
+                hash = (index & 1) == 0 ? node(digest, hash, other) : node(digest, other, hash);
+            }
+
+            index >>= 1;
+            width = (width + 1) / 2;
+        }
+
+        if (used != proof.siblings.size())
+            return false;
+
+        Signature signature = Signature.getInstance(algorithm);
+
+        signature.initVerify(key);
+        signature.update(hash);
+        signature.update(ByteBuffer.allocate(4).putInt(0, proof.count));
+
+        return signature.verify(proof.rootSign);
+    }
+
+    private void failPending()
+    {
+        Entry entry;
+
+        while ((entry = queue.poll()) != null)
+            entry.result.completeExceptionally(new IOException("Пакетная подпись остановлена."));
+    }
+
+    /**
+     * <h3>Остановка пакетной подписи</h3>
+     *
+     * <p>Сообщения, ещё не попавшие в пакет, завершаются с ошибкой.</p>
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+
+        thread.interrupt();
+
+        failPending();
+    }
+
+    private static class Entry
+    {
+        private final byte[] leaf;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        Entry(byte[] leaf)
+        {
+            this.leaf = leaf;
+        }
+    }
+
+    /**
+     * <h2>Тег пакетной подписи</h2>
+     *
+     * <p>Формат: varint номер сообщения, varint число сообщений в пакете, varint число узлов пути, узлы пути по 32
+     * байта, varint длина подписи корня, подпись корня.</p>
+     */
+    static class BatchProof
+    {
+        private static final int HASH_LENGTH = 32;
+
+        private final int index;
+        private final int count;
+        private final List<byte[]> siblings;
+        private final byte[] rootSign;
+
+        BatchProof(int index, int count, List<byte[]> siblings, byte[] rootSign)
+        {
+            this.index = index;
+            this.count = count;
+            this.siblings = siblings;
+            this.rootSign = rootSign;
+        }
+
+        static byte[] encode(int index, int count, List<byte[]> siblings, byte[] rootSign)
+        {
+            int length = FrameCodec.varintLength(index) + FrameCodec.varintLength(count)
+                    + FrameCodec.varintLength(siblings.size()) + siblings.size() * HASH_LENGTH
+                    + FrameCodec.varintLength(rootSign.length) + rootSign.length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+
+            FrameCodec.putVarint(buffer, index);
+            FrameCodec.putVarint(buffer, count);
+            FrameCodec.putVarint(buffer, siblings.size());
+
+            for (byte[] sibling : siblings)
+                buffer.put(sibling);
+
+            FrameCodec.putVarint(buffer, rootSign.length);
+            buffer.put(rootSign);
+
+            return buffer.array();
+        }
+
+        static BatchProof decode(ByteBuffer src) throws IOException
+        {
+            try
+            {
+                int index = (int) FrameCodec.getVarint(src);
+                int count = (int) FrameCodec.getVarint(src);
+                int size = (int) FrameCodec.getVarint(src);
+
+                if (size < 0 || size > 32)
+                    throw new IOException("Некорректная длина пути.");
+
+                List<byte[]> siblings = new ArrayList<>(size);
+
+                for (int i = 0; i < size; i++)
+                {
+                    byte[] sibling = new byte[HASH_LENGTH];
+
+                    src.get(sibling);
+
+                    siblings.add(sibling);
+                }
+
+                long rootSignLength = FrameCodec.getVarint(src);
+
+                if (rootSignLength < 0 || rootSignLength > src.remaining())
+                    throw new IOException("Некорректная длина подписи корня.");
+
+                byte[] rootSign = new byte[(int) rootSignLength];
+
+                src.get(rootSign);
+
+                return new BatchProof(index, count, siblings, rootSign);
+            }
+            catch (BufferUnderflowException ex)
+            {
+                throw new IOException("Тег пакетной подписи повреждён.");
+            }
+        }
+    }
+}
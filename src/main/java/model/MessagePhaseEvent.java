@@ -0,0 +1,51 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h2>Событие JFR: этап отправки записи</h2>
+ *
+ * <p>Этапы: {@value MessagePhaseEvent#ENCODE} - заголовок {@link FrameCodec}, {@value MessagePhaseEvent#SIGN} - тег
+ * (ЭЦП, HMAC или ожидание пакетной подписи), {@value MessagePhaseEvent#ENCRYPT} - сборка кадра и шифрование,
+ * {@value MessagePhaseEvent#WRITE} - ожидание блокировки записи и запись в канал. По умолчанию выключено.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@Name("ske.MessagePhase")
+@Label("Message Phase")
+@Category({"SKE", "Message"})
+@Description("Этап отправки записи по защищенному каналу")
+@Enabled(false)
+@StackTrace(false)
+final class MessagePhaseEvent extends Event
+{
+    static final String ENCODE = "encode";
+    static final String SIGN = "sign";
+    static final String ENCRYPT = "encrypt";
+    static final String WRITE = "write";
+
+    @Label("Session Id")
+    long sessionId;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Frame Type")
+    int frameType;
+
+    @Label("Sequence")
+    long sequence;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,181 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h2>Буферы отправки сессии</h2>
+ *
+ * <p>Запись собирается в одном массиве ({@link OutboundBuffers#record(int)}): заголовок {@link FrameCodec}, нагрузка,
+ * тег и дополнение PKCS#5, а следом - шифртекст кадра. Нагрузка кодируется прямо в массив, тег вычисляется над ним, а
+ * шифртекст вместе с префиксом длины ({@link OutboundBuffers#frame(ByteBuffer)}) уходит в сокет одной записью из двух
+ * буферов. Поэтому отправка сообщения не создаёт массивов: буферы растут до размера самой длинной записи и дальше
+ * переиспользуются.</p>
+ *
+ * <p>Буферы больше {@link OutboundBuffers#RETAINED_CAPACITY} после записи не сохраняются, чтобы редкое длинное
+ * сообщение не держало память каждой сессии. Объект не потокобезопасен: пользоваться им можно только под
+ * блокировкой записи сессии.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+final class OutboundBuffers
+{
+    /**
+     * Наибольший размер буфера, который сессия хранит между записями.
+     */
+    static final int RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * Место под тег: подпись RSA-8192 вместе с путём пакетной подписи или HMAC.
+     */
+    static final int TAG_CAPACITY = 2048;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer record = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    private final byte[] tag = new byte[TAG_CAPACITY];
+    private final ByteBuffer tagView = ByteBuffer.wrap(tag);
+
+    private final ByteBuffer prefix = ByteBuffer.allocate(FrameReader.HEADER_LENGTH);
+    private final ByteBuffer[] frame = {prefix, null};
+
+    /**
+     * <h3>Буфер записи</h3>
+     *
+     * @param capacity сколько байт понадобится записи.
+     *
+     * @return Очищенный буфер не меньше {@code capacity} байт.
+     */
+    ByteBuffer record(int capacity)
+    {
+        if (record.capacity() < capacity)
+            record = ByteBuffer.allocate(Math.max(capacity, Math.min(record.capacity() * 2, RETAINED_CAPACITY)));
+
+        return record.clear();
+    }
+
+    byte[] tag()
+    {
+        return tag;
+    }
+
+    /**
+     * @return Тег длиной {@code length} байт, вычисленный в {@link OutboundBuffers#tag()}.
+     */
+    ByteBuffer tag(int length)
+    {
+        return tagView.clear().limit(length);
+    }
+
+    /**
+     * <h3>Кадр для записи в сокет</h3>
+     *
+     * @param ciphertext шифртекст кадра между позицией и пределом.
+     *
+     * @return Префикс длины и шифртекст для {@link Session#write(ByteBuffer[], int, int)}.
+     */
+    ByteBuffer[] frame(ByteBuffer ciphertext)
+    {
+        prefix.clear().putInt(0, ciphertext.remaining());
+
+        frame[1] = ciphertext;
+
+        return frame;
+    }
+
+    /**
+     * <h3>Кодирование строки в UTF-8</h3>
+     *
+     * <p>Символы копируются в буфер сессии и кодируются одним {@link CharsetEncoder}; непарные суррогаты заменяются на
+     * {@code '?'}, как в {@link String#getBytes()}. В {@code dst} должно быть место под
+     * {@link OutboundBuffers#encodedLength(String)} байт.</p>
+     */
+    void encode(String text, ByteBuffer dst)
+    {
+        int length = text.length();
+
+        if (chars.capacity() < length)
+            chars = CharBuffer.allocate(length);
+
+        chars.clear().limit(length);
+
+        text.getChars(0, length, chars.array(), 0);
+
+        encoder.reset();
+
+        CoderResult result = encoder.encode(chars, dst, true);
+
+        if (result.isUnderflow())
+            result = encoder.flush(dst);
+
+        if (!result.isUnderflow())
+            throw new IllegalStateException("Сообщение не поместилось в буфер записи.");
+    }
+
+    /**
+     * <h3>Освобождение длинных буферов</h3>
+     *
+     * <p>Вызывается после записи: буферы длиннее {@link OutboundBuffers#RETAINED_CAPACITY} заменяются
+     * начальными.</p>
+     */
+    void release()
+    {
+        frame[1] = null;
+
+        if (record.capacity() > RETAINED_CAPACITY)
+            record = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+        if (chars.capacity() > RETAINED_CAPACITY)
+            chars = CharBuffer.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * <h3>Длина строки в UTF-8</h3>
+     *
+     * <p>Считается без кодирования и совпадает с длиной результата {@link OutboundBuffers#encode(String, ByteBuffer)}:
+     * суррогатная пара занимает 4 байта, непарный суррогат - 1 байт замены.</p>
+     */
+    static int encodedLength(String text)
+    {
+        int length = text.length();
+        int bytes = length;
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c < 0x80)
+                continue;
+
+            if (c < 0x800)
+            {
+                bytes += 1;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                bytes += 2;
+
+                i++;
+            }
+            else if (!Character.isSurrogate(c))
+            {
+                bytes += 2;
+            }
+        }
+
+        return bytes;
+    }
+}
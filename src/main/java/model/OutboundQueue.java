@@ -0,0 +1,362 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h2>Очередь исходящих сообщений сессии</h2>
+ *
+ * <p>Сообщения, переданные {@link Server#submitMessage(Session, String)}, ставятся в очередь, и вызывающий поток не
+ * ждёт шифрования и записи. Очередь разбирает не более одного писателя одновременно, поэтому порядок сообщений
+ * сохраняется.</p>
+ *
+ * <p>Писатель может подождать следующее сообщение не дольше окна объединения
+ * ({@link OutboundQueue#poll(long)}); новое сообщение сразу будит его.</p>
+ *
+ * <p>Очередь ограничена числом сообщений и байтами нагрузки ({@link OutboundQueue#offer(Item, int, long)}). Границы
+ * проверяются счётчиками без блокировок; блокировка нужна только отправителям, ждущим места
+ * ({@link OutboundQueue#awaitSpace(Item, int, long, long)}), и берётся писателем, лишь когда такие отправители есть.
+ * Управляющие кадры принимаются всегда: они малы, а без них нельзя ни проверить связь, ни разорвать соединение.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class OutboundQueue
+{
+    private final ConcurrentLinkedQueue<Item> items = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Сообщения пакета, который собирает текущий писатель.
+     */
+    private final List<Item> batch = new ArrayList<>();
+
+    /**
+     * Занята ли очередь писателем.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Писатель, ждущий следующее сообщение, или {@code null}.
+     */
+    private volatile Thread waiter;
+
+    /**
+     * Число кадров и байт нагрузки в очереди.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final ReentrantLock spaceLock = new ReentrantLock();
+    private final Condition space = spaceLock.newCondition();
+
+    /**
+     * Число отправителей, ждущих места.
+     */
+    private volatile int spaceWaiters;
+
+    /**
+     * <h3>Постановка кадра в очередь без проверки границ</h3>
+     */
+    void add(Item item)
+    {
+        size.incrementAndGet();
+        bytes.addAndGet(item.length);
+
+        enqueue(item);
+    }
+
+    /**
+     * <h3>Постановка кадра в очередь с проверкой границ</h3>
+     *
+     * <p>Кадр, не помещающийся в пустую очередь, всё же принимается, иначе его нельзя было бы отправить вообще.</p>
+     *
+     * @param maxMessages наибольшее число кадров в очереди.
+     * @param maxBytes наибольший размер нагрузки кадров в очереди.
+     *
+     * @return {@code True}, если кадр поставлен в очередь; {@code False}, если очередь заполнена.
+     */
+    boolean offer(Item item, int maxMessages, long maxBytes)
+    {
+        if (item.type == FrameCodec.TYPE_CONTROL)
+        {
+            add(item);
+
+            return true;
+        }
+
+        int length = item.length;
+
+        int count = size.incrementAndGet();
+        long total = bytes.addAndGet(length);
+
+        if (count > 1 && (count > maxMessages || total > maxBytes))
+        {
+            // откат без сигнала: место не освободилось, а разбуженные отправители, не поместившись, будили бы друг
+            // друга без конца; пропущенный из-за отката сигнал заменяет таймаут ожидания
+            size.decrementAndGet();
+            bytes.addAndGet(-length);
+
+            return false;
+        }
+
+        enqueue(item);
+
+        return true;
+    }
+
+    private void enqueue(Item item)
+    {
+        items.add(item);
+
+        Thread current = waiter;
+
+        if (current != null)
+            LockSupport.unpark(current);
+    }
+
+    Item poll()
+    {
+        return released(items.poll());
+    }
+
+    /**
+     * <h3>Ожидание следующего сообщения</h3>
+     *
+     * @param timeoutNanos наибольшее время ожидания; при 0 метод не ждёт.
+     *
+     * @return сообщение или {@code null}, если за это время очередь так и осталась пустой.
+     */
+    Item poll(long timeoutNanos)
+    {
+        Item item = released(items.poll());
+
+        if (item != null || timeoutNanos <= 0)
+            return item;
+
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        waiter = Thread.currentThread();
+
+        try
+        {
+            while ((item = items.poll()) == null)
+            {
+                long left = deadline - System.nanoTime();
+
+                if (left <= 0)
+                    break;
+
+                LockSupport.parkNanos(this, left);
+            }
+        }
+        finally
+        {
+            waiter = null;
+        }
+
+        return released(item);
+    }
+
+    /**
+     * <h3>Вытеснение самого старого сообщения</h3>
+     *
+     * @return вытесненный кадр или {@code null}, если в очереди нет ничего, кроме управляющих кадров.
+     */
+    Item dropOldest()
+    {
+        Iterator<Item> iterator = items.iterator();
+
+        while (iterator.hasNext())
+        {
+            Item item = iterator.next();
+
+            if (item.type != FrameCodec.TYPE_CONTROL && items.remove(item))
+                return released(item);
+        }
+
+        return null;
+    }
+
+    /**
+     * <h3>Ожидание места в очереди</h3>
+     *
+     * <p>Отправителя будит писатель, забравший кадр, или закрытие сессии ({@link OutboundQueue#fail(Throwable)}).
+     * Отправитель сначала объявляет себя ждущим и только потом перепроверяет место, а писатель сначала освобождает
+     * место и только потом проверяет ждущих, поэтому сигнал не теряется.</p>
+     *
+     * @param item кадр, которому нужно место.
+     * @param timeoutNanos наибольшее время ожидания.
+     */
+    void awaitSpace(Item item, int maxMessages, long maxBytes, long timeoutNanos) throws InterruptedException
+    {
+        spaceLock.lock();
+
+        try
+        {
+            spaceWaiters++;
+
+            int count = size.get();
+
+            if (count > 0 && (count >= maxMessages || bytes.get() + item.length > maxBytes))
+                space.awaitNanos(timeoutNanos);
+        }
+        finally
+        {
+            spaceWaiters--;
+
+            spaceLock.unlock();
+        }
+    }
+
+    private Item released(Item item)
+    {
+        if (item != null)
+            release(item.length);
+
+        return item;
+    }
+
+    private void release(int length)
+    {
+        size.decrementAndGet();
+        bytes.addAndGet(-length);
+
+        if (spaceWaiters > 0)
+            signalSpace();
+    }
+
+    private void signalSpace()
+    {
+        spaceLock.lock();
+
+        try
+        {
+            space.signalAll();
+        }
+        finally
+        {
+            spaceLock.unlock();
+        }
+    }
+
+    /**
+     * @return число кадров в очереди.
+     */
+    int size()
+    {
+        return size.get();
+    }
+
+    /**
+     * @return размер нагрузки кадров в очереди в байтах.
+     */
+    long bytes()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * @return список для сборки пакета; принадлежит текущему писателю и переиспользуется.
+     */
+    List<Item> batch()
+    {
+        return batch;
+    }
+
+    boolean isEmpty()
+    {
+        return items.isEmpty();
+    }
+
+    /**
+     * @return {@code True}, если вызывающий стал писателем очереди и должен её разобрать.
+     */
+    boolean tryStartDrain()
+    {
+        return draining.compareAndSet(false, true);
+    }
+
+    /**
+     * <h3>Завершение разбора</h3>
+     *
+     * @return {@code True}, если за время завершения пришли новые сообщения и вызывающий снова стал писателем.
+     */
+    boolean finishDrain()
+    {
+        draining.set(false);
+
+        return !items.isEmpty() && tryStartDrain();
+    }
+
+    /**
+     * <h3>Отмена всех ожидающих сообщений</h3>
+     */
+    void fail(Throwable cause)
+    {
+        Item item;
+
+        while ((item = poll()) != null)
+            item.result.completeExceptionally(cause);
+
+        signalSpace();
+    }
+
+    /**
+     * <h2>Исходящий кадр</h2>
+     */
+    static class Item
+    {
+        final int type;
+
+        /**
+         * Нагрузка кадра или {@code null}, если это текст {@link Item#text}, который кодируется при отправке.
+         */
+        final byte[] payload;
+        final String text;
+
+        /**
+         * Длина нагрузки в байтах.
+         */
+        final int length;
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Item(int type, byte[] payload)
+        {
+            this.type = type;
+            this.payload = payload;
+            this.text = null;
+            this.length = payload.length;
+        }
+
+        Item(int type, String text)
+        {
+            this.type = type;
+            this.payload = null;
+            this.text = text;
+            this.length = OutboundBuffers.encodedLength(text);
+        }
+
+        /**
+         * <h3>Запись нагрузки в буфер записи</h3>
+         */
+        void writePayload(ByteBuffer dst, OutboundBuffers buffers)
+        {
+            if (text != null)
+                buffers.encode(text, dst);
+            else
+                dst.put(payload);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Статистика объединения исходящих сообщений</h2>
+ *
+ * <p>Считает записи, отправленные очередями сессий, и число сообщений в каждой из них. Распределение размеров пакетов
+ * хранится в корзинах с верхними границами {@link OutboundStatistics#BUCKET_BOUNDS}: корзина {@code i} считает записи,
+ * в которых сообщений больше границы {@code i - 1} и не больше границы {@code i}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class OutboundStatistics
+{
+    /**
+     * Верхние границы корзин числа сообщений в записи.
+     */
+    public static final int[] BUCKET_BOUNDS = {1, 2, 4, 8, 16, 32, 64, Integer.MAX_VALUE};
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length];
+
+    OutboundStatistics()
+    {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    void record(int messageCount, int payloadBytes)
+    {
+        records.increment();
+        messages.add(messageCount);
+        bytes.add(payloadBytes);
+
+        int i = 0;
+
+        while (messageCount > BUCKET_BOUNDS[i])
+            i++;
+
+        buckets[i].increment();
+    }
+
+    /**
+     * @return число отправленных записей.
+     */
+    public long getRecords()
+    {
+        return records.sum();
+    }
+
+    /**
+     * @return число сообщений во всех записях.
+     */
+    public long getMessages()
+    {
+        return messages.sum();
+    }
+
+    /**
+     * @return суммарный размер нагрузки сообщений в байтах.
+     */
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+
+    /**
+     * @return среднее число сообщений в записи или 0, если записей ещё не было.
+     */
+    public double getAverageBatchSize()
+    {
+        long count = records.sum();
+
+        return count == 0 ? 0 : (double) messages.sum() / count;
+    }
+
+    /**
+     * @return число записей в каждой корзине {@link OutboundStatistics#BUCKET_BOUNDS}.
+     */
+    public long[] getBatchSizeHistogram()
+    {
+        long[] histogram = new long[buckets.length];
+
+        for (int i = 0; i < buckets.length; i++)
+            histogram[i] = buckets[i].sum();
+
+        return histogram;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "records=" + getRecords() + ", messages=" + getMessages() + ", average="
+                + String.format("%.2f", getAverageBatchSize());
+    }
+}
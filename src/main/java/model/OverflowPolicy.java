@@ -0,0 +1,29 @@
+package model;
+
+/**
+ * <h2>Поведение при переполнении очереди сессии</h2>
+ *
+ * <p>Выбирается в {@link Server#setOutboundLimits(int, long, OverflowPolicy)} и применяется, когда в очереди исходящих
+ * сообщений уже лежит предельное число сообщений или байт.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Отправитель ждёт, пока писатель не освободит место в очереди.
+     */
+    BLOCK,
+
+    /**
+     * Самые старые ещё не отправленные сообщения вытесняются из очереди и завершаются с ошибкой.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Клиент, не успевающий принимать сообщения, отключается.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,48 @@
+package model;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+
+/**
+ * <h2>Обмен ключами {@link KeyExchangeSuite#RSA_WRAP}</h2>
+ *
+ * <p>Часть сервера - открытый ключ пары из {@link KeyPairPool}, часть клиента - его секретный ключ AES, обёрнутый
+ * этим открытым ключом.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class RsaKeyExchange implements KeyExchange
+{
+    private final KeyPairPool.PooledKeyPair keyPair;
+
+    RsaKeyExchange(KeyPairPool.PooledKeyPair keyPair)
+    {
+        this.keyPair = keyPair;
+    }
+
+    @Override
+    public KeyExchangeSuite getSuite()
+    {
+        return KeyExchangeSuite.RSA_WRAP;
+    }
+
+    @Override
+    public byte[] getServerShare()
+    {
+        return keyPair.getEncodedPublicKey();
+    }
+
+    @Override
+    public Key complete(byte[] clientShare) throws GeneralSecurityException
+    {
+        Key secretKey = CryptographicAlgorithms.unwrapKey(clientShare, keyPair.getPrivate());
+
+        if (secretKey == null)
+            throw new InvalidKeyException("В ходе развёртки секретного ключа произошла ошибка.");
+
+        return secretKey;
+    }
+}
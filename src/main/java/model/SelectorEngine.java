@@ -0,0 +1,753 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h2>Неблокирующий движок приёма и обмена данными</h2>
+ *
+ * <p>Один поток с {@link Selector} принимает подключения и выполняет чтение и запись для всех клиентов. Для каждого
+ * подключения создаётся {@link Session}, которая помещается в таблицу сессий и в очередь принятых подключений
+ * {@link SelectorEngine#accept(long, TimeUnit)}.</p>
+ *
+ * <p>Потоки ввода-вывода сессии работают поверх буферов движка: чтение блокирует вызывающий поток только до прихода
+ * данных от селектора, а запись выполняется сразу, если сокет готов, иначе ставится в очередь и дописывается
+ * селектором. Если в очереди накопилось больше {@value SelectorEngine#OUTBOUND_HIGH_WATER} байт, запись ждёт. Поэтому блокирующий код сервера (защита соединения, отправка сообщений) работает без изменений.</p>
+
+ * <p>После перехода сессии к приёму кадры разбирает и передаёт обработчику виртуальный поток сессии; поток селектора
+ * только читает и пишет, поэтому обработчик может сразу отвечать клиенту.</p>
+ *
+ * <p>Буферы подключения - прямые буферы общего {@link BufferPool}: сокет читает в них и пишет из них без временной копии
+ * JDK, а при закрытии сессии они возвращаются в пул. Отложенные буферы дописываются в сокет пачкой, одной записью
+ * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[], int, int)}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class SelectorEngine implements SessionEngine, Runnable
+{
+    private static final int BACKLOG = 1024;
+
+    /**
+     * Размер буфера входящих данных одной сессии. При его заполнении чтение из сокета приостанавливается.
+     */
+    private static final int INBOUND_CAPACITY = 8192;
+
+    /**
+     * Объём отложенных исходящих данных сессии, при превышении которого запись ждёт, пока селектор их допишет.
+     */
+    private static final int OUTBOUND_HIGH_WATER = 256 * 1024;
+
+    /**
+     * Сколько отложенных буферов отдаётся сокету одной записью.
+     */
+    private static final int GATHER_LIMIT = 64;
+
+    private static final BufferPool POOL = BufferPool.shared();
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final BlockingQueue<Session> accepted = new LinkedBlockingQueue<>();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * <h3>Создание движка</h3>
+     *
+     * @param port номер порта или 0, чтобы использовать номер порта, который назначается автоматически.
+     *
+     * @throws IOException если не удалось открыть селектор или занять порт.
+     */
+    public SelectorEngine(int port) throws IOException
+    {
+        selector = Selector.open();
+
+        try
+        {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException|RuntimeException ex)
+        {
+            selector.close();
+
+            throw ex;
+        }
+
+        thread = new Thread(this, "selector-engine-" + getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int getLocalPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public Session accept(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return accepted.poll(timeout, unit);
+    }
+
+    @Override
+    public Session getSession(long id)
+    {
+        return sessions.get(id);
+    }
+
+    @Override
+    public Collection<Session> getSessions()
+    {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    @Override
+    public void run()
+    {
+        while (running)
+        {
+            try
+            {
+                selector.select();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+
+                while (iterator.hasNext())
+                {
+                    SelectionKey key = iterator.next();
+
+                    iterator.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable())
+                    {
+                        onAcceptable();
+
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+
+                    try
+                    {
+                        if (key.isReadable())
+                            connection.onReadable();
+
+                        if (key.isValid() && key.isWritable())
+                            connection.onWritable();
+                    }
+                    catch (IOException ex)
+                    {
+                        connection.close();
+                    }
+                }
+            }
+            catch (ClosedSelectorException ex)
+            {
+                break;
+            }
+            catch (IOException ex)
+            {
+                if (!running)
+                    break;
+
+                EventLog.get().log(EventLog.Level.WARNING, SelectorEngine.class, "select", null,
+                        "Ошибка выбора готовых каналов на порту " + getLocalPort() + ".", ex);
+            }
+        }
+    }
+
+    private void onAcceptable() throws IOException
+    {
+        SocketChannel channel;
+
+        while ((channel = serverChannel.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = new Connection(channel);
+
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+            sessions.put(connection.session.getId(), connection.session);
+
+            accepted.offer(connection.session);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+
+        for (Session session : sessions.values())
+        {
+            try
+            {
+                session.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+
+        selector.wakeup();
+
+        try
+        {
+            selector.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+    }
+
+    /**
+     * <h2>Буферы одного подключения</h2>
+     *
+     * <p>Монитор объекта защищает оба буфера: его удерживают и поток селектора, и потоки, работающие с сессией. После
+     * закрытия буферы возвращены в пул, и обращаться к ним нельзя.</p>
+     */
+    private class Connection implements SessionTransport
+    {
+        private final SocketChannel channel;
+        private final Session session;
+
+        private final BufferPool.Lease inboundLease;
+        private final ByteBuffer inbound;
+
+        /**
+         * Недописанные данные в арендованных буферах, в порядке записи.
+         */
+        private final ArrayDeque<BufferPool.Lease> outbound = new ArrayDeque<>();
+
+        /**
+         * Буферы очереди, передаваемые сокету одной записью, и их аренды.
+         */
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+        private final BufferPool.Lease[] gathered = new BufferPool.Lease[GATHER_LIMIT];
+
+        /**
+         * Дописанный буфер, оставленный для следующей записи, или {@code null}. Пока сокет успевает за сессией, она
+         * пишет через один и тот же буфер, не арендуя новый на каждую запись.
+         */
+        private BufferPool.Lease spare;
+
+        private long outboundBytes;
+
+        private SelectionKey key;
+
+        private boolean closed;
+
+        /**
+         * Клиент закрыл свою сторону соединения; кадры, уже лежащие в буфере, ещё передаются обработчику.
+         */
+        private boolean endOfStream;
+
+        /**
+         * Получатель кадров после перехода сессии к приёму, иначе {@code null}.
+         */
+        private InboundHandler handler;
+
+        /**
+         * Поток, передающий кадры обработчику, или {@code null} до перехода к приёму.
+         */
+        private volatile Thread dispatcher;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+            this.session = new Session(channel, new ConnectionInputStream(), new ConnectionOutputStream(), this);
+
+            inboundLease = POOL.lease(INBOUND_CAPACITY, session);
+            inbound = inboundLease.buffer();
+        }
+
+        /**
+         * Вызывается потоком селектора, когда в сокете есть данные. Поток селектора только читает: кадры разбирает и
+         * передаёт обработчику поток сессии.
+         */
+        void onReadable() throws IOException
+        {
+            int count;
+
+            synchronized (this)
+            {
+                if (closed)
+                    return;
+
+                count = channel.read(inbound);
+
+                if (count > 0)
+                    notifyAll();
+
+                if (count < 0 && handler != null)
+                {
+                    endOfStream = true;
+
+                    key.interestOpsAnd(~SelectionKey.OP_READ);
+                }
+                else if (!inbound.hasRemaining())
+                {
+                    key.interestOpsAnd(~SelectionKey.OP_READ);
+                }
+            }
+
+            Thread current = dispatcher;
+
+            if (current != null)
+                LockSupport.unpark(current);
+            else if (count < 0)
+                close();
+        }
+
+        /**
+         * Кадры передаются обработчику отдельным виртуальным потоком сессии, а не потоком селектора: обработчик может
+         * отвечать клиенту, а запись ждёт, пока селектор не допишет очередь, так что ответ из потока селектора
+         * остановил бы движок.
+         */
+        @Override
+        public synchronized void startReceiving(InboundHandler handler)
+        {
+            this.handler = handler;
+
+            if (closed)
+            {
+                handler.onClosed();
+
+                return;
+            }
+
+            dispatcher = Thread.ofVirtual().name("session-" + session.getId() + "-dispatcher").start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatch(handler);
+                }
+            });
+        }
+
+        /**
+         * Передаёт обработчику кадры по мере их прихода, пока соединение не закрыто. Обработчик вызывается без
+         * монитора подключения, поэтому селектор тем временем читает и дописывает данные сессии.
+         */
+        private void dispatch(InboundHandler handler)
+        {
+            try
+            {
+                while (true)
+                {
+                    ByteBuffer frame = nextFrame();
+
+                    if (frame != null)
+                        handler.onFrame(frame);
+                    else
+                        LockSupport.park(this);
+                }
+            }
+            catch (IOException ex)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Собирает следующий кадр из буфера входящих данных. Монитор удерживается только на время разбора; ожидание
+         * данных - {@link LockSupport#park(Object)} без монитора, чтобы виртуальный поток не занимал поток платформы.
+         *
+         * @return Нагрузку кадра или {@code null}, если кадр ещё не пришёл целиком.
+         *
+         * @throws ClosedChannelException если соединение закрыто.
+         * @throws EOFException если клиент закрыл соединение и полных кадров больше нет.
+         * @throws IOException если заявлена недопустимая длина кадра.
+         */
+        private synchronized ByteBuffer nextFrame() throws IOException
+        {
+            if (closed)
+                throw new ClosedChannelException();
+
+            inbound.flip();
+
+            ByteBuffer frame;
+
+            try
+            {
+                frame = session.getFrameReader().feed(inbound);
+            }
+            finally
+            {
+                inbound.compact();
+            }
+
+            if (frame != null)
+                return frame;
+
+            if (endOfStream)
+                throw new EOFException("Клиент закрыл соединение.");
+
+            if ((key.interestOps() & SelectionKey.OP_READ) == 0)
+            {
+                key.interestOpsOr(SelectionKey.OP_READ);
+                selector.wakeup();
+            }
+
+            return null;
+        }
+
+        /**
+         * Вызывается потоком селектора, когда сокет готов принять отложенные данные.
+         */
+        synchronized void onWritable() throws IOException
+        {
+            if (closed)
+                return;
+
+            drain();
+
+            if (outbound.isEmpty())
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Дописывает очередь, отдавая сокету до {@value SelectorEngine#GATHER_LIMIT} буферов одной записью, пока сокет
+         * принимает данные.
+         */
+        private void drain() throws IOException
+        {
+            while (!outbound.isEmpty())
+            {
+                int count = 0;
+                long total = 0;
+
+                // аренды снимаются с очереди в массив, а недописанные возвращаются в её начало: обход очереди
+                // итератором создавал бы объект на каждую запись
+                while (count < gather.length && !outbound.isEmpty())
+                {
+                    gathered[count] = outbound.poll();
+                    gather[count] = gathered[count].buffer();
+
+                    total += gather[count].remaining();
+
+                    count++;
+                }
+
+                long written = 0;
+
+                try
+                {
+                    written = channel.write(gather, 0, count);
+                }
+                finally
+                {
+                    outboundBytes -= written;
+
+                    for (int i = count - 1; i >= 0; i--)
+                    {
+                        if (gather[i].hasRemaining())
+                            outbound.addFirst(gathered[i]);
+                        else
+                            retire(gathered[i]);
+
+                        gather[i] = null;
+                        gathered[i] = null;
+                    }
+                }
+
+                if (written < total)
+                    break;
+            }
+
+            notifyAll();
+        }
+
+        /**
+         * @return Очищенный буфер не меньше {@code capacity} байт: оставленный от прошлой записи или новый из пула.
+         */
+        private BufferPool.Lease lease(int capacity)
+        {
+            BufferPool.Lease lease = spare;
+
+            if (lease != null && lease.buffer().capacity() >= capacity)
+            {
+                spare = null;
+
+                lease.buffer().clear();
+
+                return lease;
+            }
+
+            return POOL.lease(capacity, session);
+        }
+
+        /**
+         * Оставляет дописанный буфер для следующей записи, если он больше оставленного ранее, иначе возвращает его в
+         * пул.
+         */
+        private void retire(BufferPool.Lease lease)
+        {
+            if (spare == null)
+            {
+                spare = lease;
+            }
+            else if (lease.buffer().capacity() > spare.buffer().capacity())
+            {
+                spare.release();
+
+                spare = lease;
+            }
+            else
+            {
+                lease.release();
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException
+        {
+            while (!closed && inbound.position() == 0)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException();
+                }
+            }
+
+            if (closed)
+                return -1;
+
+            inbound.flip();
+
+            int count = Math.min(len, inbound.remaining());
+
+            inbound.get(b, off, count);
+            inbound.compact();
+
+            if (!closed && (key.interestOps() & SelectionKey.OP_READ) == 0)
+            {
+                key.interestOpsOr(SelectionKey.OP_READ);
+                selector.wakeup();
+            }
+
+            return count;
+        }
+
+        synchronized int available()
+        {
+            return closed ? 0 : inbound.position();
+        }
+
+        @Override
+        public synchronized void write(ByteBuffer[] srcs, int offset, int length) throws IOException
+        {
+            while (outboundBytes > OUTBOUND_HIGH_WATER && !closed)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException();
+                }
+            }
+
+            if (closed)
+                throw new ClosedChannelException();
+
+            boolean idle = outbound.isEmpty();
+
+            long remaining = BufferPool.remaining(srcs, offset, length);
+
+            int end = offset + length;
+
+            // данные сразу копируются в прямые буферы пула: после возврата буферы вызывающего свободны, а недописанный
+            // остаток уже лежит в очереди
+            while (remaining > 0)
+            {
+                BufferPool.Lease lease = lease((int) Math.min(remaining, BufferPool.MAX_CAPACITY));
+
+                ByteBuffer buffer = lease.buffer();
+
+                offset = BufferPool.gather(srcs, offset, end - offset, buffer);
+
+                buffer.flip();
+
+                remaining -= buffer.remaining();
+
+                outbound.add(lease);
+                outboundBytes += buffer.remaining();
+            }
+
+            if (idle)
+                drain();
+
+            if (!outbound.isEmpty())
+            {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                    return;
+
+                closed = true;
+
+                for (BufferPool.Lease lease : outbound)
+                    lease.release();
+
+                outbound.clear();
+                outboundBytes = 0;
+
+                if (spare != null)
+                {
+                    spare.release();
+
+                    spare = null;
+                }
+
+                inboundLease.release();
+
+                notifyAll();
+            }
+
+            Thread reader = dispatcher;
+
+            if (reader != null)
+                LockSupport.unpark(reader);
+
+            sessions.remove(session.getId());
+            accepted.remove(session);
+
+            if (key != null)
+                key.cancel();
+
+            InboundHandler current;
+
+            synchronized (this)
+            {
+                current = handler;
+            }
+
+            if (current != null)
+                current.onClosed();
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+
+        private class ConnectionInputStream extends InputStream
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0)
+                    return 0;
+
+                return Connection.this.read(b, off, len);
+            }
+
+            @Override
+            public int available()
+            {
+                return Connection.this.available();
+            }
+
+            @Override
+            public void close()
+            {
+                Connection.this.close();
+            }
+        }
+
+        private class ConnectionOutputStream extends OutputStream
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                Connection.this.write(new ByteBuffer[] {ByteBuffer.wrap(b, off, len)}, 0, 1);
+            }
+
+            @Override
+            public void close()
+            {
+                Connection.this.close();
+            }
+        }
+    }
+}
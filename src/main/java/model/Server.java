@@ -3,15 +3,32 @@ package model;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileWriter;
+import jdk.jfr.EventType;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.net.BindException;
 import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <h2>Класс реализующий бизнес-логику сервера с шифрованием передаваемых данных</h2>
@@ -21,313 +38,2165 @@ import java.security.*;
  * методом {@link Server#connectionProtection()}. Только после проведения этих операций, можно передавать сообщения
  * через метод {@link Server#sendMessage(String)}</p>
  *
+ * <p>Приём подключений и обмен данными выполняет {@link SessionEngine}, поэтому сервер одновременно держит
+ * произвольное число сессий. Методы с параметром {@link Session} работают с указанной сессией, методы без него - с
+ * последней сессией, полученной через {@link Server#connection()}.</p>
+ *
+ * <p>Движок выбирается режимом {@link ServerMode}. В режиме {@link ServerMode#VIRTUAL_THREADS} с заданным
+ * обработчиком {@link Server#setSessionHandler(SessionHandler)} каждая сессия защищается и обслуживается в своём
+ * виртуальном потоке без участия {@link Server#connection()}.</p>
+ *
+ * <p>После защиты сессия переводится к приёму управляющих кадров методом
+ * {@link Server#startReceiving(Session, SessionListener)}, а сообщения ставятся в очередь методом
+ * {@link Server#submitMessage(Session, String)} и уходят сразу, без опроса. Простаивающая сессия ничего не
+ * передаёт, кроме необязательной проверки связи ({@link Server#setKeepaliveInterval(long)}).</p>
+ *
  * @author Kydryavcev Ilya
  * @version 1.0
  * @since 12.03.24
  */
 public class Server
 {
-    private ServerSocket serverSocket;
-    private Socket socket;
-    private DataOutputStream out;
-    private DataInputStream in;
+    /**
+     * Время ожидания подключения в секундах.
+     */
+    private static final int ACCEPT_TIMEOUT = 10;
+
+    /**
+     * Предел числа одновременных сессий по умолчанию.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    private ServerMode mode = ServerMode.SELECTOR;
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private SessionHandler sessionHandler;
+
+    private SessionEngine engine;
+
+    private KeyPairPool keyPairPool;
+
+    private SessionTicketCache ticketCache;
+
+    /**
+     * Пул шифрования для писателей очередей сессий или {@code null}, если кадр шифрует сам писатель.
+     */
+    private volatile CryptoWorkerPool cryptoWorkerPool;
+
+    private volatile Set<KeyExchangeSuite> keyExchangeSuites = EnumSet.allOf(KeyExchangeSuite.class);
+
+    private final java.security.SecureRandom random = new java.security.SecureRandom();
+
+    private int batchSize = MerkleBatchSigner.DEFAULT_MAX_BATCH_SIZE;
+    private long batchDelayMillis = MerkleBatchSigner.DEFAULT_MAX_DELAY_MILLIS;
+
+    /**
+     * Пакетная подпись для сессий в режиме {@link AuthenticationMode#BATCH_SIGNATURE}. Создаётся при первой
+     * необходимости и пересоздаётся при смене ключа ЭЦП.
+     */
+    private MerkleBatchSigner batchSigner;
+
+    /**
+     * Текущая сессия для методов без явного указания сессии.
+     */
+    private volatile Session session;
+
+    /**
+     * Интервал проверки связи в миллисекундах; 0 - проверка выключена.
+     */
+    private long keepaliveIntervalMillis;
+
+    private ScheduledExecutorService keepaliveTimer;
+    private ScheduledFuture<?> keepaliveTask;
+
+    /**
+     * Бюджет объединения сообщений по умолчанию, байт нагрузки в одной записи.
+     */
+    public static final int DEFAULT_COALESCE_MAX_BYTES = 16 * 1024;
+
+    private volatile int coalesceMaxBytes = DEFAULT_COALESCE_MAX_BYTES;
+    private volatile long coalesceWindowNanos;
+
+    /**
+     * Границы очереди исходящих сообщений сессии по умолчанию.
+     */
+    public static final int DEFAULT_OUTBOUND_MAX_MESSAGES = 1024;
+    public static final long DEFAULT_OUTBOUND_MAX_BYTES = 4L * 1024 * 1024;
+
+    private volatile int outboundMaxMessages = DEFAULT_OUTBOUND_MAX_MESSAGES;
+    private volatile long outboundMaxBytes = DEFAULT_OUTBOUND_MAX_BYTES;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * Сколько отправитель ждёт места в очереди, прежде чем снова проверить, открыта ли сессия.
+     */
+    private static final long OUTBOUND_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final OutboundStatistics outboundStatistics = new OutboundStatistics();
+
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * Тип события {@link MessagePhaseEvent}: пока оно выключено, события этапов отправки не создаются.
+     */
+    private static final EventType MESSAGE_PHASE_EVENT = EventType.getEventType(MessagePhaseEvent.class);
+
+    /**
+     * Алгоритм ЭЦП сообщений.
+     */
+    private static final String SIGNATURE_ALGORITHM = "MD5withRSA";
+
+    /**
+     * Алгоритм аутентификации сообщений в режиме {@link AuthenticationMode#HMAC}.
+     */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Назначение ключа HMAC при выводе из секретного ключа сессии.
+     */
+    private static final String MAC_KEY_LABEL = "ske message authentication";
+
+    /**
+     * Назначение секрета возобновления, который хранится в {@link SessionTicketCache}.
+     */
+    private static final String RESUMPTION_LABEL = "ske resumption";
+
+    /**
+     * Назначение секретного ключа возобновлённой сессии при выводе из секрета возобновления.
+     */
+    private static final String RESUMED_KEY_LABEL = "ske resumed session";
+
+    private static final byte RESUMPTION_REJECTED = 0;
+    private static final byte RESUMPTION_ACCEPTED = 1;
+
+    /**
+     * Размер сегмента потоковой передачи {@link Server#sendMessage(Session, ReadableByteChannel)}.
+     */
+    public static final int STREAM_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Закрытый ключ ЭЦП. Экземпляры {@link Signature} для него хранятся в кэше {@link CryptographicAlgorithms}
+     * отдельно для каждого потока.
+     */
+    private volatile PrivateKey signingKey;
+
+    /**
+     * Хранилище ключей ЭЦП или {@code null}, если используется {@link KeyStoreService#getDefault()}.
+     */
+    private KeyStoreService keyStoreService;
+
+    /**
+     * <h3>Инициализация класса создания ЭЦП.</h3>
+     *
+     * <p>Ключ берётся из кэша {@link KeyStoreService}, поэтому повторная инициализация не обращается к диску.</p>
+     *
+     * @param alias псевдоним записи.
+     * @param password пароль от хранилища ключей.
+     *
+     * @throws UnrecoverableKeyException если задан не верный пароль {@code password}.
+     * @throws KeyStoreService.EntryNotFoundException если запись с псевдонимом {@code alias} не существует.
+     * @throws KeyStoreException если хранилище не прочитано или повреждено.
+     */
+    public void initSignature(String alias, String password)
+            throws UnrecoverableKeyException, KeyStoreException
+    {
+        PrivateKey privateKey = keyStoreService != null
+                ? keyStoreService.getPrivateKey(alias, password)
+                : CryptographicAlgorithms.getPrivateKey(alias, password);
+
+        initSignature(privateKey);
+    }
+
+    /**
+     * <h3>Инициализация класса создания ЭЦП готовым ключом</h3>
+     *
+     * <p>Для встраивания сервера без хранилища ключей, например в нагрузочных тестах.</p>
+     *
+     * @param privateKey закрытый ключ RSA для ЭЦП.
+     */
+    public void initSignature(PrivateKey privateKey)
+    {
+        try
+        {
+            CryptographicAlgorithms.getSignature(SIGNATURE_ALGORITHM, privateKey);
+
+            signingKey = privateKey;
+
+            closeBatchSigner();
+        }
+        catch (NoSuchAlgorithmException|java.security.InvalidKeyException ex)
+        {
+            EventLog.error(Server.class, "initSignature", ex);
+        }
+    }
+
+    /**
+     * <h3>Установка хранилища ключей ЭЦП</h3>
+     *
+     * @param keyStoreService хранилище, из которого {@link Server#initSignature(String, String)} берёт ключ, или
+     *                        {@code null} для хранилища по умолчанию.
+     */
+    public void setKeyStoreService(KeyStoreService keyStoreService)
+    {
+        this.keyStoreService = keyStoreService;
+    }
+
+    public KeyStoreService getKeyStoreService()
+    {
+        return keyStoreService;
+    }
+
+    /**
+     * <h3>Выбор режима выполнения</h3>
+     *
+     * <p>Вступает в силу при следующем вызове {@link Server#highlightSocket(int)}.</p>
+     *
+     * @param mode режим выполнения.
+     */
+    public void setMode(ServerMode mode)
+    {
+        this.mode = mode;
+    }
+
+    public ServerMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * <h3>Ограничение числа одновременных сессий</h3>
+     *
+     * <p>Действует в режиме {@link ServerMode#VIRTUAL_THREADS}. Вступает в силу при следующем вызове
+     * {@link Server#highlightSocket(int)}.</p>
+     *
+     * @param maxSessions наибольшее число одновременно открытых сессий.
+     */
+    public void setMaxSessions(int maxSessions)
+    {
+        if (maxSessions <= 0)
+            throw new IllegalArgumentException("maxSessions должен быть положительным.");
+
+        this.maxSessions = maxSessions;
+    }
+
+    public int getMaxSessions()
+    {
+        return maxSessions;
+    }
 
-    private Key secretKey;
+    /**
+     * <h3>Установка обработчика сессий</h3>
+     *
+     * <p>В режиме {@link ServerMode#VIRTUAL_THREADS} каждая принятая сессия защищается методом
+     * {@link Server#connectionProtection(Session)} и передаётся обработчику в своём виртуальном потоке. Если
+     * обработчик не задан, сессии получаются методом {@link Server#connection()}.</p>
+     *
+     * @param sessionHandler цикл обмена сообщениями с клиентом или {@code null}.
+     */
+    public void setSessionHandler(SessionHandler sessionHandler)
+    {
+        this.sessionHandler = sessionHandler;
+    }
+
+    /**
+     * <h3>Установка пула ключевых пар</h3>
+     *
+     * <p>Если пул не задан, при первом вызове {@link Server#highlightSocket(int)} создаётся пул с параметрами по
+     * умолчанию.</p>
+     *
+     * @param keyPairPool пул ключевых пар RSA для защиты соединений.
+     */
+    public void setKeyPairPool(KeyPairPool keyPairPool)
+    {
+        this.keyPairPool = keyPairPool;
+
+        metrics.setKeyPairPool(keyPairPool);
+    }
+
+    public KeyPairPool getKeyPairPool()
+    {
+        return keyPairPool;
+    }
+
+    /**
+     * <h3>Установка кэша билетов возобновления</h3>
+     *
+     * <p>Если кэш не задан, при первом вызове {@link Server#highlightSocket(int)} создаётся кэш с параметрами по
+     * умолчанию.</p>
+     *
+     * @param ticketCache кэш билетов сессий.
+     */
+    public void setSessionTicketCache(SessionTicketCache ticketCache)
+    {
+        this.ticketCache = ticketCache;
+    }
+
+    public SessionTicketCache getSessionTicketCache()
+    {
+        return ticketCache;
+    }
+
+    /**
+     * <h3>Установка пула шифрования</h3>
+     *
+     * <p>Если пул задан, сообщения очереди сессии ({@link Server#submitMessage(Session, String)},
+     * {@link Server#sendMessage(Session, String)}) подписываются и шифруются его потоками, по нескольку кадров одной
+     * сессии одновременно, а писатель очереди только пишет готовые кадры в сокет по порядку. Без пула (по умолчанию)
+     * писатель сам шифрует кадр перед записью, и одна сессия занимает не больше одного процессора.</p>
+     *
+     * <p>Пул не закрывается сервером. Если его закрыть, не сняв с сервера, кадры шифрует сам писатель.</p>
+     *
+     * @param cryptoWorkerPool пул шифрования или {@code null}.
+     */
+    public void setCryptoWorkerPool(CryptoWorkerPool cryptoWorkerPool)
+    {
+        this.cryptoWorkerPool = cryptoWorkerPool;
+    }
+
+    public CryptoWorkerPool getCryptoWorkerPool()
+    {
+        return cryptoWorkerPool;
+    }
+
+    /**
+     * <h3>Разрешённые способы обмена ключами</h3>
+     *
+     * <p>Из способов, предложенных клиентом, выбирается первый разрешённый. По умолчанию разрешены все способы
+     * {@link KeyExchangeSuite}.</p>
+     *
+     * @param suites разрешённые способы.
+     */
+    public void setKeyExchangeSuites(Set<KeyExchangeSuite> suites)
+    {
+        if (suites.isEmpty())
+            throw new IllegalArgumentException("Нужен хотя бы один способ обмена ключами.");
+
+        keyExchangeSuites = Collections.unmodifiableSet(EnumSet.copyOf(suites));
+    }
+
+    public Set<KeyExchangeSuite> getKeyExchangeSuites()
+    {
+        return keyExchangeSuites;
+    }
+
+    /**
+     * <h3>Границы пакета подписи</h3>
+     *
+     * <p>Действуют для сессий в режиме {@link AuthenticationMode#BATCH_SIGNATURE}: пакет подписывается, как только в
+     * нём {@code batchSize} сообщений или через {@code batchDelayMillis} после прихода первого из них.</p>
+     *
+     * @param batchSize наибольшее число сообщений в пакете.
+     * @param batchDelayMillis наибольшая задержка сообщения в ожидании пакета.
+     */
+    public synchronized void setBatchLimits(int batchSize, long batchDelayMillis)
+    {
+        if (batchSize <= 0 || batchDelayMillis < 0)
+            throw new IllegalArgumentException("Некорректные границы пакета.");
+
+        this.batchSize = batchSize;
+        this.batchDelayMillis = batchDelayMillis;
+
+        closeBatchSigner();
+    }
+
+    private synchronized MerkleBatchSigner getBatchSigner() throws java.security.SignatureException
+    {
+        if (batchSigner == null)
+        {
+            try
+            {
+                batchSigner = new MerkleBatchSigner(batchSize, batchDelayMillis, SIGNATURE_ALGORITHM, signingKey);
+            }
+            catch (GeneralSecurityException ex)
+            {
+                throw new java.security.SignatureException(ex.getMessage(), ex);
+            }
+        }
+
+        return batchSigner;
+    }
+
+    private synchronized void closeBatchSigner()
+    {
+        if (batchSigner != null)
+            batchSigner.close();
+
+        batchSigner = null;
+    }
+
+    /**
+     * <h3>Проверка связи с простаивающими сессиями</h3>
+     *
+     * <p>Защищенной сессии, в которую ничего не записывалось дольше {@code intervalMillis}, отправляется сигнал
+     * {@link ControlSignal#KEEPALIVE}. Сессии, через которые идут сообщения, сигнал не получают.</p>
+     *
+     * @param intervalMillis интервал в миллисекундах или 0, чтобы выключить проверку (по умолчанию).
+     */
+    public synchronized void setKeepaliveInterval(long intervalMillis)
+    {
+        if (intervalMillis < 0)
+            throw new IllegalArgumentException("Интервал проверки связи не может быть отрицательным.");
+
+        keepaliveIntervalMillis = intervalMillis;
+
+        if (keepaliveTask != null)
+        {
+            keepaliveTask.cancel(false);
+
+            keepaliveTask = null;
+        }
+
+        if (intervalMillis == 0)
+            return;
+
+        if (keepaliveTimer == null)
+        {
+            keepaliveTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable task)
+                {
+                    Thread thread = new Thread(task, "keepalive");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        keepaliveTask = keepaliveTimer.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sendKeepalives();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <h3>Объединение исходящих сообщений</h3>
+     *
+     * <p>Сообщения, накопившиеся в очереди сессии, отправляются одной записью {@link FrameCodec#TYPE_BATCH}: одно
+     * шифрование, один тег и одна запись в сокет на весь пакет. Пакет закрывается, когда нагрузка достигла
+     * {@code maxBytes}, когда окно {@code windowMicros} после первого сообщения истекло или когда очередь опустела и
+     * окно равно 0 (по умолчанию). Поэтому при редких сообщениях задержка не растёт, а при частых пакеты набираются
+     * сами.</p>
+     *
+     * @param maxBytes бюджет нагрузки записи в байтах или 0, чтобы отправлять каждое сообщение отдельно.
+     * @param windowMicros сколько ждать следующее сообщение, пока бюджет не исчерпан, в микросекундах.
+     */
+    public void setCoalescing(int maxBytes, long windowMicros)
+    {
+        if (maxBytes < 0 || windowMicros < 0)
+            throw new IllegalArgumentException("Некорректные границы объединения сообщений.");
+
+        coalesceMaxBytes = maxBytes;
+        coalesceWindowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * <h3>Границы очереди исходящих сообщений</h3>
+     *
+     * <p>Каждая сессия хранит не больше {@code maxMessages} неотправленных сообщений и не больше {@code maxBytes} байт
+     * их нагрузки, поэтому память сервера не растёт из-за клиента, который не успевает принимать. Что делать с
+     * сообщением, которому нет места, решает {@code policy}:</p>
+     * <ul>
+     *     <li>{@link OverflowPolicy#BLOCK} (по умолчанию) - отправитель ждёт, пока писатель сессии не освободит
+     *     место;</li>
+     *     <li>{@link OverflowPolicy#DROP_OLDEST} - самые старые сообщения очереди завершаются с
+     *     {@link SendMessageException}, новое встаёт в конец;</li>
+     *     <li>{@link OverflowPolicy#DISCONNECT} - сессия закрывается, её сообщения завершаются с ошибкой.</li>
+     * </ul>
+     *
+     * <p>Границы действуют и на уже открытые сессии начиная со следующего сообщения. Управляющие кадры принимаются в
+     * очередь всегда.</p>
+     *
+     * @param maxMessages наибольшее число сообщений в очереди сессии.
+     * @param maxBytes наибольший размер нагрузки сообщений в очереди сессии в байтах.
+     * @param policy поведение при переполнении.
+     */
+    public void setOutboundLimits(int maxMessages, long maxBytes, OverflowPolicy policy)
+    {
+        if (maxMessages <= 0 || maxBytes <= 0 || policy == null)
+            throw new IllegalArgumentException("Некорректные границы очереди исходящих сообщений.");
+
+        outboundMaxMessages = maxMessages;
+        outboundMaxBytes = maxBytes;
+        overflowPolicy = policy;
+    }
+
+    public int getOutboundMaxMessages()
+    {
+        return outboundMaxMessages;
+    }
+
+    public long getOutboundMaxBytes()
+    {
+        return outboundMaxBytes;
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return статистику размеров записей, отправленных очередями сессий.
+     */
+    public OutboundStatistics getOutboundStatistics()
+    {
+        return outboundStatistics;
+    }
+
+    public ServerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * <h3>Снимок метрик сервера</h3>
+     *
+     * <p>Только суммирует счётчики и не блокирует отправку и приём.</p>
+     */
+    public ServerMetrics.Snapshot getMetricsSnapshot()
+    {
+        SessionEngine current = engine;
+
+        return metrics.snapshot(current == null ? 0 : current.getSessions().size());
+    }
+
+    public synchronized long getKeepaliveInterval()
+    {
+        return keepaliveIntervalMillis;
+    }
+
+    private void sendKeepalives()
+    {
+        SessionEngine current = engine;
+
+        if (current == null)
+            return;
+
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(getKeepaliveInterval());
+        long now = System.nanoTime();
+
+        for (Session target : current.getSessions())
+        {
+            if (target.isProtected() && target.getOutbound().isEmpty()
+                    && now - target.getLastWriteNanos() >= idleNanos)
+                submit(target, new OutboundQueue.Item(FrameCodec.TYPE_CONTROL,
+                        controlPayload(ControlSignal.KEEPALIVE, -1)), false);
+        }
+    }
+
+    /**
+     * <h2>Выделение сокета</h2>
+     *
+     * <p>Запускает движок выбранного режима на указанном порту {@code port}. Время ожидания подключения в методе
+     * {@link Server#connection()} - 10 секунд.</p>
+     *
+     * @param port номер порта или 0, чтобы использовать номер порта, который назначается автоматически.
+     *
+     * @throws HighlightSocketException если при инициализации сервера произошла какая-то ошибка.
+     */
+    public void highlightSocket(int port) throws HighlightSocketException
+    {
+        if (keyPairPool == null)
+            setKeyPairPool(new KeyPairPool());
+
+        if (ticketCache == null)
+            ticketCache = new SessionTicketCache();
+
+        try
+        {
+            if (mode == ServerMode.VIRTUAL_THREADS)
+                engine = new VirtualThreadEngine(port, maxSessions, protectedHandler());
+            else
+                engine = new SelectorEngine(port);
+        }
+        catch (BindException ex)
+        {
+            throw new HighlightSocketException("Данный порт уже занят.");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new HighlightSocketException("Указан некорректный номер порта. Введите номер порта заново.");
+        }
+        catch (SecurityException ex)
+        {
+            throw new HighlightSocketException("Менеджер безопасности и его метод checkListen не разрешает операцию.");
+        }
+        catch (IOException ex)
+        {
+            throw new HighlightSocketException("При открытии сокета возникла ошибка ввода-вывода.");
+        }
+    }
+
+    /**
+     * <h3>Обработчик для движка виртуальных потоков</h3>
+     *
+     * @return обработчик, защищающий сессию перед передачей её {@code sessionHandler}, или {@code null}.
+     */
+    private SessionHandler protectedHandler()
+    {
+        SessionHandler handler = sessionHandler;
+
+        if (handler == null)
+            return null;
+
+        return new SessionHandler()
+        {
+            @Override
+            public void handle(Session session) throws Exception
+            {
+                connectionProtection(session);
+
+                handler.handle(session);
+            }
+        };
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    public Socket getSocket()
+    {
+        Session current = session;
+
+        return current == null ? null : current.getChannel().socket();
+    }
+
+    public Session getSession()
+    {
+        return session;
+    }
+
+    public Session getSession(long id)
+    {
+        return engine == null ? null : engine.getSession(id);
+    }
+
+    /**
+     * <h3>Получение всех открытых сессий</h3>
+     * @return таблицу сессий движка
+     */
+    public Collection<Session> getSessions()
+    {
+        return engine.getSessions();
+    }
+
+    /**
+     * <h3>Получение номера порта для установки соединения</h3>
+     * @return номер порта
+     */
+    public int getLocalPort()
+    {
+        return engine.getLocalPort();
+    }
+
+    /**
+     * <h3>Установка сооединения с клиент-приложением</h3>
+     *
+     * <p>Ожидает очередное подключение, принятое движком, и делает его текущей сессией.</p>
+     *
+     * @return принятую сессию.
+     *
+     * @throws ConnectionException если по каким-то причинам не удалось установить соединение.
+     */
+    public Session connection() throws ConnectionException
+    {
+//        System.out.println("Ожидание клиента на порт " + engine.getLocalPort() + "...");
+
+        ConnectionAcceptEvent event = new ConnectionAcceptEvent();
+
+        event.begin();
+
+        try
+        {
+            Session accepted = engine.accept(ACCEPT_TIMEOUT, TimeUnit.SECONDS);
+
+            if (accepted == null)
+                throw new ConnectionException("Превышено время ожидания.");
+
+            session = accepted;
+
+            event.end();
+
+            if (event.shouldCommit())
+            {
+                event.sessionId = accepted.getId();
+                event.remoteAddress = String.valueOf(accepted.getRemoteAddress());
+
+                event.commit();
+            }
+
+            return accepted;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new ConnectionException("Во время ожидания соединения возникла ошибка ввода-вывода.");
+        }
+    }
+
+    /**
+     * <h3>Установка текущей сессии в защищенное состояние</h3>
+     *
+     * @throws ConnectionProtectionException если по каким-то причинам не получилось защитить канал передачи данных
+     *
+     * @see Server#connectionProtection(Session)
+     */
+    public void connectionProtection() throws ConnectionProtectionException
+    {
+        connectionProtection(session);
+    }
+
+    /**
+     * <h3>Установка соединения в защищенное состояние</h3>
+     *
+     * <p>Клиент-приложение начинает с приветствия {@link ClientHello}, в котором выбирает способ аутентификации
+     * сообщений и может предложить способы обмена ключами ({@link KeyExchangeSuite}). Способ
+     * {@link KeyExchangeSuite#X25519} согласует ключ через ECDH на разовых ключах X25519. Ниже описан способ по
+     * умолчанию, {@link KeyExchangeSuite#RSA_WRAP}: сервер-объект берёт пару ключей RSA из пула {@link KeyPairPool}. Открытый ключ передаёт по
+     * незащищенному каналу клиент-приложению. С помощью открытого ключа клиент-приложение зашифровывает секретный
+     * симметричный ключ и отправляет полученный шифр сервер-приложению. Затем сервер расшифровывает секретный ключ при
+     * помощи закрытого ключа. После получения секретного ключа, передаваемые данные будут шифроваться и передоваться
+     * клиенту методом {@link Server#sendMessage(Session, String)}.</p>
+     *
+     * <p>В режиме {@link AuthenticationMode#HMAC} сервер завершает рукопожатие ЭЦП над всеми его кадрами
+     * (приветствие, часть обмена сервера, часть обмена клиента). Клиент проверяет её один раз, а сообщения далее защищаются HMAC на
+     * ключе, выведенном из секретного ключа сессии. В режиме {@link AuthenticationMode#BATCH_SIGNATURE} сообщения
+     * подписываются пакетами ({@link MerkleBatchSigner}), и вызов {@link Server#sendMessage(Session, String)} ждёт
+     * подписи своего пакета.</p>
+     *
+     * <p>Клиент, поддерживающий возобновление, передаёт в приветствии поле билета и получает кадр с результатом
+     * возобновления: байт {@code 1} и случайное число сервера (32 байта) или байт {@code 0}. Если билет принят,
+     * секретный ключ выводится из секрета возобновления и случайных чисел клиента и сервера, а ключи RSA не
+     * используются вовсе. Иначе выполняется полное рукопожатие. В обоих случаях после защиты такой клиент получает
+     * новый билет кадром {@link FrameCodec#TYPE_TICKET} (varint время жизни в секундах, билет).</p>
+     *
+     * <p>Все кадры рукопожатия передаются с префиксом длины ({@link FrameWriter}, {@link FrameReader}), поэтому каждый
+     * читается целиком независимо от того, как он разбит на сегменты TCP.</p>
+     *
+     * @param session защищаемая сессия.
+     *
+     * @throws ConnectionProtectionException если по каким-то причинам не получилось защитить канал передачи данных
+     */
+    public void connectionProtection(Session session) throws ConnectionProtectionException
+    {
+        if (session == null || !session.isOpen())
+            throw new ConnectionProtectionException("Нет связи с клиентским приложением.");
+
+        long start = System.nanoTime();
+
+        ConnectionProtectionEvent event = new ConnectionProtectionEvent();
+
+        event.begin();
+
+        boolean done = false;
+        boolean resumed = false;
+
+        ClientHello hello = null;
+
+        try
+        {
+            byte[] helloBytes = readFrame(session);
+
+            hello = ClientHello.decode(ByteBuffer.wrap(helloBytes));
+
+            Key secretKey = null;
+
+            if (hello.isResumptionSupported())
+                secretKey = resume(session, hello);
+
+            resumed = secretKey != null;
+
+            if (secretKey == null)
+                secretKey = handshake(session, hello, helloBytes);
+
+            session.setAuthenticationMode(hello.getAuthenticationMode());
+            session.setSecretKey(secretKey);
+
+            if (hello.isResumptionSupported() && ticketCache != null)
+                issueTicket(session);
+
+            metrics.protectedSession(session, start);
+
+            done = true;
+        }
+        catch (InvalidKeyException|SignatureException ex)
+        {
+            throw new ConnectionProtectionException("Не удалось подписать рукопожатие: " + ex.getMessage());
+        }
+        catch (IOException ex)
+        {
+            throw new ConnectionProtectionException("Возникла ошибка ввода-вывода.");
+        }
+        catch (SendMessageException ex)
+        {
+            throw new ConnectionProtectionException("Не удалось выдать билет сессии: " + ex.getMessage());
+        }
+        catch (NullPointerException ex)
+        {
+            throw new ConnectionProtectionException(ex.getMessage());
+        }
+        finally
+        {
+            if (!done)
+                metrics.protectionFailed();
+
+            event.end();
+
+            if (event.shouldCommit())
+            {
+                event.sessionId = session.getId();
+                event.authenticationMode = hello == null ? null : hello.getAuthenticationMode().name();
+                event.resumed = resumed;
+                event.succeeded = done;
+                event.bytesIn = session.getMetrics().getBytesIn();
+                event.bytesOut = session.getMetrics().getBytesOut();
+
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * <h3>Полное рукопожатие</h3>
+     *
+     * <p>Сервер выбирает способ обмена ключами ({@link Server#chooseKeyExchange(ClientHello)}) и отправляет свою часть
+     * обмена. Если клиент перечислил способы в приветствии, кадр начинается с кода выбранного способа. Ответ клиента
+     * завершает обмен. В режиме {@link AuthenticationMode#HMAC} ЭЦП покрывает приветствие и оба кадра обмена.</p>
+     *
+     * @return секретный ключ сессии.
+     */
+    private Key handshake(Session session, ClientHello hello, byte[] helloBytes)
+            throws IOException, InvalidKeyException, SignatureException, ConnectionProtectionException
+    {
+        long start = System.nanoTime();
+
+        HandshakePhaseEvent event = beginHandshakePhase();
+
+        KeyExchange exchange = newKeyExchange(chooseKeyExchange(hello));
+
+        byte[] share = exchange.getServerShare();
+
+        metrics.protectionKeyGeneration.recordSince(start);
+
+        KeyExchangeSuite suite = exchange.getSuite();
+
+        commitHandshakePhase(event, session, HandshakePhaseEvent.KEY_GENERATION, suite, share.length);
+
+        byte[] serverFrame = share;
+
+        if (hello.getKeyExchangeSuites() != null)
+            serverFrame = ByteBuffer.allocate(1 + share.length).put((byte) suite.getCode()).put(share).array();
+
+        start = System.nanoTime();
+
+        event = beginHandshakePhase();
+
+        writeFrame(session, serverFrame);
+
+        metrics.protectionKeySend.recordSince(start);
+
+        commitHandshakePhase(event, session, HandshakePhaseEvent.KEY_SEND, suite, serverFrame.length);
+
+        event = beginHandshakePhase();
+
+        byte[] clientShare = readFrame(session);
+
+        commitHandshakePhase(event, session, HandshakePhaseEvent.KEY_READ, suite, clientShare.length);
+
+        Key secretKey;
+
+        try
+        {
+            start = System.nanoTime();
+
+            event = beginHandshakePhase();
+
+            secretKey = exchange.complete(clientShare);
+
+            metrics.protectionUnwrap.recordSince(start);
+
+            commitHandshakePhase(event, session, HandshakePhaseEvent.UNWRAP, suite, clientShare.length);
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new ConnectionProtectionException("Не удалось согласовать секретный ключ: " + ex.getMessage());
+        }
+
+        if (hello.getAuthenticationMode() == AuthenticationMode.HMAC)
+        {
+            event = beginHandshakePhase();
+
+            session.setMacKey(CryptographicAlgorithms.deriveKey(secretKey, MAC_KEY_LABEL, MAC_ALGORITHM));
+
+            byte[] transcriptSign = CryptographicAlgorithms.sign(SIGNATURE_ALGORITHM, signingKey,
+                    ByteBuffer.wrap(helloBytes), ByteBuffer.wrap(serverFrame), ByteBuffer.wrap(clientShare));
+
+            writeFrame(session, transcriptSign);
+
+            commitHandshakePhase(event, session, HandshakePhaseEvent.TRANSCRIPT_SIGN, suite, transcriptSign.length);
+        }
+
+        return secretKey;
+    }
+
+    private static HandshakePhaseEvent beginHandshakePhase()
+    {
+        HandshakePhaseEvent event = new HandshakePhaseEvent();
+
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * <h3>Запись события этапа рукопожатия</h3>
+     *
+     * <p>Если событие выключено, поля не заполняются, а сам объект события устраняется компилятором JIT.</p>
+     */
+    private static void commitHandshakePhase(HandshakePhaseEvent event, Session session, String phase,
+                                             KeyExchangeSuite suite, long bytes)
+    {
+        event.end();
+
+        if (event.shouldCommit())
+        {
+            event.sessionId = session.getId();
+            event.phase = phase;
+            event.suite = suite == null ? null : suite.name();
+            event.bytes = bytes;
+
+            event.commit();
+        }
+    }
+
+    /**
+     * <h3>Выбор способа обмена ключами</h3>
+     *
+     * @return первый из предложенных клиентом способов, разрешённый на сервере; {@link KeyExchangeSuite#RSA_WRAP},
+     * если клиент способы не перечислил.
+     *
+     * @throws ConnectionProtectionException если общего способа нет.
+     */
+    private KeyExchangeSuite chooseKeyExchange(ClientHello hello) throws ConnectionProtectionException
+    {
+        Set<KeyExchangeSuite> allowed = keyExchangeSuites;
+
+        List<KeyExchangeSuite> offered = hello.getKeyExchangeSuites();
+
+        if (offered == null)
+            offered = List.of(KeyExchangeSuite.RSA_WRAP);
+
+        for (KeyExchangeSuite suite : offered)
+        {
+            if (allowed.contains(suite))
+                return suite;
+        }
+
+        throw new ConnectionProtectionException("Нет общего с клиентом способа обмена ключами.");
+    }
+
+    private KeyExchange newKeyExchange(KeyExchangeSuite suite) throws ConnectionProtectionException
+    {
+        try
+        {
+            return switch (suite)
+            {
+                case RSA_WRAP -> new RsaKeyExchange(keyPairPool.take());
+                case X25519 -> new X25519KeyExchange();
+            };
+        }
+        catch (GeneralSecurityException|IllegalStateException ex)
+        {
+            throw new ConnectionProtectionException("Способ обмена ключами " + suite + " недоступен.");
+        }
+    }
+
+    /**
+     * <h3>Возобновление сессии по билету</h3>
+     *
+     * <p>Отвечает клиенту результатом возобновления. Подписывать рукопожатие не нужно: выведенный ключ знает только
+     * сервер, выдавший билет. Билет не принимается, если способ аутентификации в приветствии не тот, с которым билет
+     * выдан.</p>
+     *
+     * @return секретный ключ возобновлённой сессии или {@code null}, если билет не принят.
+     */
+    private Key resume(Session session, ClientHello hello) throws IOException, InvalidKeyException
+    {
+        HandshakePhaseEvent event = beginHandshakePhase();
+
+        SessionTicketCache.Entry entry = null;
+
+        if (ticketCache != null && hello.getTicket().length > 0)
+            entry = ticketCache.redeem(hello.getTicket(), hello.getAuthenticationMode());
+
+        if (entry == null)
+        {
+            writeFrame(session, new byte[] {RESUMPTION_REJECTED});
+
+            commitHandshakePhase(event, session, HandshakePhaseEvent.RESUME, null, 0);
+
+            return null;
+        }
+
+        byte[] serverNonce = new byte[ClientHello.NONCE_LENGTH];
+
+        random.nextBytes(serverNonce);
+
+        Key secretKey = CryptographicAlgorithms.deriveKey(entry.getSecret(), RESUMED_KEY_LABEL, "AES",
+                ByteBuffer.wrap(hello.getNonce()), ByteBuffer.wrap(serverNonce));
+
+        if (hello.getAuthenticationMode() == AuthenticationMode.HMAC)
+            session.setMacKey(CryptographicAlgorithms.deriveKey(secretKey, MAC_KEY_LABEL, MAC_ALGORITHM));
+
+        writeFrame(session, ByteBuffer.allocate(1 + serverNonce.length).put(RESUMPTION_ACCEPTED).put(serverNonce)
+                .array());
+
+        commitHandshakePhase(event, session, HandshakePhaseEvent.RESUME, null, hello.getTicket().length);
+
+        return secretKey;
+    }
+
+    /**
+     * <h3>Чтение кадра рукопожатия</h3>
+     */
+    private byte[] readFrame(Session session) throws IOException
+    {
+        byte[] frame = toBytes(session.getFrameReader().readFully(session.getInChannel()));
+
+        metrics.addBytesIn(session, FrameReader.HEADER_LENGTH + frame.length);
+
+        return frame;
+    }
+
+    /**
+     * <h3>Запись кадра с префиксом длины</h3>
+     */
+    private void writeFrame(Session session, byte[] frame) throws IOException
+    {
+        FrameWriter.write(session.getOut(), frame);
+
+        metrics.addBytesOut(session, FrameReader.HEADER_LENGTH + frame.length);
+    }
+
+    /**
+     * <h3>Выдача билета защищенной сессии</h3>
+     */
+    private void issueTicket(Session session) throws InvalidKeyException, SendMessageException
+    {
+        Key resumptionSecret = CryptographicAlgorithms.deriveKey(session.getSecretKey(), RESUMPTION_LABEL,
+                MAC_ALGORITHM);
+
+        byte[] ticket = ticketCache.issue(resumptionSecret, session.getAuthenticationMode());
+
+        long lifetime = ticketCache.getLifetimeSeconds();
+
+        ByteBuffer payload = ByteBuffer.allocate(FrameCodec.varintLength(lifetime) + ticket.length);
+
+        FrameCodec.putVarint(payload, lifetime);
+        payload.put(ticket);
+
+        sendFrame(session, FrameCodec.TYPE_TICKET, payload.array());
+    }
+
+    /**
+     * <h2>Отправка сообщения текущей сессии</h2>
+     *
+     * @param message сообщение для отправки.
+     * @throws SendMessageException если канал не защищен или, если при шифровании возникли ошибки.
+     *
+     * @see Server#sendMessage(Session, String)
+     */
+    public void sendMessage(String message) throws SendMessageException
+    {
+        sendMessage(session, message);
+    }
+
+    /**
+     * <h2>Отправка сообщения по защищенном каналу</h2>
+     *
+     * <p>Преобразует сообщение в кадр {@link FrameCodec} с очередным номером и тегом (ЭЦП, HMAC или доказательство
+     * пакетной подписи - в зависимости от способа аутентификации сессии), шифрует его и отправляет
+     * клиент-приложению кадром с префиксом длины ({@link FrameWriter}).</p>
+     *
+     * <p>Сообщение проходит через очередь сессии, как у {@link Server#submitMessage(Session, String)}, и может уйти
+     * одной записью с сообщениями других потоков. Если очередь свободна, отправляет сам вызывающий поток; метод
+     * возвращается, когда сообщение записано.</p>
+     *
+     * <p>Если очередь пуста, окно объединения равно 0 и пул шифрования не задан, сообщение не ставится в очередь:
+     * вызывающий поток, став её писателем, кодирует его прямо в буфер записи сессии ({@link OutboundBuffers}). Такая
+     * отправка не создаёт объектов, кроме тех, что создаёт сама ЭЦП.</p>
+     *
+     * @param session сессия получателя.
+     * @param message сообщение для отправки.
+     * @throws SendMessageException если канал не защищен или, если при шифровании возникли ошибки.
+     */
+    public void sendMessage(Session session, String message) throws SendMessageException
+    {
+        if (session == null || !session.isProtected())
+            throw new SendMessageException("Соединение не защищено.");
+
+        OutboundQueue queue = session.getOutbound();
+
+        if (coalesceWindowNanos == 0 && cryptoWorkerPool == null && queue.isEmpty() && queue.tryStartDrain())
+        {
+            try
+            {
+                int length = OutboundBuffers.encodedLength(message);
+
+                sendFrame(session, FrameCodec.TYPE_MESSAGE, length, null, message, null);
+
+                recordSent(session, 1, length);
+            }
+            finally
+            {
+                if (queue.finishDrain())
+                    drain(session, queue);
+            }
+
+            return;
+        }
+
+        CompletableFuture<Void> result = submit(session, new OutboundQueue.Item(FrameCodec.TYPE_MESSAGE, message),
+                true);
+
+        try
+        {
+            result.get();
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof SendMessageException cause)
+                throw cause;
+
+            throw new SendMessageException(ex.getCause().getMessage());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new SendMessageException("Отправка сообщения прервана.");
+        }
+    }
+
+    /**
+     * <h2>Потоковая отправка данных по защищенному каналу</h2>
+     *
+     * @see Server#sendMessage(Session, ReadableByteChannel)
+     */
+    public void sendMessage(Session session, InputStream data) throws SendMessageException
+    {
+        sendMessage(session, Channels.newChannel(data));
+    }
+
+    /**
+     * <h2>Потоковая отправка данных по защищенному каналу</h2>
+     *
+     * <p>Данные читаются из {@code data} сегментами по {@value Server#STREAM_SEGMENT_SIZE} байт, и каждый сегмент
+     * сразу шифруется ({@link StreamEncryptor}) и отправляется, поэтому расход памяти не зависит от объёма данных.</p>
+     *
+     * <p>Передача обрамляется кадрами {@link FrameCodec#TYPE_STREAM_BEGIN} (номер потока и размер сегмента) и
+     * {@link FrameCodec#TYPE_STREAM_END} (номер потока, длина и SHA-256 данных), которые шифруются и подписываются как
+     * обычные сообщения. Между ними идут зашифрованные AES-GCM сегменты, каждый - отдельным кадром с префиксом длины.
+     * Пока передача не закончена, другие сообщения этой сессии ждут.</p>
+     *
+     * @param session сессия получателя.
+     * @param data источник данных; читается до конца, но не закрывается.
+     * @throws SendMessageException если канал не защищен, если при шифровании возникли ошибки или не удалось прочитать
+     * данные.
+     */
+    public void sendMessage(Session session, ReadableByteChannel data) throws SendMessageException
+    {
+        if (session == null || !session.isProtected())
+            throw new SendMessageException("Соединение не защищено.");
+
+        ReentrantLock writeLock = session.getWriteLock();
+
+        writeLock.lock();
+
+        try
+        {
+            StreamEncryptor encryptor = new StreamEncryptor(session.getStreamKey(), session.nextStreamId(),
+                    STREAM_SEGMENT_SIZE);
+
+            sendFrame(session, FrameCodec.TYPE_STREAM_BEGIN, encryptor.beginPayload());
+
+            ByteBuffer[] segment = new ByteBuffer[1];
+
+            while ((segment[0] = encryptor.nextRecord(data)) != null)
+            {
+                int length = segment[0].remaining();
+
+                session.write(segment, 0, 1);
+
+                metrics.addBytesOut(session, length);
+            }
+
+            sendFrame(session, FrameCodec.TYPE_STREAM_END, encryptor.endPayload());
+        }
+        catch (IOException ex)
+        {
+            throw new SendMessageException("Возникла ошибка ввода-вывода.");
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new SendMessageException("В ходе шифрования сообщения произошла ошибка.");
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * <h3>Отправка кадра по защищенному каналу</h3>
+     *
+     * @see Server#sendFrame(Session, int, int, byte[], String, List)
+     */
+    private void sendFrame(Session session, int type, byte[] payload) throws SendMessageException
+    {
+        sendFrame(session, type, payload.length, payload, null, null);
+    }
+
+    /**
+     * <h3>Отправка кадра по защищенному каналу</h3>
+     *
+     * <p>Собирает и шифрует кадр в буфере записи сессии ({@link Server#sealFrame}) и пишет его в сокет
+     * ({@link Server#writeSealed}). Буфер принадлежит сессии, поэтому кадр собирается под её блокировкой записи.</p>
+     *
+     * @param payloadLength длина нагрузки в байтах.
+     */
+    private void sendFrame(Session session, int type, int payloadLength, byte[] payload, String text,
+                           List<OutboundQueue.Item> batch) throws SendMessageException
+    {
+        ReentrantLock writeLock = session.getWriteLock();
+
+        writeLock.lock();
+
+        OutboundBuffers buffers = session.getOutboundBuffers();
+
+        try
+        {
+            long sequence = session.nextSequence();
+
+            ByteBuffer ciphertext = sealFrame(session, session.getSecretKey(), session.getMacKey(), buffers, type,
+                    sequence, payloadLength, payload, text, batch);
+
+            writeSealed(session, buffers, type, sequence, ciphertext);
+        }
+        finally
+        {
+            buffers.release();
+
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * <h3>Сборка и шифрование кадра</h3>
+     *
+     * <p>Собирает кадр в буфере {@code buffers}: заголовок {@link FrameCodec} с номером {@code sequence}, нагрузка, тег
+     * сессии и дополнение. Шифртекст пишется в тот же буфер следом за кадром, так что в установившемся режиме сборка не
+     * создаёт массивов.</p>
+     *
+     * <p>Нагрузка - ровно одно из: массив {@code payload}, текст {@code text}, кодируемый в UTF-8 прямо в буфер, или
+     * сообщения {@code batch}, из которых собирается нагрузка {@link FrameCodec#TYPE_BATCH}. Метод не трогает сокет и
+     * общее состояние сессии, а ключи получает от вызывающего, поэтому может выполняться в потоке
+     * {@link CryptoWorkerPool} и после закрытия сессии, которое стирает её ключи.</p>
+     *
+     * @param secretKey секретный ключ сессии, прочитанный при постановке кадра; {@code null}, если сессия закрыта.
+     * @param macKey ключ HMAC сессии, прочитанный вместе с секретным.
+     * @param payloadLength длина нагрузки в байтах.
+     *
+     * @return Шифртекст кадра между позицией и пределом.
+     */
+    private ByteBuffer sealFrame(Session session, Key secretKey, Key macKey, OutboundBuffers buffers, int type,
+                                 long sequence, int payloadLength, byte[] payload, String text,
+                                 List<OutboundQueue.Item> batch) throws SendMessageException
+    {
+        if (secretKey == null || !session.isOpen())
+            throw new SendMessageException("Нет связи с клиентским приложением.");
+
+        try
+        {
+            MessagePhaseEvent event = beginMessagePhase();
+
+            int authenticatedLength = FrameCodec.headerLength(FrameCodec.FLAG_TAG, sequence, payloadLength)
+                    + payloadLength;
+            int frameLength = authenticatedLength + FrameCodec.varintLength(OutboundBuffers.TAG_CAPACITY)
+                    + OutboundBuffers.TAG_CAPACITY;
+
+            int maxLength = CryptographicAlgorithms.encryptedLength(frameLength);
+
+            ByteBuffer record = buffers.record(2 * maxLength);
+
+            FrameCodec.writeHeader(record, type, FrameCodec.FLAG_TAG, sequence, payloadLength);
+
+            putPayload(record, buffers, payload, text, batch);
+
+            if (record.position() != authenticatedLength)
+                throw new IllegalStateException("Длина нагрузки не совпала с расчётной.");
+
+            commitMessagePhase(event, session, MessagePhaseEvent.ENCODE, type, sequence, authenticatedLength);
+
+            long start = System.nanoTime();
+
+            event = beginMessagePhase();
+
+            record.flip();
+
+            int tagLength = tag(session, macKey, record, buffers.tag());
+
+            metrics.sendSign.recordSince(start);
+
+            commitMessagePhase(event, session, MessagePhaseEvent.SIGN, type, sequence, payloadLength);
+
+            start = System.nanoTime();
+
+            event = beginMessagePhase();
+
+            record.limit(record.capacity()).position(authenticatedLength);
+
+            FrameCodec.writeTag(record, buffers.tag(tagLength));
+
+            byte[] array = record.array();
+
+            int length = CryptographicAlgorithms.pad(array, 0, record.position());
+
+            // шифртекст пишется за открытым кадром, а не поверх него: на месте шифр копирует вход
+            CryptographicAlgorithms.encrypt(array, 0, length, array, length, secretKey);
+
+            metrics.sendEncrypt.recordSince(start);
+
+            commitMessagePhase(event, session, MessagePhaseEvent.ENCRYPT, type, sequence, length);
+
+            return record.limit(2 * length).position(length);
+        }
+        catch (java.security.SignatureException|InvalidKeyException ex)
+        {
+            throw new SendMessageException("Класс формирования ЭЦП не инициализирован.");
+        }
+        catch (GeneralSecurityException ex)
+        {
+            throw new SendMessageException("В ходе шифрования сообщения произошла ошибка.");
+        }
+        catch (java.util.concurrent.ExecutionException ex)
+        {
+            throw new SendMessageException("В ходе пакетной подписи сообщения произошла ошибка.");
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new SendMessageException("Отправка сообщения прервана.");
+        }
+        catch (IllegalStateException ex)
+        {
+            throw new SendMessageException(ex.getMessage());
+        }
+    }
+
+    /**
+     * <h3>Запись зашифрованного кадра</h3>
+     *
+     * <p>Шифртекст вместе с префиксом длины уходит в сокет одной записью из двух буферов. Вызывать под блокировкой
+     * записи сессии, в порядке номеров кадров.</p>
+     *
+     * @param ciphertext результат {@link Server#sealFrame}.
+     */
+    private void writeSealed(Session session, OutboundBuffers buffers, int type, long sequence, ByteBuffer ciphertext)
+            throws SendMessageException
+    {
+        MessagePhaseEvent event = beginMessagePhase();
+
+        int length = FrameReader.HEADER_LENGTH + ciphertext.remaining();
+
+        try
+        {
+            session.write(buffers.frame(ciphertext), 0, 2);
+        }
+        catch (IOException ex)
+        {
+            throw new SendMessageException("Возникла ошибка ввода-вывода.");
+        }
+
+        metrics.addBytesOut(session, length);
+
+        session.touchWrite();
+
+        commitMessagePhase(event, session, MessagePhaseEvent.WRITE, type, sequence, length);
+    }
+
+    private static void putPayload(ByteBuffer dst, OutboundBuffers buffers, byte[] payload, String text,
+                                   List<OutboundQueue.Item> batch)
+    {
+        if (payload != null)
+        {
+            dst.put(payload);
+        }
+        else if (text != null)
+        {
+            buffers.encode(text, dst);
+        }
+        else
+        {
+            FrameCodec.putVarint(dst, batch.size());
+
+            for (int i = 0; i < batch.size(); i++)
+            {
+                OutboundQueue.Item item = batch.get(i);
+
+                FrameCodec.putVarint(dst, item.length);
+
+                item.writePayload(dst, buffers);
+            }
+        }
+    }
+
+    /**
+     * <h3>Вычисление тега кадра</h3>
+     *
+     * <p>ЭЦП, HMAC или доказательство пакетной подписи - в зависимости от способа аутентификации сессии - над
+     * оставшимися байтами {@code authenticated}.</p>
+     *
+     * @param macKey ключ HMAC сессии.
+     * @param output массив, в который записывается тег.
+     *
+     * @return Длина тега.
+     */
+    private int tag(Session session, Key macKey, ByteBuffer authenticated, byte[] output) throws GeneralSecurityException,
+            java.util.concurrent.ExecutionException, InterruptedException
+    {
+        switch (session.getAuthenticationMode())
+        {
+            case HMAC ->
+            {
+                return CryptographicAlgorithms.mac(MAC_ALGORITHM, macKey, authenticated, output, 0);
+            }
+            case BATCH_SIGNATURE ->
+            {
+                byte[] tag = getBatchSigner().submit(authenticated).get();
+
+                if (tag.length > output.length)
+                    throw new java.security.SignatureException("Тег пакетной подписи слишком длинный.");
+
+                System.arraycopy(tag, 0, output, 0, tag.length);
+
+                return tag.length;
+            }
+            default ->
+            {
+                return CryptographicAlgorithms.sign(SIGNATURE_ALGORITHM, signingKey, authenticated, output, 0);
+            }
+        }
+    }
+
+    /**
+     * @return Начатое событие этапа или {@code null}, если событие выключено: на пути отправки оно не создаётся зря.
+     */
+    private static MessagePhaseEvent beginMessagePhase()
+    {
+        if (!MESSAGE_PHASE_EVENT.isEnabled())
+            return null;
+
+        MessagePhaseEvent event = new MessagePhaseEvent();
+
+        event.begin();
+
+        return event;
+    }
+
+    private static void commitMessagePhase(MessagePhaseEvent event, Session session, String phase, int type,
+                                           long sequence, long bytes)
+    {
+        if (event == null)
+            return;
+
+        event.end();
+
+        if (event.shouldCommit())
+        {
+            event.sessionId = session.getId();
+            event.phase = phase;
+            event.frameType = type;
+            event.sequence = sequence;
+            event.bytes = bytes;
+
+            event.commit();
+        }
+    }
+
+    /**
+     * <h2>Постановка сообщения текущей сессии в очередь</h2>
+     *
+     * @see Server#submitMessage(Session, String)
+     */
+    public CompletableFuture<Void> submitMessage(String message)
+    {
+        return submitMessage(session, message);
+    }
+
+    /**
+     * <h2>Постановка сообщения в очередь отправки</h2>
+     *
+     * <p>Сообщение ставится в очередь сессии и отправляется постоянным виртуальным потоком записи сессии, который
+     * разбирает очередь, пока она не опустеет, объединяя накопившиеся сообщения
+     * ({@link Server#setCoalescing(int, long)}). Вызывающий поток не ждёт ни шифрования, ни записи, а порядок сообщений
+     * сессии сохраняется.</p>
+     *
+     * <p>Очередь ограничена ({@link Server#setOutboundLimits(int, long, OverflowPolicy)}): при политике
+     * {@link OverflowPolicy#BLOCK} метод ждёт места в очереди медленного клиента, при остальных политиках не ждёт
+     * никогда.</p>
+     *
+     * @param session сессия получателя.
+     * @param message сообщение для отправки.
+     *
+     * @return результат отправки; завершается с {@link SendMessageException}, если сообщение не удалось отправить.
+     */
+    public CompletableFuture<Void> submitMessage(Session session, String message)
+    {
+        if (session == null || !session.isProtected())
+            return CompletableFuture.failedFuture(new SendMessageException("Соединение не защищено."));
 
-    private Signature signature;
+        return submit(session, new OutboundQueue.Item(FrameCodec.TYPE_MESSAGE, message), false);
+    }
 
     /**
-     * <h3>Инициализация класса создания ЭЦП.</h3>
+     * <h3>Постановка кадра в очередь сессии</h3>
      *
-     * @param alias псевдоним записи.
-     * @param password пароль от хранилища ключей.
-     *
-     * @throws UnrecoverableKeyException если задан не верный пароль {@code password}.
-     * @throws NullPointerException если запись с псевдонимом {@code alias} не существует.
+     * @param callerRuns разобрать очередь в вызывающем потоке, если она свободна, вместо передачи потоку записи.
      */
-    public void initSignature(String alias, String password)
-            throws UnrecoverableKeyException, NullPointerException
+    private CompletableFuture<Void> submit(Session session, OutboundQueue.Item item, boolean callerRuns)
     {
-        try
-        {
-            PrivateKey privateKey = CryptographicAlgorithms.getPrivateKey(alias, password);
+        OutboundQueue queue = session.getOutbound();
 
-            signature = Signature.getInstance("MD5withRSA");
+        if (!enqueue(session, queue, item))
+            return item.result;
 
-            signature.initSign(privateKey);
+        if (!session.isOpen())
+        {
+            queue.fail(new SendMessageException("Нет связи с клиентским приложением."));
         }
-        catch (NoSuchAlgorithmException|java.security.InvalidKeyException ex)
+        else if (queue.tryStartDrain())
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
+            if (callerRuns)
             {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
+                drain(session, queue);
             }
-            catch (IOException ex1)
+            else if (!session.wakeWriter() && !session.startWriter(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    drain(session, queue);
+                }
+            }))
             {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
+                drain(session, queue);
             }
         }
+
+        return item.result;
     }
 
     /**
-     * <h2>Выделение сокета</h2>
+     * <h3>Постановка кадра в ограниченную очередь</h3>
      *
-     * <p>Создает объект класса {@code ServerSocket} с указанным портом {@code port}. Задаёт время ожидания подключения
-     * в 10 секунд.</p>
+     * @return {@code True}, если кадр поставлен в очередь; иначе его результат уже завершён с ошибкой.
      *
-     * @param port номер порта или 0, чтобы использовать номер порта, который назначается автоматически.
-     *
-     * @throws HighlightSocketException если при инициализации сервера произошла какая-то ошибка.
+     * @see Server#setOutboundLimits(int, long, OverflowPolicy)
      */
-    public void highlightSocket(int port) throws HighlightSocketException
+    private boolean enqueue(Session session, OutboundQueue queue, OutboundQueue.Item item)
     {
-        try
-        {
-            serverSocket = new ServerSocket(port);
+        int maxMessages = outboundMaxMessages;
+        long maxBytes = outboundMaxBytes;
 
-            serverSocket.setSoTimeout(10000);
-        }
-        catch (SocketException ex)
-        {
-            throw new HighlightSocketException("Данный порт уже занят.");
-        }
-        catch (IllegalArgumentException ex)
-        {
-            throw new HighlightSocketException("Указан некорректный номер порта. Введите номер порта заново.");
-        }
-        catch (SecurityException ex)
+        boolean blocked = false;
+
+        while (!queue.offer(item, maxMessages, maxBytes))
         {
-            throw new HighlightSocketException("Менеджер безопасности и его метод checkListen не разрешает операцию.");
+            switch (overflowPolicy)
+            {
+                case DROP_OLDEST ->
+                {
+                    OutboundQueue.Item dropped = queue.dropOldest();
+
+                    if (dropped == null)
+                    {
+                        queue.add(item);
+
+                        return true;
+                    }
+
+                    metrics.outboundDropped(session);
+
+                    dropped.result.completeExceptionally(new SendMessageException(
+                            "Сообщение вытеснено из переполненной очереди сессии."));
+                }
+                case DISCONNECT ->
+                {
+                    metrics.overflowDisconnected();
+
+                    EventLog.get().log(EventLog.Level.WARNING, Server.class, "enqueue", session,
+                            "Очередь сессии переполнена: " + queue.size() + " сообщений, " + queue.bytes()
+                                    + " байт. Сессия отключена.", null);
+
+                    item.result.completeExceptionally(new SendMessageException(
+                            "Клиентское приложение не успевает принимать сообщения. Соединение разорвано."));
+
+                    try
+                    {
+                        session.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        EventLog.error(Server.class, "enqueue", session, ex);
+                    }
+
+                    return false;
+                }
+                default ->
+                {
+                    if (!session.isOpen())
+                    {
+                        item.result.completeExceptionally(new SendMessageException(
+                                "Нет связи с клиентским приложением."));
+
+                        return false;
+                    }
+
+                    if (!blocked)
+                        metrics.outboundBlocked();
+
+                    blocked = true;
+
+                    try
+                    {
+                        queue.awaitSpace(item, maxMessages, maxBytes, OUTBOUND_WAIT_NANOS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+
+                        item.result.completeExceptionally(new SendMessageException("Отправка сообщения прервана."));
+
+                        return false;
+                    }
+                }
+            }
         }
-        catch (IOException ex)
+
+        return true;
+    }
+
+    private void drain(Session session, OutboundQueue queue)
+    {
+        do
         {
-            throw new HighlightSocketException("При открытии сокета возникла ошибка ввода-вывода.");
+            CryptoWorkerPool pool = cryptoWorkerPool;
+
+            if (pool != null)
+            {
+                drainSealed(session, queue, pool);
+            }
+            else
+            {
+                OutboundQueue.Item item = queue.poll();
+
+                while (item != null)
+                {
+                    if (item.type == FrameCodec.TYPE_MESSAGE)
+                    {
+                        item = sendCoalesced(session, queue, item);
+                    }
+                    else
+                    {
+                        send(session, item);
+
+                        item = queue.poll();
+                    }
+                }
+            }
         }
+        while (queue.finishDrain());
     }
 
-    public Socket getSocket()
+    /**
+     * <h3>Разбор очереди через пул шифрования</h3>
+     *
+     * <p>Кадры получают номера в порядке очереди и отдаются {@link CryptoWorkerPool}, пока в пуле меньше
+     * {@link CryptoWorkerPool#getWindow()} кадров сессии; готовые кадры пишутся в сокет в том же порядке. Всё это время
+     * писатель держит блокировку записи сессии, чтобы между номерами не вклинился кадр другого потока, и не отдаёт пулу
+     * новые кадры, пока блокировку ждёт кто-то ещё (потоковая передача, отключение).</p>
+     */
+    private void drainSealed(Session session, OutboundQueue queue, CryptoWorkerPool pool)
     {
-        return socket;
+        ReentrantLock writeLock = session.getWriteLock();
+
+        int window = pool.getWindow();
+
+        ArrayDeque<PendingFrame> pending = new ArrayDeque<>(window);
+
+        OutboundQueue.Item next = queue.poll();
+
+        while (next != null)
+        {
+            writeLock.lock();
+
+            try
+            {
+                do
+                {
+                    while (next != null && pending.size() < window
+                            && (pending.isEmpty() || !writeLock.hasQueuedThreads()))
+                    {
+                        next = seal(session, queue, pool, next, pending);
+                    }
+
+                    writeSealed(session, pool, pending.poll());
+
+                    if (next == null)
+                        next = queue.poll();
+                }
+                while (!pending.isEmpty());
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
     }
 
     /**
-     * <h3>Получение номера порта для установки соединения</h3>
-     * @return номер порта
+     * <h3>Передача кадра пулу шифрования</h3>
+     *
+     * <p>Сообщения, как и без пула, объединяются в пакет ({@link Server#coalesce}), но список пакета у каждого кадра
+     * свой: пока кадр в пуле, писатель собирает следующие. Буферы кадра берутся у пула
+     * ({@link CryptoWorkerPool#takeBuffers()}) и возвращаются ему, когда кадр записан.</p>
+     *
+     * @return кадр, взятый из очереди, но не вошедший в пакет, или следующий кадр очереди.
      */
-    public int getLocalPort()
+    private OutboundQueue.Item seal(Session session, OutboundQueue queue, CryptoWorkerPool pool,
+                                    OutboundQueue.Item first, ArrayDeque<PendingFrame> pending)
     {
-        return serverSocket.getLocalPort();
+        List<OutboundQueue.Item> items = new ArrayList<>();
+
+        OutboundQueue.Item next = null;
+
+        if (first.type == FrameCodec.TYPE_MESSAGE)
+            next = coalesce(queue, first, items);
+        else
+            items.add(first);
+
+        PendingFrame frame = new PendingFrame(session, items, pool.takeBuffers(), session.nextSequence());
+
+        frame.ciphertext = pool.submit(frame);
+
+        pending.add(frame);
+
+        return next == null ? queue.poll() : next;
     }
 
     /**
-     * <h3>Установка сооединения с клиент-приложением</h3>
+     * <h3>Запись кадра, зашифрованного пулом</h3>
      *
-     * @throws ConnectionException если по каким-то причинам не удалось установить соединение.
+     * <p>Ждёт готовности кадра и пишет его; результаты сообщений кадра завершаются так же, как при отправке без
+     * пула. Буферы кадра возвращаются пулу.</p>
      */
-    public void connection() throws ConnectionException
+    private void writeSealed(Session session, CryptoWorkerPool pool, PendingFrame frame)
     {
-//        System.out.println("Ожидание клиента на порт " + serverSocket.getLocalPort() + "...");
-
         try
         {
-            socket = serverSocket.accept();
+            writeSealed(session, frame.buffers, frame.type, frame.sequence, frame.get());
+
+            if (frame.type != FrameCodec.TYPE_CONTROL)
+                recordSent(session, frame.items.size(), frame.length);
+
+            for (int i = 0; i < frame.items.size(); i++)
+                frame.items.get(i).result.complete(null);
         }
-        catch (SocketTimeoutException ex)
+        catch (SendMessageException ex)
         {
-            throw new ConnectionException("Превышено время ожидания.");
+            for (int i = 0; i < frame.items.size(); i++)
+                frame.items.get(i).result.completeExceptionally(ex);
         }
-        catch (IOException ex)
+        finally
         {
-            throw new ConnectionException("Во время ожидания соединения возникла ошибка ввода-вывода.");
+            pool.releaseBuffers(frame.buffers);
         }
+    }
 
-        try
-        {
-            out = new DataOutputStream(socket.getOutputStream());
-            in  = new DataInputStream(socket.getInputStream());
-        }
-        catch (IOException ex)
-        {
-            throw new ConnectionException("Во время ожидания соединения возникла ошибка ввода-вывода.");
-        }
+    /**
+     * <h3>Отправка пакета сообщений</h3>
+     *
+     * <p>Добирает к {@code first} сообщения из очереди ({@link Server#coalesce}) и отправляет их одной записью. Список
+     * пакета принадлежит очереди и переиспользуется.</p>
+     *
+     * @return кадр, взятый из очереди, но не вошедший в пакет, или {@code null}.
+     */
+    private OutboundQueue.Item sendCoalesced(Session session, OutboundQueue queue, OutboundQueue.Item first)
+    {
+        List<OutboundQueue.Item> batch = queue.batch();
+
+        OutboundQueue.Item next = coalesce(queue, first, batch);
+
+        if (batch.size() == 1)
+            send(session, first);
+        else
+            sendBatch(session, batch);
+
+        batch.clear();
+
+        return next == null ? queue.poll() : next;
     }
 
     /**
-     * <h3>Установка соединения в защищенное состояние</h3>
+     * <h3>Сборка пакета сообщений</h3>
      *
-     * <p>Сервер-объект генерирует пару ключей RSA. Открытый ключ передаёт по незащищенному каналу клиент-приложению.
-     * С помощью открытого ключа клиент-приложение зашифровывает секретный симметричный ключ и отправляет полученный
-     * шифр сервер-приложению. Затем сервер расшифровывает секретный ключ при помощи закрытого ключа. После получения
-     * секретного ключа, передаваемые данные будут шифроваться и передоваться клиенту методом
-     * {@link Server#sendMessage(String)}.</p>
+     * <p>Добавляет в {@code batch} сообщение {@code first} и следующие сообщения очереди, пока они помещаются в бюджет
+     * ({@link Server#setCoalescing(int, long)}).</p>
      *
-     * @throws ConnectionProtectionException если по каким-то причинам не получилось защитить канал передачи данных
+     * @return кадр, взятый из очереди, но не вошедший в пакет, или {@code null}.
      */
-    public void connectionProtection() throws ConnectionProtectionException
+    private OutboundQueue.Item coalesce(OutboundQueue queue, OutboundQueue.Item first, List<OutboundQueue.Item> batch)
     {
-        if (socket == null)
-            throw new ConnectionProtectionException("Нет связи с клиентским приложением.");
+        int maxBytes = coalesceMaxBytes;
+        long window = coalesceWindowNanos;
 
-        KeyPair keyPair;
+        int bytes = first.length;
 
-        keyPair = CryptographicAlgorithms.generateKeyPair();
+        long deadline = System.nanoTime() + window;
 
-        PublicKey publicKey   = keyPair.getPublic();
-        PrivateKey privateKey = keyPair.getPrivate();
+        OutboundQueue.Item next = null;
 
-        try
+        batch.add(first);
+
+        while (bytes < maxBytes)
         {
-            out.write(publicKey.getEncoded());
+            next = queue.poll(deadline - System.nanoTime());
 
-            byte[] wrappedKeyBytes = new byte[100], buffer = new byte[100];
+            if (next == null)
+                break;
 
-            int lengthMessage = in.read(wrappedKeyBytes);
+            if (next.type != FrameCodec.TYPE_MESSAGE || bytes + next.length > maxBytes)
+                break;
 
-            while (in.available() > 0)
-            {
-                lengthMessage += in.read(buffer);
+            batch.add(next);
 
-                byte[] temp = new byte[lengthMessage];
+            bytes += next.length;
 
-                System.arraycopy(wrappedKeyBytes, 0, temp,0, wrappedKeyBytes.length);
-                System.arraycopy(buffer,0,temp,wrappedKeyBytes.length, lengthMessage - wrappedKeyBytes.length);
+            next = null;
+        }
 
-                wrappedKeyBytes = temp;
-            }
+        return next;
+    }
 
-            secretKey = CryptographicAlgorithms.unwrapKey(wrappedKeyBytes, privateKey);
+    private void send(Session session, OutboundQueue.Item item)
+    {
+        try
+        {
+            sendFrame(session, item.type, item.length, item.payload, item.text, null);
 
-            if (secretKey == null)
-                throw new NullPointerException("В ходе развёртки секретного ключа произошла ошибка.");
+            if (item.type != FrameCodec.TYPE_CONTROL)
+                recordSent(session, 1, item.length);
+
+            item.result.complete(null);
         }
-        catch (IOException ex)
+        catch (SendMessageException ex)
         {
-            throw new ConnectionProtectionException("Возникла ошибка ввода-вывода.");
+            item.result.completeExceptionally(ex);
         }
-        catch (NullPointerException ex)
+    }
+
+    private void sendBatch(Session session, List<OutboundQueue.Item> batch)
+    {
+        int length = batchLength(batch);
+
+        try
         {
-            throw new ConnectionProtectionException(ex.getMessage());
+            sendFrame(session, FrameCodec.TYPE_BATCH, length, null, null, batch);
+
+            recordSent(session, batch.size(), length);
+
+            for (int i = 0; i < batch.size(); i++)
+                batch.get(i).result.complete(null);
+        }
+        catch (SendMessageException ex)
+        {
+            for (int i = 0; i < batch.size(); i++)
+                batch.get(i).result.completeExceptionally(ex);
         }
     }
 
     /**
-     * <h2>Отправка сообщения по защищенном каналу</h2>
+     * @return Длина нагрузки {@link FrameCodec#TYPE_BATCH} из сообщений {@code batch}.
+     */
+    private static int batchLength(List<OutboundQueue.Item> batch)
+    {
+        int length = FrameCodec.varintLength(batch.size());
+
+        for (int i = 0; i < batch.size(); i++)
+        {
+            int itemLength = batch.get(i).length;
+
+            length += FrameCodec.varintLength(itemLength) + itemLength;
+        }
+
+        return length;
+    }
+
+    private void recordSent(Session session, int messages, int payloadBytes)
+    {
+        outboundStatistics.record(messages, payloadBytes);
+
+        metrics.addRecord(session, messages);
+    }
+
+    /**
+     * <h2>Переход сессии к приёму управляющих кадров</h2>
      *
-     * <p>Преобразует сообщение в массив байтов, шифрует его и отправляет клиент-приложению.</p>
+     * <p>После вызова входящие данные сессии читает движок: в режиме {@link ServerMode#SELECTOR} - поток селектора по
+     * готовности канала, в режиме {@link ServerMode#VIRTUAL_THREADS} - отдельный виртуальный поток, заблокированный
+     * на чтении. Ни один поток не опрашивает сессию по таймеру.</p>
      *
-     * @param message сообщение для отправки.
-     * @throws SendMessageException если канал не защищен или, если при шифровании возникли ошибки.
+     * <p>Клиент передаёт кадры {@link FrameCodec#TYPE_CONTROL}, зашифрованные секретным ключом сессии, с префиксом
+     * длины. Сигнал {@link ControlSignal#DISCONNECT} закрывает сессию; о закрытии по любой причине слушатель узнаёт
+     * один раз через {@link SessionListener#onDisconnect(Session)}.</p>
+     *
+     * @param session защищенная сессия.
+     * @param listener слушатель событий сессии.
+     *
+     * @throws ConnectionProtectionException если сессия не защищена.
      */
-    public void sendMessage(String message) throws SendMessageException
+    public void startReceiving(Session session, SessionListener listener) throws ConnectionProtectionException
     {
-        try
+        if (session == null || !session.isProtected())
+            throw new ConnectionProtectionException("Соединение не защищено.");
+
+        Key secretKey = session.getSecretKey();
+
+        session.startReceiving(new SessionTransport.InboundHandler()
         {
-            if (secretKey == null)
-                throw new IOException("Соединение не защищено.");
+            @Override
+            public void onFrame(ByteBuffer record) throws IOException
+            {
+                metrics.addBytesIn(session, FrameReader.HEADER_LENGTH + record.remaining());
 
-            byte[] messageBytes = message.getBytes();
+                FrameCodec.Frame frame;
 
-//            System.out.println("Длина в байтах: " + messageBytes.length);
+                try
+                {
+                    frame = FrameCodec.decode(ByteBuffer.wrap(CryptographicAlgorithms.decrypt(record, secretKey)));
+                }
+                catch (GeneralSecurityException ex)
+                {
+                    throw new IOException("Не удалось расшифровать кадр клиента.");
+                }
 
-            byte[] lengthMessageBytes = intToBs(messageBytes.length);
+                if (frame == null)
+                    throw new IOException("Кадр клиента неполный.");
 
-            signature.update(messageBytes);
+                if (frame.getType() != FrameCodec.TYPE_CONTROL)
+                    return;
 
-            byte[] sign = signature.sign();
+                ByteBuffer payload = frame.getPayload();
 
-//            System.out.println("Length sing: " + sign.length);
+                if (!payload.hasRemaining())
+                    throw new IOException("Пустой управляющий кадр.");
 
-            byte[] finalMessageBytes = new byte[lengthMessageBytes.length + messageBytes.length + sign.length];
+                ControlSignal signal = ControlSignal.fromCode(payload.get() & 0xFF);
 
-            System.arraycopy(lengthMessageBytes, 0, finalMessageBytes, 0, lengthMessageBytes.length);
-            System.arraycopy(messageBytes, 0, finalMessageBytes, lengthMessageBytes.length, messageBytes.length);
-            System.arraycopy(sign, 0, finalMessageBytes, lengthMessageBytes.length + messageBytes.length, sign.length);
-//            System.out.println("Length finalMessageBytes: " + finalMessageBytes.length);
-            byte[] cipherBytes = CryptographicAlgorithms.encrypt(finalMessageBytes, secretKey);
+                if (signal == null)
+                    return;
 
-            if (cipherBytes == null)
-                throw new NullPointerException("В ходе шифрования сообщения произошла ошибка.");
+                switch (signal)
+                {
+                    case MESSAGE_DELIVERED -> listener.onMessageDelivered(session,
+                            payload.hasRemaining() ? FrameCodec.getVarint(payload) : -1);
+                    case KEEPALIVE -> listener.onKeepalive(session);
+                    case DISCONNECT -> session.close();
+                }
+            }
 
-            out.write(cipherBytes);
-        }
-        catch (IOException ex)
-        {
-            throw new SendMessageException("Возникла ошибка ввода-вывода.");
-        }
-        catch (java.security.SignatureException ex)
-        {
-            throw new SendMessageException("Класс формирования ЭЦП не инициализирован.");
-        }
-        catch (NullPointerException ex)
-        {
-            throw new SendMessageException(ex.getMessage());
-        }
+            @Override
+            public void onClosed()
+            {
+                if (Server.this.session == session)
+                    Server.this.session = null;
 
+                listener.onDisconnect(session);
+            }
+        });
     }
 
-
-    public int synchronizationIn() throws SynchronizationException
+    private static byte[] controlPayload(ControlSignal signal, long argument)
     {
-        int result = - 1;
+        ByteBuffer payload = ByteBuffer.allocate(1 + (argument >= 0 ? FrameCodec.varintLength(argument) : 0));
 
-        try
+        payload.put((byte) signal.getCode());
+
+        if (argument >= 0)
+            FrameCodec.putVarint(payload, argument);
+
+        return payload.array();
+    }
+
+    /**
+     * <h2>Разрыв соединения с сессией</h2>
+     *
+     * <p>Защищенной сессии перед закрытием отправляется сигнал {@link ControlSignal#DISCONNECT}, если его удаётся
+     * отправить.</p>
+     *
+     * @param session закрываемая сессия.
+     */
+    public void disconnect(Session session)
+    {
+        if (session.isProtected() && session.isOpen())
         {
-            if (in.available() > 0)
+            try
+            {
+                sendFrame(session, FrameCodec.TYPE_CONTROL, controlPayload(ControlSignal.DISCONNECT, -1));
+            }
+            catch (SendMessageException ignored)
             {
-                result = in.read();
             }
         }
-        catch (IOException ex)
-        {
-            throw new SynchronizationException("Возникла ошибка ввода-вывода.");
-        }
-
-        return result;
-    }
 
-    public void synchronizationOut(int signal) throws SynchronizationException
-    {
         try
         {
-            out.write(signal);
+            session.close();
         }
         catch (IOException ex)
         {
-            throw new SynchronizationException("Возникла ошибка ввода-вывода.");
+            EventLog.error(Server.class, "disconnect", session, ex);
         }
+
+        if (this.session == session)
+            this.session = null;
     }
 
     /**
      * <h2>Потерять соединение</h2>
+     *
+     * <p>Закрывает текущую сессию и останавливает движок вместе со всеми остальными сессиями и проверкой связи.</p>
      */
     public void disconnect()
     {
-        try
+        setKeepaliveInterval(0);
+
+        Session current = session;
+
+        if (current != null)
+            disconnect(current);
+
+        if (engine != null)
+            engine.close();
+    }
+
+    /**
+     * <h2>Кадр в пуле шифрования</h2>
+     *
+     * <p>Одно сообщение очереди или пакет сообщений {@link FrameCodec#TYPE_BATCH} с уже выданным номером. Задача пула
+     * собирает и шифрует кадр в буферах {@link PendingFrame#buffers}, писатель очереди ждёт её и пишет кадр.</p>
+     *
+     * <p>Ключи сессии читаются при создании кадра: закрытие сессии стирает их, пока кадр может быть в пуле. Задача,
+     * начатая после закрытия, не шифрует кадр, а завершается с {@link SendMessageException}, и писатель завершает с
+     * ней результаты сообщений кадра.</p>
+     */
+    private class PendingFrame implements Callable<ByteBuffer>
+    {
+        final Session session;
+        final List<OutboundQueue.Item> items;
+        final OutboundBuffers buffers;
+        final long sequence;
+
+        final Key secretKey;
+        final Key macKey;
+
+        final int type;
+        final int length;
+
+        Future<ByteBuffer> ciphertext;
+
+        PendingFrame(Session session, List<OutboundQueue.Item> items, OutboundBuffers buffers, long sequence)
+        {
+            this.session = session;
+            this.items = items;
+            this.buffers = buffers;
+            this.sequence = sequence;
+
+            secretKey = session.getSecretKey();
+            macKey = session.getMacKey();
+
+            if (items.size() == 1)
+            {
+                type = items.get(0).type;
+                length = items.get(0).length;
+            }
+            else
+            {
+                type = FrameCodec.TYPE_BATCH;
+                length = batchLength(items);
+            }
+        }
+
+        @Override
+        public ByteBuffer call() throws SendMessageException
         {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null) socket.close();
-            serverSocket.close();
+            if (items.size() == 1)
+                return sealFrame(session, secretKey, macKey, buffers, type, sequence, length, items.get(0).payload,
+                        items.get(0).text, null);
+
+            return sealFrame(session, secretKey, macKey, buffers, type, sequence, length, null, null, items);
         }
-        catch (IOException ex)
+
+        /**
+         * <h3>Ожидание шифртекста</h3>
+         *
+         * <p>Прерывание не отменяет ожидание: буферы кадра нельзя отдать следующему кадру, пока задача пула пишет в
+         * них.</p>
+         */
+        ByteBuffer get() throws SendMessageException
         {
-            try (FileWriter fw = new FileWriter("src/main/resources/logs/.log"))
+            boolean interrupted = false;
+
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        return ciphertext.get();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            catch (ExecutionException ex)
             {
-                fw.write(java.time.LocalDateTime.now().toString());
-                fw.write(CryptographicAlgorithms.class.getName() + "\n");
-                fw.write(new Exception().getStackTrace()[0].getMethodName() + "\n");
-                fw.write(ex.getClass().getName() + "\n");
-                fw.write(ex.getMessage() + "\n");
+                if (ex.getCause() instanceof SendMessageException cause)
+                    throw cause;
+
+                throw new SendMessageException(String.valueOf(ex.getCause().getMessage()));
             }
-            catch (IOException ex1)
+            finally
             {
-                System.out.println("Файла для логирования не существует");
-                System.out.println(ex1.getMessage());
+                if (interrupted)
+                    Thread.currentThread().interrupt();
             }
         }
     }
@@ -363,32 +2232,4 @@ public class Server
             super(message);
         }
     }
-
-    public class SynchronizationException extends Exception
-    {
-        public SynchronizationException(String message)
-        {
-            super(message);
-        }
-    }
-
-    /**
-    * <h2>Преобразование числа типа данных int в массив байтов.</h2>
-    */
-    private byte[] intToBs(int num)
-    {
-        byte[] bytes = new byte[4];
-
-        for (int i = 0; i < 4; i++)
-        {
-            byte b = (byte)(num & 0xFF);
-
-            num >>= 4;
-
-            bytes[i] = b;
-        }
-
-        return bytes;
-    }
 }
-
@@ -0,0 +1,415 @@
+package model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Метрики сервера</h2>
+ *
+ * <p>Общие для всех сессий счётчики ({@link LongAdder}) и гистограммы задержек ({@link LatencyHistogram}):</p>
+ * <ul>
+ *     <li>от принятия подключения до защиты соединения и длительность {@link Server#connectionProtection(Session)},
+ *     а внутри полного рукопожатия - подготовка части обмена сервера (генерация или получение ключей из пула),
+ *     её отправка и завершение обмена (развёртка секретного ключа или согласование ECDH);</li>
+ *     <li>попадания и промахи пула ключевых пар {@link KeyPairPool} и число пар, сгенерированных фоновыми потоками
+ *     пула;</li>
+ *     <li>формирование тега (ЭЦП, HMAC или пакетная подпись) и шифрование каждой записи;</li>
+ *     <li>байты, принятые и отправленные по сети, включая префиксы длины и кадры рукопожатия, число отправленных
+ *     сообщений и записей;</li>
+ *     <li>переполнения очередей сессий ({@link Server#setOutboundLimits(int, long, OverflowPolicy)}): вытесненные
+ *     сообщения, ожидания отправителей и отключённые клиенты.</li>
+ * </ul>
+ *
+ * <p>Снимок ({@link Server#getMetricsSnapshot()}) только суммирует счётчики, поэтому его можно собирать хоть на
+ * каждый запрос. Скорости вычисляются по двум снимкам ({@link Snapshot#getMessagesPerSecond(Snapshot)}).
+ * Показатели отдельной сессии - {@link SessionMetrics}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class ServerMetrics
+{
+    final LatencyHistogram acceptToConnected = new LatencyHistogram();
+
+    final LatencyHistogram protection = new LatencyHistogram();
+    final LatencyHistogram protectionKeyGeneration = new LatencyHistogram();
+    final LatencyHistogram protectionKeySend = new LatencyHistogram();
+    final LatencyHistogram protectionUnwrap = new LatencyHistogram();
+
+    final LatencyHistogram sendSign = new LatencyHistogram();
+    final LatencyHistogram sendEncrypt = new LatencyHistogram();
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder recordsOut = new LongAdder();
+    private final LongAdder protectedSessions = new LongAdder();
+    private final LongAdder protectionFailures = new LongAdder();
+    private final LongAdder outboundDropped = new LongAdder();
+    private final LongAdder outboundBlocked = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+
+    private volatile KeyPairPool keyPairPool;
+
+    ServerMetrics()
+    {
+    }
+
+    /**
+     * <h3>Регистрация пула ключевых пар</h3>
+     *
+     * <p>Счётчики пула ведёт сам пул; снимок берёт их у последнего зарегистрированного пула.</p>
+     */
+    void setKeyPairPool(KeyPairPool keyPairPool)
+    {
+        this.keyPairPool = keyPairPool;
+    }
+
+    void addBytesIn(Session session, long bytes)
+    {
+        bytesIn.add(bytes);
+
+        session.getMetrics().bytesIn.add(bytes);
+    }
+
+    void addBytesOut(Session session, long bytes)
+    {
+        bytesOut.add(bytes);
+
+        session.getMetrics().bytesOut.add(bytes);
+    }
+
+    void addRecord(Session session, int messages)
+    {
+        recordsOut.increment();
+        messagesOut.add(messages);
+
+        session.getMetrics().messagesOut.add(messages);
+    }
+
+    void protectedSession(Session session, long startNanos)
+    {
+        long now = System.nanoTime();
+
+        SessionMetrics sessionMetrics = session.getMetrics();
+
+        sessionMetrics.protectionNanos = now - startNanos;
+        sessionMetrics.connectedNanos = now;
+
+        protection.record(now - startNanos);
+        acceptToConnected.record(now - sessionMetrics.getAcceptedNanos());
+
+        protectedSessions.increment();
+    }
+
+    void protectionFailed()
+    {
+        protectionFailures.increment();
+    }
+
+    void outboundDropped(Session session)
+    {
+        outboundDropped.increment();
+
+        session.getMetrics().messagesDropped.increment();
+    }
+
+    void outboundBlocked()
+    {
+        outboundBlocked.increment();
+    }
+
+    void overflowDisconnected()
+    {
+        overflowDisconnects.increment();
+    }
+
+    public LatencyHistogram getAcceptToConnected()
+    {
+        return acceptToConnected;
+    }
+
+    public LatencyHistogram getProtection()
+    {
+        return protection;
+    }
+
+    /**
+     * @return подготовка части обмена сервера: ключевая пара из пула или генерация разового ключа X25519.
+     */
+    public LatencyHistogram getProtectionKeyGeneration()
+    {
+        return protectionKeyGeneration;
+    }
+
+    /**
+     * @return отправка части обмена сервера.
+     */
+    public LatencyHistogram getProtectionKeySend()
+    {
+        return protectionKeySend;
+    }
+
+    /**
+     * @return развёртка секретного ключа клиента или согласование ECDH.
+     */
+    public LatencyHistogram getProtectionUnwrap()
+    {
+        return protectionUnwrap;
+    }
+
+    public LatencyHistogram getSendSign()
+    {
+        return sendSign;
+    }
+
+    public LatencyHistogram getSendEncrypt()
+    {
+        return sendEncrypt;
+    }
+
+    Snapshot snapshot(int activeSessions)
+    {
+        KeyPairPool pool = keyPairPool;
+
+        return new Snapshot(System.nanoTime(), activeSessions, bytesIn.sum(), bytesOut.sum(), messagesOut.sum(),
+                recordsOut.sum(), protectedSessions.sum(), protectionFailures.sum(), outboundDropped.sum(),
+                outboundBlocked.sum(), overflowDisconnects.sum(), pool == null ? 0 : pool.getHits(),
+                pool == null ? 0 : pool.getMisses(), pool == null ? 0 : pool.getGenerated(),
+                acceptToConnected.snapshot(), protection.snapshot(), protectionKeyGeneration.snapshot(),
+                protectionKeySend.snapshot(), protectionUnwrap.snapshot(), sendSign.snapshot(), sendEncrypt.snapshot());
+    }
+
+    /**
+     * <h2>Снимок метрик сервера</h2>
+     */
+    public static final class Snapshot
+    {
+        private final long timeNanos;
+
+        private final int activeSessions;
+
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long messagesOut;
+        private final long recordsOut;
+        private final long protectedSessions;
+        private final long protectionFailures;
+        private final long outboundDropped;
+        private final long outboundBlocked;
+        private final long overflowDisconnects;
+        private final long keyPairHits;
+        private final long keyPairMisses;
+        private final long keyPairsGenerated;
+
+        private final LatencyHistogram.Snapshot acceptToConnected;
+        private final LatencyHistogram.Snapshot protection;
+        private final LatencyHistogram.Snapshot protectionKeyGeneration;
+        private final LatencyHistogram.Snapshot protectionKeySend;
+        private final LatencyHistogram.Snapshot protectionUnwrap;
+        private final LatencyHistogram.Snapshot sendSign;
+        private final LatencyHistogram.Snapshot sendEncrypt;
+
+        Snapshot(long timeNanos, int activeSessions, long bytesIn, long bytesOut, long messagesOut, long recordsOut,
+                 long protectedSessions, long protectionFailures, long outboundDropped, long outboundBlocked,
+                 long overflowDisconnects, long keyPairHits, long keyPairMisses, long keyPairsGenerated,
+                 LatencyHistogram.Snapshot acceptToConnected,
+                 LatencyHistogram.Snapshot protection, LatencyHistogram.Snapshot protectionKeyGeneration,
+                 LatencyHistogram.Snapshot protectionKeySend, LatencyHistogram.Snapshot protectionUnwrap,
+                 LatencyHistogram.Snapshot sendSign, LatencyHistogram.Snapshot sendEncrypt)
+        {
+            this.timeNanos = timeNanos;
+            this.activeSessions = activeSessions;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.messagesOut = messagesOut;
+            this.recordsOut = recordsOut;
+            this.protectedSessions = protectedSessions;
+            this.protectionFailures = protectionFailures;
+            this.outboundDropped = outboundDropped;
+            this.outboundBlocked = outboundBlocked;
+            this.overflowDisconnects = overflowDisconnects;
+            this.keyPairHits = keyPairHits;
+            this.keyPairMisses = keyPairMisses;
+            this.keyPairsGenerated = keyPairsGenerated;
+            this.acceptToConnected = acceptToConnected;
+            this.protection = protection;
+            this.protectionKeyGeneration = protectionKeyGeneration;
+            this.protectionKeySend = protectionKeySend;
+            this.protectionUnwrap = protectionUnwrap;
+            this.sendSign = sendSign;
+            this.sendEncrypt = sendEncrypt;
+        }
+
+        /**
+         * @return момент снимка, {@link System#nanoTime()}.
+         */
+        public long getTimeNanos()
+        {
+            return timeNanos;
+        }
+
+        public int getActiveSessions()
+        {
+            return activeSessions;
+        }
+
+        public long getBytesIn()
+        {
+            return bytesIn;
+        }
+
+        public long getBytesOut()
+        {
+            return bytesOut;
+        }
+
+        public long getMessagesOut()
+        {
+            return messagesOut;
+        }
+
+        public long getRecordsOut()
+        {
+            return recordsOut;
+        }
+
+        public long getProtectedSessions()
+        {
+            return protectedSessions;
+        }
+
+        public long getProtectionFailures()
+        {
+            return protectionFailures;
+        }
+
+        /**
+         * @return число сообщений, вытесненных из переполненных очередей ({@link OverflowPolicy#DROP_OLDEST}).
+         */
+        public long getOutboundDropped()
+        {
+            return outboundDropped;
+        }
+
+        /**
+         * @return сколько раз отправитель ждал места в переполненной очереди ({@link OverflowPolicy#BLOCK}).
+         */
+        public long getOutboundBlocked()
+        {
+            return outboundBlocked;
+        }
+
+        /**
+         * @return число сессий, отключённых из-за переполнения очереди ({@link OverflowPolicy#DISCONNECT}).
+         */
+        public long getOverflowDisconnects()
+        {
+            return overflowDisconnects;
+        }
+
+        /**
+         * @return число ключевых пар, выданных {@link KeyPairPool} из запаса.
+         */
+        public long getKeyPairHits()
+        {
+            return keyPairHits;
+        }
+
+        /**
+         * @return сколько раз запас {@link KeyPairPool} был пуст и пара генерировалась во время рукопожатия.
+         */
+        public long getKeyPairMisses()
+        {
+            return keyPairMisses;
+        }
+
+        /**
+         * @return число пар, сгенерированных фоновыми потоками {@link KeyPairPool}.
+         */
+        public long getKeyPairsGenerated()
+        {
+            return keyPairsGenerated;
+        }
+
+        public LatencyHistogram.Snapshot getAcceptToConnected()
+        {
+            return acceptToConnected;
+        }
+
+        public LatencyHistogram.Snapshot getProtection()
+        {
+            return protection;
+        }
+
+        public LatencyHistogram.Snapshot getProtectionKeyGeneration()
+        {
+            return protectionKeyGeneration;
+        }
+
+        public LatencyHistogram.Snapshot getProtectionKeySend()
+        {
+            return protectionKeySend;
+        }
+
+        public LatencyHistogram.Snapshot getProtectionUnwrap()
+        {
+            return protectionUnwrap;
+        }
+
+        public LatencyHistogram.Snapshot getSendSign()
+        {
+            return sendSign;
+        }
+
+        public LatencyHistogram.Snapshot getSendEncrypt()
+        {
+            return sendEncrypt;
+        }
+
+        /**
+         * @param previous более ранний снимок.
+         *
+         * @return число отправленных сообщений в секунду между снимками.
+         */
+        public double getMessagesPerSecond(Snapshot previous)
+        {
+            return perSecond(messagesOut - previous.messagesOut, previous);
+        }
+
+        public double getBytesOutPerSecond(Snapshot previous)
+        {
+            return perSecond(bytesOut - previous.bytesOut, previous);
+        }
+
+        public double getBytesInPerSecond(Snapshot previous)
+        {
+            return perSecond(bytesIn - previous.bytesIn, previous);
+        }
+
+        private double perSecond(long delta, Snapshot previous)
+        {
+            long elapsed = timeNanos - previous.timeNanos;
+
+            return elapsed <= 0 ? 0 : delta * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "activeSessions=" + activeSessions + ", protected=" + protectedSessions + ", protectionFailures="
+                    + protectionFailures + ", bytesIn=" + bytesIn + ", bytesOut=" + bytesOut + ", messagesOut="
+                    + messagesOut + ", recordsOut=" + recordsOut + ", outboundDropped=" + outboundDropped
+                    + ", outboundBlocked=" + outboundBlocked + ", overflowDisconnects=" + overflowDisconnects
+                    + "\n  acceptToConnected: " + acceptToConnected
+                    + "\n  protection: " + protection
+                    + "\n    keyGeneration: " + protectionKeyGeneration
+                    + "\n    keySend: " + protectionKeySend
+                    + "\n    unwrap: " + protectionUnwrap
+                    + "\n    keyPairPool: hits=" + keyPairHits + ", misses=" + keyPairMisses + ", generated="
+                    + keyPairsGenerated
+                    + "\n  sendSign: " + sendSign
+                    + "\n  sendEncrypt: " + sendEncrypt;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package model;
+
+/**
+ * <h2>Режим выполнения сервера</h2>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public enum ServerMode
+{
+    /**
+     * Все сессии обслуживаются одним потоком селектора ({@link SelectorEngine}).
+     */
+    SELECTOR,
+
+    /**
+     * Каждая сессия получает собственный виртуальный поток ({@link VirtualThreadEngine}).
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,400 @@
+package model;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h2>Сессия клиент-приложения</h2>
+ *
+ * <p>Хранит состояние одного подключенного клиента: канал, потоки ввода-вывода и секретный ключ, полученный в ходе
+ * защиты соединения. Сервер может одновременно обслуживать произвольное число сессий, каждая из которых адресуется
+ * своим идентификатором {@link Session#getId()}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class Session implements Closeable
+{
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * Наибольшая длина кадра рукопожатия (открытый ключ, обёрнутый секретный ключ).
+     */
+    private static final int MAX_HANDSHAKE_FRAME = 16 * 1024;
+
+    /**
+     * Назначение ключа потоковой передачи при выводе из секретного ключа сессии.
+     */
+    private static final String STREAM_KEY_LABEL = "ske stream encryption";
+
+    private final long id = SEQUENCE.incrementAndGet();
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    private final ReadableByteChannel inChannel;
+    private final FrameReader frameReader = new FrameReader(1024, MAX_HANDSHAKE_FRAME);
+
+    /**
+     * Ресурс, освобождаемый при закрытии сессии (буферы движка или сам сокет).
+     */
+    private final SessionTransport transport;
+
+    private final OutboundQueue outbound = new OutboundQueue();
+
+    private final SessionMetrics metrics = new SessionMetrics();
+
+    /**
+     * Время последней записи в сессию, {@link System#nanoTime()}.
+     */
+    private volatile long lastWriteNanos = System.nanoTime();
+
+    private volatile Key secretKey;
+
+    private volatile AuthenticationMode authenticationMode = AuthenticationMode.SIGNATURE;
+
+    /**
+     * Ключ HMAC сообщений в режиме {@link AuthenticationMode#HMAC}.
+     */
+    private volatile Key macKey;
+
+    /**
+     * Номер следующего исходящего кадра {@link FrameCodec}.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Номер следующей потоковой передачи. Вместе с номером сегмента образует nonce AES-GCM.
+     */
+    private final AtomicInteger streamId = new AtomicInteger();
+
+    /**
+     * Блокировка записи: многокадровые передачи не должны перемежаться с другими кадрами сессии.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Буферы отправки; создаются при первой записи и используются только под {@link Session#writeLock}.
+     */
+    private OutboundBuffers outboundBuffers;
+
+    /**
+     * Ключ потоковой передачи, выводится из секретного ключа при первой передаче.
+     */
+    private volatile Key streamKey;
+
+    /**
+     * Постоянный поток записи очереди или {@code null}, пока очередь разбирали только вызывающие потоки. Живёт до
+     * закрытия сессии, поэтому кэши шифров и ЭЦП {@link CryptographicAlgorithms} в нём не пропадают между пачками.
+     */
+    private Thread writer;
+
+    /**
+     * Число разборов очереди, переданных потоку записи.
+     */
+    private final Semaphore writerSignal = new Semaphore(0);
+
+    private boolean writerClosed;
+
+    Session(SocketChannel channel, InputStream in, OutputStream out, SessionTransport transport)
+    {
+        this.channel = channel;
+        this.in = new DataInputStream(in);
+        // запись и так идёт под блокировкой записи сессии; синхронизированный DataOutputStream закрепил бы
+        // виртуальный поток, пишущий в заполненный сокет, за потоком-носителем
+        this.out = out;
+        // блокирующий канал читается напрямую: обёртка Channels.newChannel синхронизирует чтение и закрепляет
+        // виртуальный поток за потоком-носителем на всё время ожидания
+        this.inChannel = channel.isBlocking() ? channel : Channels.newChannel(this.in);
+        this.transport = transport;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public SocketChannel getChannel()
+    {
+        return channel;
+    }
+
+    public SocketAddress getRemoteAddress()
+    {
+        try
+        {
+            return channel.getRemoteAddress();
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+    }
+
+    DataInputStream getIn()
+    {
+        return in;
+    }
+
+    OutputStream getOut()
+    {
+        return out;
+    }
+
+    /**
+     * <p>У сессии движка на виртуальных потоках это сам блокирующий канал сокета, а не обёртка
+     * {@link Channels#newChannel(InputStream)} над {@link Session#getIn()}: чтение обёртки синхронизировано и держит
+     * виртуальный поток на потоке-носителе, пока кадр рукопожатия не пришёл. Смешивать чтение из канала и из
+     * {@link Session#getIn()} можно - поток сокета не буферизует данные. У сессии движка на селекторе канал
+     * неблокирующий, и кадры читаются из входящего потока, который наполняет селектор.</p>
+     *
+     * @return входящий поток сессии в виде блокирующего канала для {@link FrameReader}.
+     */
+    ReadableByteChannel getInChannel()
+    {
+        return inChannel;
+    }
+
+    FrameReader getFrameReader()
+    {
+        return frameReader;
+    }
+
+    public SessionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    Key getSecretKey()
+    {
+        return secretKey;
+    }
+
+    void setSecretKey(Key secretKey)
+    {
+        this.secretKey = secretKey;
+    }
+
+    public AuthenticationMode getAuthenticationMode()
+    {
+        return authenticationMode;
+    }
+
+    void setAuthenticationMode(AuthenticationMode authenticationMode)
+    {
+        this.authenticationMode = authenticationMode;
+    }
+
+    Key getMacKey()
+    {
+        return macKey;
+    }
+
+    void setMacKey(Key macKey)
+    {
+        this.macKey = macKey;
+    }
+
+    ReentrantLock getWriteLock()
+    {
+        return writeLock;
+    }
+
+    int nextStreamId()
+    {
+        return streamId.getAndIncrement();
+    }
+
+    Key getStreamKey() throws InvalidKeyException
+    {
+        Key key = streamKey;
+
+        if (key == null)
+        {
+            key = CryptographicAlgorithms.deriveKey(secretKey, STREAM_KEY_LABEL, "AES");
+
+            streamKey = key;
+        }
+
+        return key;
+    }
+
+    OutboundQueue getOutbound()
+    {
+        return outbound;
+    }
+
+    /**
+     * @return буферы отправки сессии; вызывать только под блокировкой записи.
+     */
+    OutboundBuffers getOutboundBuffers()
+    {
+        if (outboundBuffers == null)
+            outboundBuffers = new OutboundBuffers();
+
+        return outboundBuffers;
+    }
+
+    /**
+     * <h3>Запись кадра из нескольких буферов</h3>
+     *
+     * <p>Передаёт буферы транспорту одной записью ({@link SessionTransport#write(ByteBuffer[], int, int)}); вызывать
+     * под блокировкой записи.</p>
+     */
+    void write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        transport.write(srcs, offset, length);
+    }
+
+    /**
+     * <h3>Передача разбора очереди потоку записи</h3>
+     *
+     * @return {@code False}, если поток записи ещё не запущен или сессия закрыта; разбор тогда не передан.
+     */
+    boolean wakeWriter()
+    {
+        synchronized (writerSignal)
+        {
+            if (writer == null || writerClosed)
+                return false;
+        }
+
+        writerSignal.release();
+
+        return true;
+    }
+
+    /**
+     * <h3>Запуск потока записи</h3>
+     *
+     * <p>Запускает поток, который выполняет {@code drain} на каждый {@link Session#wakeWriter()}, и передаёт ему первый
+     * разбор. Если поток уже запущен, только передаёт разбор.</p>
+     *
+     * @return {@code False}, если сессия закрыта; разбор тогда не передан.
+     */
+    boolean startWriter(Runnable drain)
+    {
+        synchronized (writerSignal)
+        {
+            if (writerClosed)
+                return false;
+
+            if (writer == null)
+            {
+                writer = Thread.ofVirtual().name(this + "-writer").start(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            while (true)
+                            {
+                                writerSignal.acquire();
+
+                                drain.run();
+                            }
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            // сессия закрыта
+                        }
+                    }
+                });
+            }
+        }
+
+        writerSignal.release();
+
+        return true;
+    }
+
+    long getLastWriteNanos()
+    {
+        return lastWriteNanos;
+    }
+
+    void touchWrite()
+    {
+        lastWriteNanos = System.nanoTime();
+    }
+
+    void startReceiving(SessionTransport.InboundHandler handler)
+    {
+        transport.startReceiving(handler);
+    }
+
+    long nextSequence()
+    {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * <h3>Проверка защищенности сессии</h3>
+     *
+     * @return {@code True}, если секретный ключ сессии уже получен, иначе {@code False}
+     */
+    public boolean isProtected()
+    {
+        return secretKey != null;
+    }
+
+    public boolean isOpen()
+    {
+        return channel.isOpen();
+    }
+
+    /**
+     * <h3>Закрытие сессии</h3>
+     *
+     * <p>Закрывает канал и освобождает связанные с ним ресурсы. Сообщения, ожидающие в очереди, завершаются с
+     * ошибкой. Повторный вызов ничего не делает.</p>
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            transport.close();
+        }
+        finally
+        {
+            outbound.fail(new IOException("Сессия закрыта."));
+
+            synchronized (writerSignal)
+            {
+                writerClosed = true;
+
+                if (writer != null)
+                    writer.interrupt();
+            }
+
+            // кадры, уже отданные пулу шифрования, получили ключи при постановке и не зависят от этих полей
+            secretKey = null;
+            macKey = null;
+            streamKey = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Session#" + id;
+    }
+}
@@ -0,0 +1,41 @@
+package model;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h2>Движок приёма подключений</h2>
+ *
+ * <p>Общий интерфейс режимов работы сервера: {@link SelectorEngine} обслуживает все сессии одним потоком селектора,
+ * {@link VirtualThreadEngine} выделяет каждой сессии виртуальный поток.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public interface SessionEngine extends Closeable
+{
+    int getLocalPort();
+
+    /**
+     * <h3>Ожидание очередного подключения</h3>
+     *
+     * @return принятую сессию или {@code null}, если за указанное время подключений не было.
+     *
+     * @throws InterruptedException если ожидающий поток был прерван.
+     */
+    Session accept(long timeout, TimeUnit unit) throws InterruptedException;
+
+    Session getSession(long id);
+
+    Collection<Session> getSessions();
+
+    /**
+     * <h3>Остановка движка</h3>
+     *
+     * <p>Прекращает приём подключений и закрывает все открытые сессии.</p>
+     */
+    @Override
+    void close();
+}
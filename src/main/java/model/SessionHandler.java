@@ -0,0 +1,17 @@
+package model;
+
+/**
+ * <h2>Обработчик защищенной сессии</h2>
+ *
+ * <p>Реализует цикл обмена сообщениями с одним клиентом. Вызывается после успешной защиты соединения в потоке,
+ * выделенном сессии. По возвращении из метода сессия закрывается.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+@FunctionalInterface
+public interface SessionHandler
+{
+    void handle(Session session) throws Exception;
+}
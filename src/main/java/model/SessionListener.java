@@ -0,0 +1,33 @@
+package model;
+
+/**
+ * <h2>Слушатель событий защищенной сессии</h2>
+ *
+ * <p>Методы вызываются виртуальным потоком, принимающим кадры сессии, в порядке прихода кадров. Пока метод работает,
+ * следующие кадры сессии ждут, но другие сессии и запись в сокет не останавливаются, поэтому слушатель может отвечать
+ * клиенту.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public interface SessionListener
+{
+    /**
+     * @param sequence номер кадра доставленного сообщения.
+     */
+    default void onMessageDelivered(Session session, long sequence)
+    {
+    }
+
+    default void onKeepalive(Session session)
+    {
+    }
+
+    /**
+     * Сессия закрыта клиентом, сервером или из-за ошибки. Вызывается один раз.
+     */
+    default void onDisconnect(Session session)
+    {
+    }
+}
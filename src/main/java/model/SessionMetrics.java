@@ -0,0 +1,84 @@
+package model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Метрики сессии</h2>
+ *
+ * <p>Показатели одного клиента: байты в обе стороны, отправленные сообщения и длительность защиты соединения. Общие
+ * для сервера показатели собирает {@link ServerMetrics}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class SessionMetrics
+{
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder messagesDropped = new LongAdder();
+
+    private final long acceptedNanos = System.nanoTime();
+
+    volatile long connectedNanos;
+    volatile long protectionNanos;
+
+    SessionMetrics()
+    {
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.sum();
+    }
+
+    public long getMessagesOut()
+    {
+        return messagesOut.sum();
+    }
+
+    /**
+     * @return число сообщений, вытесненных из переполненной очереди сессии.
+     */
+    public long getMessagesDropped()
+    {
+        return messagesDropped.sum();
+    }
+
+    /**
+     * @return момент принятия подключения, {@link System#nanoTime()}.
+     */
+    public long getAcceptedNanos()
+    {
+        return acceptedNanos;
+    }
+
+    /**
+     * @return момент защиты соединения, {@link System#nanoTime()}, или 0, если соединение не защищено.
+     */
+    public long getConnectedNanos()
+    {
+        return connectedNanos;
+    }
+
+    /**
+     * @return длительность {@link Server#connectionProtection(Session)} в наносекундах или 0.
+     */
+    public long getProtectionNanos()
+    {
+        return protectionNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "bytesIn=" + getBytesIn() + ", bytesOut=" + getBytesOut() + ", messagesOut=" + getMessagesOut()
+                + ", messagesDropped=" + getMessagesDropped() + ", protectionMicros=" + protectionNanos / 1000;
+    }
+}
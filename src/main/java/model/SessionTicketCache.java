@@ -0,0 +1,206 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h2>Кэш билетов возобновления сессий</h2>
+ *
+ * <p>После защиты соединения сервер выдаёт клиенту билет - случайный идентификатор записи этого кэша, в которой
+ * хранится секрет возобновления сессии. Переподключаясь, клиент предъявляет билет в {@link ClientHello}, и новый
+ * секретный ключ выводится из секрета и случайных чисел обеих сторон без операций RSA.</p>
+ *
+ * <p>Кэш ограничен ёмкостью {@code capacity}: при переполнении вытесняется запись, к которой дольше всего не
+ * обращались. Запись живёт не дольше {@code lifetimeMillis} и погашается при первом же предъявлении, поэтому
+ * перехваченный билет нельзя использовать повторно; взамен клиент получает новый билет.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class SessionTicketCache
+{
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static final int TICKET_LENGTH = 32;
+
+    private final int capacity;
+    private final long lifetimeNanos;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Записи в порядке обращения. Защищено монитором кэша.
+     */
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public SessionTicketCache()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param capacity наибольшее число хранимых билетов.
+     * @param lifetimeMillis время жизни билета в миллисекундах.
+     */
+    public SessionTicketCache(int capacity, long lifetimeMillis)
+    {
+        if (capacity <= 0 || lifetimeMillis <= 0)
+            throw new IllegalArgumentException("Параметры кэша билетов должны быть положительными.");
+
+        this.capacity = capacity;
+        this.lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+
+        entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest)
+            {
+                return size() > SessionTicketCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * <h3>Выдача билета</h3>
+     *
+     * @param secret секрет возобновления сессии.
+     * @param mode способ аутентификации сообщений сессии.
+     *
+     * @return билет длиной {@value SessionTicketCache#TICKET_LENGTH} байта.
+     */
+    public byte[] issue(Key secret, AuthenticationMode mode)
+    {
+        byte[] ticket = new byte[TICKET_LENGTH];
+
+        random.nextBytes(ticket);
+
+        Entry entry = new Entry(secret, mode, System.nanoTime() + lifetimeNanos);
+
+        synchronized (this)
+        {
+            entries.put(ByteBuffer.wrap(ticket), entry);
+        }
+
+        issued.increment();
+
+        return ticket;
+    }
+
+    /**
+     * <h3>Погашение билета</h3>
+     *
+     * <p>Билет, выданный сессии с ЭЦП, не возобновляет сессию с HMAC и наоборот - иначе клиент обошёл бы выбранную при
+     * выдаче защиту сообщений. Такой билет всё равно погашается и считается промахом.</p>
+     *
+     * @param mode способ аутентификации, который клиент выбрал в новом приветствии.
+     *
+     * @return запись билета или {@code null}, если билет неизвестен, вытеснен, истёк, уже погашен или выдан для другого
+     * способа аутентификации.
+     */
+    public Entry redeem(byte[] ticket, AuthenticationMode mode)
+    {
+        Entry entry;
+
+        synchronized (this)
+        {
+            entry = entries.remove(ByteBuffer.wrap(ticket));
+        }
+
+        if (entry == null || entry.mode != mode)
+        {
+            misses.increment();
+
+            return null;
+        }
+
+        if (System.nanoTime() - entry.expiresAt > 0)
+        {
+            expired.increment();
+
+            return null;
+        }
+
+        hits.increment();
+
+        return entry;
+    }
+
+    /**
+     * @return время жизни билета в секундах, которое сообщается клиенту.
+     */
+    public long getLifetimeSeconds()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(lifetimeNanos);
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public long getIssued()
+    {
+        return issued.sum();
+    }
+
+    /**
+     * @return число успешных возобновлений.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return число предъявленных неизвестных, вытесненных или уже погашенных билетов и билетов, выданных для другого
+     * способа аутентификации.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getExpired()
+    {
+        return expired.sum();
+    }
+
+    /**
+     * <h2>Запись билета</h2>
+     */
+    public static class Entry
+    {
+        private final Key secret;
+        private final AuthenticationMode mode;
+        private final long expiresAt;
+
+        Entry(Key secret, AuthenticationMode mode, long expiresAt)
+        {
+            this.secret = secret;
+            this.mode = mode;
+            this.expiresAt = expiresAt;
+        }
+
+        public Key getSecret()
+        {
+            return secret;
+        }
+
+        public AuthenticationMode getAuthenticationMode()
+        {
+            return mode;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <h2>Транспорт сессии</h2>
+ *
+ * <p>Связывает {@link Session} с движком, который её обслуживает: освобождает ресурсы при закрытии и доставляет
+ * входящие кадры после защиты соединения.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+interface SessionTransport extends Closeable
+{
+    /**
+     * <h3>Переход к приёму кадров</h3>
+     *
+     * <p>После вызова транспорт сам читает входящие данные, собирает кадры с префиксом длины ({@link FrameReader})
+     * и передаёт их обработчику. Блокирующие потоки сессии после этого для чтения не используются.</p>
+     */
+    void startReceiving(InboundHandler handler);
+
+    /**
+     * <h3>Запись кадра из нескольких буферов</h3>
+     *
+     * <p>Записывает оставшиеся байты {@code length} буферов {@code srcs} начиная с {@code offset} одной записью, как
+     * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[], int, int)}, но не возвращается, пока данные не
+     * записаны в сокет или не поставлены в очередь движка. Позиции буферов сдвигаются на конец; после возврата
+     * буферы можно использовать снова. Вызывающие записи одной сессии не должны перемежаться.</p>
+     *
+     * @throws IOException если соединение закрыто или при записи возникла ошибка.
+     */
+    void write(ByteBuffer[] srcs, int offset, int length) throws IOException;
+
+    /**
+     * <h2>Получатель входящих кадров</h2>
+     */
+    interface InboundHandler
+    {
+        /**
+         * @param frame нагрузка кадра; действительна только во время вызова.
+         *
+         * @throws IOException если кадр повреждён; сессия после этого закрывается.
+         */
+        void onFrame(ByteBuffer frame) throws IOException;
+
+        /**
+         * Вызывается один раз, когда соединение закрыто клиентом или из-за ошибки.
+         */
+        void onClosed();
+    }
+}
@@ -0,0 +1,217 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+
+/**
+ * <h2>Потоковое шифрование AES-GCM сегментами фиксированного размера</h2>
+ *
+ * <p>Данные шифруются сегментами по {@code segmentSize} байт, каждый - отдельной операцией AES-GCM, поэтому в памяти
+ * одновременно находятся только два сегмента открытого текста и один шифртекст, сколько бы ни было данных.</p>
+ *
+ * <p>Кадр сегмента: длина в 4 байтах (как у {@link FrameWriter}), затем байт признака последнего сегмента и
+ * шифртекст с тегом GCM. Nonce сегмента - номер потока (4 байта) и номер сегмента (8 байт); номер потока уникален в
+ * пределах ключа сессии. Номер потока, номер сегмента и признак последнего сегмента входят в дополнительные
+ * аутентифицируемые данные, поэтому сегменты нельзя переставить, подменить из другого потока или отбросить хвост.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class StreamEncryptor
+{
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    private static final int AAD_LENGTH = NONCE_LENGTH + 1;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final Key key;
+    private final int streamId;
+    private final int segmentSize;
+
+    private final ByteBuffer first;
+    private final ByteBuffer second;
+    private final ByteBuffer record;
+
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+    private final ByteBuffer aad = ByteBuffer.allocate(AAD_LENGTH);
+
+    private final MessageDigest digest;
+
+    /**
+     * Сегмент, прочитанный заранее, чтобы узнать, последний ли текущий.
+     */
+    private ByteBuffer pending;
+
+    private long index;
+    private long length;
+
+    private boolean eof;
+    private boolean finished;
+
+    /**
+     * @param key ключ AES потоковой передачи.
+     * @param streamId номер потока, уникальный для ключа {@code key}.
+     * @param segmentSize размер сегмента открытого текста.
+     */
+    public StreamEncryptor(Key key, int streamId, int segmentSize) throws GeneralSecurityException
+    {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Размер сегмента должен быть положительным.");
+
+        this.key = key;
+        this.streamId = streamId;
+        this.segmentSize = segmentSize;
+
+        first = ByteBuffer.allocate(segmentSize);
+        second = ByteBuffer.allocate(segmentSize);
+        record = ByteBuffer.allocate(FrameReader.HEADER_LENGTH + 1 + segmentSize + TAG_LENGTH);
+
+        digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+
+    /**
+     * @return нагрузку кадра {@link FrameCodec#TYPE_STREAM_BEGIN}.
+     */
+    public byte[] beginPayload()
+    {
+        ByteBuffer payload = ByteBuffer.allocate(FrameCodec.varintLength(streamId)
+                + FrameCodec.varintLength(segmentSize));
+
+        FrameCodec.putVarint(payload, streamId);
+        FrameCodec.putVarint(payload, segmentSize);
+
+        return payload.array();
+    }
+
+    /**
+     * <h3>Шифрование очередного сегмента</h3>
+     *
+     * @param data источник открытого текста.
+     *
+     * @return кадр сегмента, действительный до следующего вызова, или {@code null}, если последний сегмент уже выдан.
+     *
+     * @throws IOException если не удалось прочитать данные.
+     * @throws GeneralSecurityException если сегмент не удалось зашифровать.
+     */
+    public ByteBuffer nextRecord(ReadableByteChannel data) throws IOException, GeneralSecurityException
+    {
+        if (finished)
+            return null;
+
+        ByteBuffer plain = pending;
+
+        pending = null;
+
+        if (plain == null)
+            plain = fill(first, data);
+
+        boolean last = eof;
+
+        if (!last)
+        {
+            ByteBuffer next = fill(plain == first ? second : first, data);
+
+            if (next.hasRemaining())
+                pending = next;
+            else
+                last = true;
+        }
+
+        length += plain.remaining();
+
+        digest.update(plain.duplicate());
+
+        nonce(streamId, index, nonce);
+
+        aad.clear();
+        aad.put(nonce).put((byte) (last ? 1 : 0)).flip();
+
+        record.clear();
+        record.position(FrameReader.HEADER_LENGTH);
+        record.put((byte) (last ? 1 : 0));
+
+        CryptographicAlgorithms.encryptGcm(key, nonce, aad, plain, record);
+
+        record.putInt(0, record.position() - FrameReader.HEADER_LENGTH);
+        record.flip();
+
+        index++;
+        finished = last;
+
+        return record;
+    }
+
+    /**
+     * @return нагрузку кадра {@link FrameCodec#TYPE_STREAM_END}; вызывается после последнего сегмента.
+     */
+    public byte[] endPayload()
+    {
+        byte[] hash = digest.digest();
+
+        ByteBuffer payload = ByteBuffer.allocate(FrameCodec.varintLength(streamId) + FrameCodec.varintLength(length)
+                + hash.length);
+
+        FrameCodec.putVarint(payload, streamId);
+        FrameCodec.putVarint(payload, length);
+        payload.put(hash);
+
+        return payload.array();
+    }
+
+    private ByteBuffer fill(ByteBuffer buffer, ReadableByteChannel data) throws IOException
+    {
+        buffer.clear();
+
+        while (buffer.hasRemaining())
+        {
+            if (data.read(buffer) < 0)
+            {
+                eof = true;
+
+                break;
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private static void nonce(int streamId, long index, byte[] nonce)
+    {
+        ByteBuffer.wrap(nonce).putInt(streamId).putLong(index);
+    }
+
+    /**
+     * <h3>Расшифрование сегмента</h3>
+     *
+     * <p>Используется на стороне клиента.</p>
+     *
+     * @param segment кадр сегмента без префикса длины: признак последнего сегмента и шифртекст.
+     * @param output буфер для открытого текста.
+     *
+     * @return {@code True}, если сегмент последний.
+     *
+     * @throws GeneralSecurityException если сегмент подделан или не на своём месте.
+     */
+    public static boolean decryptSegment(Key key, int streamId, long index, ByteBuffer segment, ByteBuffer output)
+            throws GeneralSecurityException
+    {
+        byte last = segment.get();
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+
+        nonce(streamId, index, nonce);
+
+        ByteBuffer aad = ByteBuffer.allocate(AAD_LENGTH).put(nonce).put(last).flip();
+
+        CryptographicAlgorithms.decryptGcm(key, nonce, aad, segment, output);
+
+        return last != 0;
+    }
+}
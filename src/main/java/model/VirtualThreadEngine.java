@@ -0,0 +1,432 @@
+package model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h2>Движок "виртуальный поток на подключение"</h2>
+ *
+ * <p>Принимает подключения блокирующим {@link ServerSocketChannel} и отдаёт каждую сессию обработчику
+ * {@link SessionHandler} в собственном виртуальном потоке. Потоки ввода-вывода сессии - обычные потоки сокета, поэтому
+ * блокирующий код сервера работает без изменений, а простаивающая сессия не занимает поток платформы.</p>
+ *
+ * <p>Число одновременных сессий ограничено {@code maxSessions}: при достижении предела новые подключения не
+ * принимаются и ждут в очереди операционной системы, пока не закроется одна из сессий.</p>
+ *
+ * <p>Запись в сокет идёт через прямые буферы общего {@link BufferPool}, без временной копии JDK.</p>
+ *
+ * <p>Если обработчик не задан, сессии помещаются в очередь {@link VirtualThreadEngine#accept(long, TimeUnit)}, как в
+ * {@link SelectorEngine}.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public final class VirtualThreadEngine implements SessionEngine, Runnable
+{
+    private static final int BACKLOG = 1024;
+
+    private static final BufferPool POOL = BufferPool.shared();
+
+    private final ServerSocketChannel serverChannel;
+    private final SessionHandler handler;
+    private final Semaphore permits;
+
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final BlockingQueue<Session> accepted = new LinkedBlockingQueue<>();
+
+    private final Thread acceptor;
+
+    private volatile boolean running = true;
+
+    /**
+     * <h3>Создание движка</h3>
+     *
+     * @param port номер порта или 0, чтобы использовать номер порта, который назначается автоматически.
+     * @param maxSessions наибольшее число одновременно открытых сессий.
+     * @param handler обработчик сессий или {@code null}, чтобы передавать сессии через очередь принятых подключений.
+     *
+     * @throws IOException если не удалось занять порт.
+     */
+    public VirtualThreadEngine(int port, int maxSessions, SessionHandler handler) throws IOException
+    {
+        if (maxSessions <= 0)
+            throw new IllegalArgumentException("maxSessions должен быть положительным.");
+
+        this.handler = handler;
+        this.permits = new Semaphore(maxSessions);
+
+        serverChannel = ServerSocketChannel.open();
+
+        try
+        {
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+        }
+        catch (IOException|RuntimeException ex)
+        {
+            serverChannel.close();
+
+            throw ex;
+        }
+
+        acceptor = Thread.ofPlatform().name("virtual-thread-engine-" + getLocalPort()).daemon(true).start(this);
+    }
+
+    @Override
+    public int getLocalPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public Session accept(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return accepted.poll(timeout, unit);
+    }
+
+    @Override
+    public Session getSession(long id)
+    {
+        return sessions.get(id);
+    }
+
+    @Override
+    public Collection<Session> getSessions()
+    {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    @Override
+    public void run()
+    {
+        while (running)
+        {
+            try
+            {
+                permits.acquire();
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+
+            SocketChannel channel;
+
+            try
+            {
+                channel = serverChannel.accept();
+
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            catch (IOException ex)
+            {
+                permits.release();
+
+                if (!running || !serverChannel.isOpen())
+                    break;
+
+                EventLog.get().log(EventLog.Level.WARNING, VirtualThreadEngine.class, "accept", null,
+                        "Не удалось принять подключение на порту " + getLocalPort() + ".", ex);
+
+                continue;
+            }
+
+            Session session = open(channel);
+
+            if (session == null)
+                continue;
+
+            sessions.put(session.getId(), session);
+
+            if (!running)
+            {
+                // движок закрыт, пока подключение принималось, - close() мог уже пройти по сессиям
+                try
+                {
+                    session.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+
+                break;
+            }
+
+            if (handler == null)
+            {
+                accepted.offer(session);
+
+                continue;
+            }
+
+            Thread.ofVirtual().name("session-" + session.getId()).start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        handler.handle(session);
+                    }
+                    catch (Exception ex)
+                    {
+                        EventLog.error(VirtualThreadEngine.class, "handle", session, ex);
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            session.close();
+                        }
+                        catch (IOException ignored)
+                        {
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private Session open(SocketChannel channel)
+    {
+        try
+        {
+            SocketTransport transport = new SocketTransport(channel);
+
+            transport.session = new Session(channel, channel.socket().getInputStream(),
+                    transport.new ChannelOutputStream(), transport);
+
+            return transport.session;
+        }
+        catch (IOException ex)
+        {
+            permits.release();
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+
+            return null;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+
+        // поток приёма может ждать разрешения, пока все сессии заняты, а не в accept()
+        acceptor.interrupt();
+
+        for (Session session : sessions.values())
+        {
+            try
+            {
+                session.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * <h2>Сокет сессии</h2>
+     *
+     * <p>Освобождает место под новую сессию ровно один раз, сколько бы раз ни закрывали сессию.</p>
+     */
+    private class SocketTransport implements SessionTransport
+    {
+        private final SocketChannel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Буфер последней записи, оставленный для следующей, или {@code null}, пока им пишут.
+         */
+        private final AtomicReference<BufferPool.Lease> spare = new AtomicReference<>();
+
+        private Session session;
+
+        private volatile InboundHandler handler;
+
+        SocketTransport(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * Кадры читаются отдельным виртуальным потоком сессии прямо из канала: обёртка потока ввода синхронизирована
+         * монитором и закрепила бы виртуальный поток за потоком платформы на всё время ожидания данных.
+         */
+        @Override
+        public void startReceiving(InboundHandler handler)
+        {
+            this.handler = handler;
+
+            Thread.ofVirtual().name("session-" + session.getId() + "-reader").start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                            handler.onFrame(session.getFrameReader().readFully(channel));
+                    }
+                    catch (IOException ex)
+                    {
+                        try
+                        {
+                            close();
+                        }
+                        catch (IOException ignored)
+                        {
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!closed.compareAndSet(false, true))
+                return;
+
+            sessions.remove(session.getId());
+            accepted.remove(session);
+
+            permits.release();
+
+            channel.close();
+
+            BufferPool.Lease lease = spare.getAndSet(null);
+
+            if (lease != null)
+                lease.release();
+
+            InboundHandler current = handler;
+
+            if (current != null)
+                current.onClosed();
+        }
+
+        /**
+         * Буферы собираются в прямой буфер пула и пишутся в блокирующий канал. Запись забирает оставленный буфер
+         * сессии и после записи оставляет его снова, поэтому в установившемся режиме буфер не арендуется на каждую
+         * запись. Пока им пишут, закрытие сессии его не видит и не может вернуть в пул; если сессия закрылась во время
+         * записи, буфер возвращает сам писатель.
+         */
+        @Override
+        public void write(ByteBuffer[] srcs, int offset, int length) throws IOException
+        {
+            long remaining = BufferPool.remaining(srcs, offset, length);
+
+            int end = offset + length;
+
+            while (remaining > 0)
+            {
+                BufferPool.Lease lease = lease((int) Math.min(remaining, BufferPool.MAX_CAPACITY));
+
+                try
+                {
+                    ByteBuffer buffer = lease.buffer();
+
+                    offset = BufferPool.gather(srcs, offset, end - offset, buffer);
+
+                    buffer.flip();
+
+                    remaining -= buffer.remaining();
+
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                }
+                finally
+                {
+                    retire(lease);
+                }
+            }
+        }
+
+        private BufferPool.Lease lease(int capacity)
+        {
+            BufferPool.Lease lease = spare.getAndSet(null);
+
+            if (lease != null)
+            {
+                if (lease.buffer().capacity() >= capacity)
+                {
+                    lease.buffer().clear();
+
+                    return lease;
+                }
+
+                lease.release();
+            }
+
+            return POOL.lease(capacity, session);
+        }
+
+        private void retire(BufferPool.Lease lease)
+        {
+            if (closed.get() || !spare.compareAndSet(null, lease))
+            {
+                lease.release();
+
+                return;
+            }
+
+            // сессия могла закрыться между проверкой и тем, как буфер был оставлен
+            if (closed.get() && spare.compareAndSet(lease, null))
+                lease.release();
+        }
+
+        private class ChannelOutputStream extends OutputStream
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                SocketTransport.this.write(new ByteBuffer[] {ByteBuffer.wrap(b, off, len)}, 0, 1);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                SocketTransport.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+
+/**
+ * <h2>Обмен ключами {@link KeyExchangeSuite#X25519}</h2>
+ *
+ * <p>Сервер генерирует разовую пару X25519 для каждого рукопожатия. Стороны обмениваются открытыми ключами в
+ * кодировке X.509, и секретный ключ AES-256 выводится из общего секрета ECDH вместе с обоими открытыми ключами
+ * ({@link CryptographicAlgorithms#deriveKey(Key, String, String, ByteBuffer...)}).</p>
+ *
+ * <p>Генерация пары и согласование X25519 занимают десятки микросекунд против десятков миллисекунд генерации
+ * RSA-2048, поэтому пул ключей для этого способа не нужен.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class X25519KeyExchange implements KeyExchange
+{
+    static final String ALGORITHM = "X25519";
+
+    /**
+     * Назначение секретного ключа сессии при выводе из общего секрета.
+     */
+    static final String SESSION_KEY_LABEL = "ske x25519 session";
+
+    private final KeyPair keyPair;
+    private final byte[] serverShare;
+
+    X25519KeyExchange() throws GeneralSecurityException
+    {
+        keyPair = CryptographicAlgorithms.generateKeyPair(ALGORITHM);
+        serverShare = keyPair.getPublic().getEncoded();
+    }
+
+    @Override
+    public KeyExchangeSuite getSuite()
+    {
+        return KeyExchangeSuite.X25519;
+    }
+
+    @Override
+    public byte[] getServerShare()
+    {
+        return serverShare;
+    }
+
+    @Override
+    public Key complete(byte[] clientShare) throws GeneralSecurityException
+    {
+        Key shared = CryptographicAlgorithms.agree(ALGORITHM, keyPair.getPrivate(), clientShare);
+
+        return CryptographicAlgorithms.deriveKey(shared, SESSION_KEY_LABEL, "AES", ByteBuffer.wrap(serverShare),
+                ByteBuffer.wrap(clientShare));
+    }
+}
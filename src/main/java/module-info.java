@@ -1,6 +1,7 @@
 module ske.server {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.jfr;
 
 
     opens ske.server to javafx.fxml;
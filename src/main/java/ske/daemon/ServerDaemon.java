@@ -0,0 +1,525 @@
+package ske.daemon;
+
+import model.KeyExchangeSuite;
+import model.KeyPairPool;
+import model.KeyStoreService;
+import model.OverflowPolicy;
+import model.Server;
+import model.ServerMode;
+import model.Session;
+import model.SessionListener;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStoreException;
+import java.security.UnrecoverableKeyException;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <h2>Сервер без графического интерфейса</h2>
+ *
+ * <p>Запускает {@link Server} как службу: загружает настройки, инициализирует ЭЦП, занимает порт и принимает
+ * подключения, пока процесс не остановят. Класс не использует JavaFX, поэтому запускается с пути классов без модулей
+ * JavaFX:</p>
+ * <pre>
+ * java -cp server.jar ske.daemon.ServerDaemon --config /etc/ske/server.properties --port=5000
+ * </pre>
+ *
+ * <p>Настройки читаются по порядку из {@code server.properties} рядом с классом (значения по умолчанию), из файла
+ * {@code --config} и из аргументов {@code --имя=значение} или {@code --имя значение}; более поздний источник
+ * переопределяет ранний. Пароль хранилища ключей можно не указывать в аргументах: он берётся из
+ * {@code key.passwordFile} или переменной окружения {@code SKE_KEY_PASSWORD}.</p>
+ *
+ * <p>Каждая принятая сессия защищается в своём виртуальном потоке и переводится к приёму управляющих кадров. Строки
+ * стандартного ввода (если {@code stdin=true}) рассылаются всем защищенным сессиям.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class ServerDaemon
+{
+    private static final String DEFAULTS = "server.properties";
+
+    private static final String PASSWORD_VARIABLE = "SKE_KEY_PASSWORD";
+
+    private static final int EXIT_CONFIGURATION = 2;
+
+    private final Properties config;
+
+    private final Server server = new Server();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile boolean running = true;
+
+    public ServerDaemon(Properties config)
+    {
+        this.config = config;
+    }
+
+    public static void main(String[] args)
+    {
+        ServerDaemon daemon;
+
+        try
+        {
+            daemon = new ServerDaemon(loadConfig(args));
+
+            daemon.start();
+        }
+        catch (ConfigurationException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.err.println("Использование: ServerDaemon [--config файл] [--имя=значение ...]");
+
+            System.exit(EXIT_CONFIGURATION);
+
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                daemon.stop();
+            }
+        }, "server-daemon-shutdown"));
+
+        daemon.awaitStop();
+    }
+
+    /**
+     * <h3>Загрузка настроек</h3>
+     *
+     * @param args аргументы командной строки.
+     *
+     * @throws ConfigurationException если аргументы некорректны или файл настроек не читается.
+     */
+    public static Properties loadConfig(String[] args) throws ConfigurationException
+    {
+        Properties config = new Properties();
+
+        try (InputStream defaults = ServerDaemon.class.getResourceAsStream(DEFAULTS))
+        {
+            if (defaults != null)
+                config.load(defaults);
+        }
+        catch (IOException ex)
+        {
+            throw new ConfigurationException("Не удалось прочитать настройки по умолчанию: " + ex.getMessage());
+        }
+
+        Properties overrides = new Properties();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+
+            if (!arg.startsWith("--") || arg.length() == 2)
+                throw new ConfigurationException("Некорректный аргумент: " + arg);
+
+            String name = arg.substring(2);
+            String value;
+
+            int eq = name.indexOf('=');
+
+            if (eq >= 0)
+            {
+                value = name.substring(eq + 1);
+                name = name.substring(0, eq);
+            }
+            else if (i + 1 < args.length)
+            {
+                value = args[++i];
+            }
+            else
+            {
+                throw new ConfigurationException("Не задано значение аргумента " + arg);
+            }
+
+            if (name.equals("config"))
+                load(config, Path.of(value));
+            else
+                overrides.setProperty(name, value);
+        }
+
+        config.putAll(overrides);
+
+        return config;
+    }
+
+    private static void load(Properties config, Path file) throws ConfigurationException
+    {
+        try (InputStream in = new FileInputStream(file.toFile()))
+        {
+            config.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        catch (IOException ex)
+        {
+            throw new ConfigurationException("Не удалось прочитать файл настроек " + file + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * <h3>Запуск сервера</h3>
+     *
+     * @throws ConfigurationException если настройки некорректны, ключ ЭЦП не загружен или порт не занят.
+     */
+    public void start() throws ConfigurationException
+    {
+        server.setKeyPairPool(new KeyPairPool());
+
+        server.setMode(getEnum("mode", ServerMode.SELECTOR));
+        server.setMaxSessions(getInt("maxSessions", Server.DEFAULT_MAX_SESSIONS));
+        server.setCoalescing(getInt("coalesce.maxBytes", Server.DEFAULT_COALESCE_MAX_BYTES),
+                getInt("coalesce.windowMicros", 0));
+        server.setKeyExchangeSuites(getSuites());
+        server.setOutboundLimits(getInt("outbound.maxMessages", Server.DEFAULT_OUTBOUND_MAX_MESSAGES),
+                getLong("outbound.maxBytes", Server.DEFAULT_OUTBOUND_MAX_BYTES),
+                getEnum("outbound.policy", OverflowPolicy.BLOCK));
+
+        initSignature();
+
+        try
+        {
+            server.highlightSocket(getInt("port", 0));
+        }
+        catch (Server.HighlightSocketException ex)
+        {
+            throw new ConfigurationException(ex.getMessage());
+        }
+
+        server.setKeepaliveInterval(getInt("keepaliveMillis", 0));
+
+        System.out.println("Сервер ожидает подключения на порт " + server.getLocalPort() + " (" + server.getMode()
+                + ").");
+
+        Thread.ofPlatform().name("server-daemon-accept").daemon(true).start(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                acceptLoop();
+            }
+        });
+
+        if (Boolean.parseBoolean(get("stdin", "true")))
+        {
+            Thread.ofPlatform().name("server-daemon-stdin").daemon(true).start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    broadcastStdin();
+                }
+            });
+        }
+    }
+
+    private void initSignature() throws ConfigurationException
+    {
+        String alias = get("key.alias", "");
+
+        if (alias.isBlank())
+            throw new ConfigurationException("Не задан псевдоним ключа ЭЦП key.alias.");
+
+        String path = get("keystore.path", "");
+
+        if (!path.isBlank())
+        {
+            KeyStoreService keyStore = new KeyStoreService(Path.of(path));
+
+            if (Boolean.parseBoolean(get("keystore.watch", "true")))
+            {
+                try
+                {
+                    keyStore.startWatching();
+                }
+                catch (IOException ex)
+                {
+                    throw new ConfigurationException("Не удалось наблюдать за хранилищем ключей " + path + ": "
+                            + ex.getMessage());
+                }
+            }
+
+            server.setKeyStoreService(keyStore);
+        }
+
+        try
+        {
+            server.initSignature(alias, readPassword());
+        }
+        catch (UnrecoverableKeyException ex)
+        {
+            throw new ConfigurationException("Неверный пароль хранилища ключей.");
+        }
+        catch (KeyStoreService.EntryNotFoundException ex)
+        {
+            throw new ConfigurationException("Запись с псевдонимом " + alias + " не существует.");
+        }
+        catch (KeyStoreException ex)
+        {
+            throw new ConfigurationException(ex.getMessage());
+        }
+    }
+
+    private String readPassword() throws ConfigurationException
+    {
+        String file = config.getProperty("key.passwordFile");
+
+        if (file != null && !file.isBlank())
+        {
+            try
+            {
+                return Files.readString(Path.of(file), StandardCharsets.UTF_8).strip();
+            }
+            catch (IOException ex)
+            {
+                throw new ConfigurationException("Не удалось прочитать файл пароля " + file + ": " + ex.getMessage());
+            }
+        }
+
+        String password = config.getProperty("key.password");
+
+        if (password == null)
+            password = System.getenv(PASSWORD_VARIABLE);
+
+        if (password == null)
+            throw new ConfigurationException("Не задан пароль хранилища ключей (key.password, key.passwordFile или "
+                    + PASSWORD_VARIABLE + ").");
+
+        return password;
+    }
+
+    /**
+     * <h3>Приём подключений</h3>
+     *
+     * <p>Защита соединения выполняется в отдельном виртуальном потоке, чтобы медленный клиент не задерживал
+     * остальных.</p>
+     */
+    private void acceptLoop()
+    {
+        while (running)
+        {
+            Session session;
+
+            try
+            {
+                session = server.connection();
+            }
+            catch (Server.ConnectionException ex)
+            {
+                // время ожидания истекло - ждём следующего клиента
+                continue;
+            }
+            catch (RuntimeException ex)
+            {
+                if (running)
+                    System.out.println(ex.getMessage());
+
+                continue;
+            }
+
+            Thread.ofVirtual().name(session + "-protection").start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protect(session);
+                }
+            });
+        }
+    }
+
+    private void protect(Session session)
+    {
+        try
+        {
+            server.connectionProtection(session);
+
+            server.startReceiving(session, new SessionListener()
+            {
+                @Override
+                public void onDisconnect(Session session)
+                {
+                    System.out.println(session + " отключена.");
+                }
+            });
+
+            System.out.println(session + " защищена: " + session.getRemoteAddress() + ", "
+                    + session.getAuthenticationMode() + ".");
+        }
+        catch (Server.ConnectionProtectionException ex)
+        {
+            System.out.println(session + ": " + ex.getMessage());
+
+            server.disconnect(session);
+        }
+    }
+
+    private void broadcastStdin()
+    {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)))
+        {
+            String line;
+
+            while (running && (line = in.readLine()) != null)
+            {
+                if (line.isEmpty())
+                    continue;
+
+                for (Session session : server.getSessions())
+                {
+                    if (session.isProtected())
+                        server.submitMessage(session, line);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Чтение стандартного ввода прервано: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * <h3>Остановка сервера</h3>
+     *
+     * <p>Сессиям отправляется сигнал разрыва соединения, движок останавливается.</p>
+     */
+    public void stop()
+    {
+        if (!running)
+            return;
+
+        running = false;
+
+        for (Session session : server.getSessions())
+            server.disconnect(session);
+
+        server.disconnect();
+
+        KeyPairPool pool = server.getKeyPairPool();
+
+        if (pool != null)
+            pool.close();
+
+        KeyStoreService keyStore = server.getKeyStoreService();
+
+        if (keyStore != null)
+            keyStore.close();
+
+        stopped.countDown();
+    }
+
+    public void awaitStop()
+    {
+        try
+        {
+            stopped.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Server getServer()
+    {
+        return server;
+    }
+
+    private String get(String name, String defaultValue)
+    {
+        return config.getProperty(name, defaultValue);
+    }
+
+    private int getInt(String name, int defaultValue) throws ConfigurationException
+    {
+        String value = config.getProperty(name);
+
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new ConfigurationException("Параметр " + name + " должен быть целым числом: " + value);
+        }
+    }
+
+    private long getLong(String name, long defaultValue) throws ConfigurationException
+    {
+        String value = config.getProperty(name);
+
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new ConfigurationException("Параметр " + name + " должен быть целым числом: " + value);
+        }
+    }
+
+    private <E extends Enum<E>> E getEnum(String name, E defaultValue) throws ConfigurationException
+    {
+        String value = config.getProperty(name);
+
+        if (value == null || value.isBlank())
+            return defaultValue;
+
+        try
+        {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new ConfigurationException("Неизвестное значение параметра " + name + ": " + value + ". Допустимы: "
+                    + EnumSet.allOf(defaultValue.getDeclaringClass()) + ".");
+        }
+    }
+
+    private Set<KeyExchangeSuite> getSuites() throws ConfigurationException
+    {
+        Set<KeyExchangeSuite> suites = EnumSet.noneOf(KeyExchangeSuite.class);
+
+        for (String name : get("keyExchange", "RSA_WRAP,X25519").split(","))
+        {
+            try
+            {
+                suites.add(KeyExchangeSuite.valueOf(name.trim().toUpperCase()));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                throw new ConfigurationException("Неизвестный способ обмена ключами: " + name);
+            }
+        }
+
+        return suites;
+    }
+
+    public static class ConfigurationException extends Exception
+    {
+        public ConfigurationException(String message)
+        {
+            super(message);
+        }
+    }
+}
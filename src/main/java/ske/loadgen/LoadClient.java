@@ -0,0 +1,349 @@
+package ske.loadgen;
+
+import model.AuthenticationMode;
+import model.ClientHello;
+import model.ControlSignal;
+import model.CryptographicAlgorithms;
+import model.FrameCodec;
+import model.KeyExchangeSuite;
+import model.LatencyHistogram;
+import model.MerkleBatchSigner;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.List;
+
+/**
+ * <h2>Клиент нагрузочного теста</h2>
+ *
+ * <p>Говорит на протоколе сервера со стороны клиент-приложения: отправляет {@link ClientHello}, получает часть обмена
+ * сервера (открытый ключ RSA или ключ X25519), отправляет обёрнутый ключ AES или свой ключ X25519 и в режиме
+ * {@link AuthenticationMode#HMAC} проверяет ЭЦП рукопожатия. Затем расшифровывает записи, проверяет их теги и
+ * подтверждает доставку сигналом {@link ControlSignal#MESSAGE_DELIVERED}.</p>
+ *
+ * <p>Сообщения нагрузочного теста начинаются с момента отправки ({@link System#nanoTime()}) и пробела; по нему
+ * считается задержка доставки.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+final class LoadClient implements Closeable
+{
+    private static final String SIGNATURE_ALGORITHM = "MD5withRSA";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String MAC_KEY_LABEL = "ske message authentication";
+    private static final String X25519_KEY_LABEL = "ske x25519 session";
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final AuthenticationMode mode;
+    private final KeyExchangeSuite suite;
+    private final PublicKey serverKey;
+
+    private Key secretKey;
+    private Key macKey;
+
+    private Signature verifier;
+
+    private long sequence;
+
+    private long received;
+    private long verificationFailures;
+
+    LoadClient(int port, AuthenticationMode mode, KeyExchangeSuite suite, PublicKey serverKey) throws IOException
+    {
+        this("localhost", port, mode, suite, serverKey);
+    }
+
+    LoadClient(String host, int port, AuthenticationMode mode, KeyExchangeSuite suite, PublicKey serverKey)
+            throws IOException
+    {
+        this.mode = mode;
+        this.suite = suite;
+        this.serverKey = serverKey;
+
+        socket = new Socket(host, port);
+
+        socket.setTcpNoDelay(true);
+
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        out = new DataOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * <h3>Рукопожатие</h3>
+     *
+     * @throws GeneralSecurityException если обмен ключами не удался или ЭЦП рукопожатия неверна.
+     */
+    void handshake() throws IOException, GeneralSecurityException
+    {
+        List<KeyExchangeSuite> suites = suite == KeyExchangeSuite.RSA_WRAP ? null : List.of(suite);
+
+        ClientHello hello = new ClientHello(mode, null, null, suites);
+
+        ByteBuffer encodedHello = ByteBuffer.allocate(hello.length());
+
+        hello.encode(encodedHello);
+
+        byte[] helloBytes = encodedHello.array();
+
+        send(helloBytes);
+
+        byte[] serverFrame = frame();
+
+        byte[] share = serverFrame;
+
+        if (suites != null)
+        {
+            if (serverFrame.length == 0 || serverFrame[0] != suite.getCode())
+                throw new GeneralSecurityException("Сервер выбрал другой способ обмена ключами.");
+
+            share = new byte[serverFrame.length - 1];
+
+            System.arraycopy(serverFrame, 1, share, 0, share.length);
+        }
+
+        byte[] clientShare;
+
+        if (suite == KeyExchangeSuite.X25519)
+        {
+            KeyPair keyPair = CryptographicAlgorithms.generateKeyPair("X25519");
+
+            clientShare = keyPair.getPublic().getEncoded();
+
+            Key shared = CryptographicAlgorithms.agree("X25519", keyPair.getPrivate(), share);
+
+            secretKey = CryptographicAlgorithms.deriveKey(shared, X25519_KEY_LABEL, "AES", ByteBuffer.wrap(share),
+                    ByteBuffer.wrap(clientShare));
+        }
+        else
+        {
+            PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(share));
+
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+
+            generator.init(128);
+
+            secretKey = generator.generateKey();
+
+            Cipher cipher = Cipher.getInstance("RSA");
+
+            cipher.init(Cipher.WRAP_MODE, publicKey);
+
+            clientShare = cipher.wrap(secretKey);
+        }
+
+        send(clientShare);
+
+        verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+
+        if (mode == AuthenticationMode.HMAC)
+        {
+            verifier.initVerify(serverKey);
+            verifier.update(helloBytes);
+            verifier.update(serverFrame);
+            verifier.update(clientShare);
+
+            if (!verifier.verify(frame()))
+                throw new GeneralSecurityException("ЭЦП рукопожатия неверна.");
+
+            macKey = CryptographicAlgorithms.deriveKey(secretKey, MAC_KEY_LABEL, MAC_ALGORITHM);
+        }
+    }
+
+    /**
+     * <h3>Приём сообщений</h3>
+     *
+     * <p>Читает записи, пока не получит {@code expected} сообщений или сервер не разорвёт соединение.</p>
+     *
+     * @param latency гистограмма задержек доставки.
+     * @param acknowledge подтверждать ли каждую запись.
+     */
+    void receive(long expected, LatencyHistogram latency, boolean acknowledge) throws IOException,
+            GeneralSecurityException
+    {
+        while (received < expected)
+        {
+            byte[] record = frame();
+
+            FrameCodec.Frame frame = FrameCodec.decode(ByteBuffer.wrap(CryptographicAlgorithms.decrypt(
+                    ByteBuffer.wrap(record), secretKey)));
+
+            if (frame == null)
+                throw new IOException("Запись сервера неполная.");
+
+            if (!verify(frame))
+                verificationFailures++;
+
+            ByteBuffer payload = frame.getPayload();
+
+            switch (frame.getType())
+            {
+                case FrameCodec.TYPE_MESSAGE -> deliver(payload, latency);
+                case FrameCodec.TYPE_BATCH ->
+                {
+                    long count = FrameCodec.getVarint(payload);
+
+                    for (long i = 0; i < count; i++)
+                    {
+                        int length = (int) FrameCodec.getVarint(payload);
+
+                        deliver(payload.slice(payload.position(), length), latency);
+
+                        payload.position(payload.position() + length);
+                    }
+                }
+                case FrameCodec.TYPE_CONTROL ->
+                {
+                    if (payload.hasRemaining() && (payload.get() & 0xFF) == ControlSignal.DISCONNECT.getCode())
+                        return;
+                }
+                default ->
+                {
+                }
+            }
+
+            if (acknowledge && frame.getType() != FrameCodec.TYPE_CONTROL)
+                sendControl(ControlSignal.MESSAGE_DELIVERED, frame.getSequence());
+        }
+    }
+
+    private void deliver(ByteBuffer message, LatencyHistogram latency)
+    {
+        long now = System.nanoTime();
+
+        received++;
+
+        String text = StandardCharsets.UTF_8.decode(message).toString();
+
+        int space = text.indexOf(' ');
+
+        if (space <= 0)
+            return;
+
+        try
+        {
+            latency.record(now - Long.parseLong(text.substring(0, space)));
+        }
+        catch (NumberFormatException ex)
+        {
+            // сообщение не от нагрузочного теста
+        }
+    }
+
+    private boolean verify(FrameCodec.Frame frame) throws GeneralSecurityException
+    {
+        ByteBuffer tag = frame.getTag();
+
+        if (tag == null)
+            return false;
+
+        switch (mode)
+        {
+            case HMAC ->
+            {
+                byte[] expected = CryptographicAlgorithms.mac(MAC_ALGORITHM, macKey, frame.getAuthenticated());
+
+                byte[] actual = new byte[tag.remaining()];
+
+                tag.get(actual);
+
+                return MessageDigest.isEqual(expected, actual);
+            }
+            case BATCH_SIGNATURE ->
+            {
+                return MerkleBatchSigner.verify(frame.getAuthenticated(), tag, SIGNATURE_ALGORITHM, serverKey);
+            }
+            default ->
+            {
+                verifier.initVerify(serverKey);
+                verifier.update(frame.getAuthenticated());
+
+                byte[] signature = new byte[tag.remaining()];
+
+                tag.get(signature);
+
+                return verifier.verify(signature);
+            }
+        }
+    }
+
+    /**
+     * <h3>Отправка управляющего кадра</h3>
+     *
+     * <p>Кадр {@link FrameCodec#TYPE_CONTROL} без тега, зашифрованный секретным ключом, с префиксом длины.</p>
+     */
+    void sendControl(ControlSignal signal, long argument) throws IOException
+    {
+        ByteBuffer payload = ByteBuffer.allocate(1 + (argument >= 0 ? FrameCodec.varintLength(argument) : 0));
+
+        payload.put((byte) signal.getCode());
+
+        if (argument >= 0)
+            FrameCodec.putVarint(payload, argument);
+
+        long frameSequence = sequence++;
+
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.frameLength(0, frameSequence, payload.capacity(), 0));
+
+        FrameCodec.encode(frame, FrameCodec.TYPE_CONTROL, 0, frameSequence, payload.flip(), null);
+
+        byte[] cipherBytes = CryptographicAlgorithms.encrypt(frame.array(), secretKey);
+
+        if (cipherBytes == null)
+            throw new IOException("Не удалось зашифровать управляющий кадр.");
+
+        send(cipherBytes);
+    }
+
+    long getReceived()
+    {
+        return received;
+    }
+
+    long getVerificationFailures()
+    {
+        return verificationFailures;
+    }
+
+    private byte[] frame() throws IOException
+    {
+        byte[] frame = new byte[in.readInt()];
+
+        in.readFully(frame);
+
+        return frame;
+    }
+
+    private void send(byte[] data) throws IOException
+    {
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+}
@@ -0,0 +1,583 @@
+package ske.loadgen;
+
+import model.AuthenticationMode;
+import model.CryptoWorkerPool;
+import model.CryptographicAlgorithms;
+import model.KeyExchangeSuite;
+import model.KeyPairPool;
+import model.LatencyHistogram;
+import model.Server;
+import model.ServerMetrics;
+import model.ServerMode;
+import model.Session;
+import model.SessionListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h2>Генератор нагрузки</h2>
+ *
+ * <p>Проверяет пропускную способность сервера от начала до конца на одной машине без сети и клиент-приложения:
+ * поднимает {@link Server} на петлевом интерфейсе, открывает {@code sessions} одновременных подключений
+ * ({@link LoadClient}), проводит рукопожатия и рассылает каждой сессии {@code messages} сообщений длиной
+ * {@code size}. Клиенты расшифровывают записи, проверяют теги и подтверждают доставку.</p>
+ * <pre>
+ * java -cp server.jar ske.loadgen.LoadGenerator --sessions=200 --messages=1000 --size=256 --mode=HMAC
+ * </pre>
+ *
+ * <p>Аргументы {@code --имя=значение}:</p>
+ * <ul>
+ *     <li>{@code sessions}, {@code messages}, {@code size} - число сессий, сообщений на сессию и длина сообщения;</li>
+ *     <li>{@code mode} - {@link AuthenticationMode} клиентов, {@code keyExchange} - {@link KeyExchangeSuite};</li>
+ *     <li>{@code engine} - {@link ServerMode} сервера;</li>
+ *     <li>{@code async} - отправлять через {@link Server#submitMessage(Session, String)} вместо
+ *     {@link Server#sendMessage(Session, String)};</li>
+ *     <li>{@code keyPairUses} - сколько рукопожатий обслуживает одна ключевая пара RSA из {@link KeyPairPool};</li>
+ *     <li>{@code cryptoWorkers} - число потоков {@link CryptoWorkerPool} или 0, чтобы шифровать в потоке записи;</li>
+ *     <li>{@code ack} - подтверждать ли доставку каждой записи.</li>
+ * </ul>
+ *
+ * <p>Итог: рукопожатия и сообщения в секунду, перцентили задержек рукопожатия (со стороны клиента) и доставки (от
+ * вызова отправки до расшифровки клиентом), число неверных тегов и снимок {@link ServerMetrics}. Ключ ЭЦП сервера
+ * генерируется в памяти, хранилище ключей не нужно.</p>
+ *
+ * <p>С аргументом {@code target=хост:порт} встроенный сервер не поднимается: клиенты подключаются к уже запущенному
+ * серверу, например {@code ske.daemon.ServerDaemon} на другой машине. Открытый ключ ЭЦП этого сервера берётся из
+ * сертификата {@code certificate} (файл X.509, например {@code keytool -exportcert}). Рассылкой такой сервер
+ * управляет сам, поэтому по умолчанию измеряются только рукопожатия; при {@code messages} больше нуля клиенты ждут
+ * столько сообщений, сколько сервер разошлёт им после рукопожатия. Задержка доставки и метрики сервера в этом режиме не
+ * выводятся - время отправки известно только серверу.</p>
+ * <pre>
+ * java -cp server.jar ske.loadgen.LoadGenerator --target=10.0.0.5:5000 --certificate=server.cer --sessions=500
+ * </pre>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+public class LoadGenerator
+{
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_FAILURE = 1;
+
+    private static final long TIMEOUT_SECONDS = 600;
+
+    private final int sessions;
+    private final int messages;
+    private final int size;
+
+    private final AuthenticationMode mode;
+    private final KeyExchangeSuite suite;
+    private final ServerMode engine;
+
+    private final String targetHost;
+    private final int targetPort;
+
+    private final boolean async;
+    private final boolean acknowledge;
+    private final int keyPairUses;
+    private final int cryptoWorkers;
+
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong verificationFailures = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private Server server;
+    private PublicKey serverKey;
+
+    public LoadGenerator(Map<String, String> options)
+    {
+        String target = options.get("target");
+
+        if (target != null)
+        {
+            int colon = target.lastIndexOf(':');
+
+            if (colon <= 0)
+                throw new IllegalArgumentException("target должен иметь вид хост:порт: " + target);
+
+            targetHost = target.substring(0, colon).replace("[", "").replace("]", "");
+            targetPort = Integer.parseInt(target.substring(colon + 1));
+
+            String certificate = options.get("certificate");
+
+            if (certificate == null)
+                throw new IllegalArgumentException("Для target нужен сертификат ключа ЭЦП сервера: "
+                        + "--certificate=файл.");
+
+            serverKey = readPublicKey(Path.of(certificate));
+        }
+        else
+        {
+            targetHost = null;
+            targetPort = 0;
+        }
+
+        sessions = Integer.parseInt(options.getOrDefault("sessions", "50"));
+        messages = Integer.parseInt(options.getOrDefault("messages", target != null ? "0" : "200"));
+        size = Integer.parseInt(options.getOrDefault("size", "128"));
+
+        mode = AuthenticationMode.valueOf(options.getOrDefault("mode", "HMAC").toUpperCase());
+        suite = KeyExchangeSuite.valueOf(options.getOrDefault("keyExchange", "RSA_WRAP").toUpperCase());
+        engine = ServerMode.valueOf(options.getOrDefault("engine", "SELECTOR").toUpperCase());
+
+        async = Boolean.parseBoolean(options.getOrDefault("async", "false"));
+        acknowledge = Boolean.parseBoolean(options.getOrDefault("ack", "true"));
+        keyPairUses = Integer.parseInt(options.getOrDefault("keyPairUses", "1"));
+        cryptoWorkers = Integer.parseInt(options.getOrDefault("cryptoWorkers", "0"));
+
+        if (sessions <= 0 || messages < 0 || size < 32 || keyPairUses <= 0 || cryptoWorkers < 0)
+            throw new IllegalArgumentException("sessions и keyPairUses должны быть положительными, cryptoWorkers - "
+                    + "неотрицательным, size - не меньше 32.");
+    }
+
+    public static void main(String[] args)
+    {
+        LoadGenerator generator;
+
+        try
+        {
+            generator = new LoadGenerator(parse(args));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.err.println("Использование: LoadGenerator [--sessions=N] [--messages=N] [--size=N] "
+                    + "[--mode=HMAC|SIGNATURE|BATCH_SIGNATURE] [--keyExchange=RSA_WRAP|X25519] "
+                    + "[--engine=SELECTOR|VIRTUAL_THREADS] [--async=false] [--keyPairUses=1] [--cryptoWorkers=0] "
+                    + "[--ack=true] [--target=хост:порт --certificate=файл]");
+
+            System.exit(EXIT_USAGE);
+
+            return;
+        }
+
+        try
+        {
+            generator.run();
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Нагрузочный тест прерван: " + ex.getMessage());
+
+            System.exit(EXIT_FAILURE);
+        }
+
+        System.exit(generator.failures.get() == 0 && generator.verificationFailures.get() == 0 ? 0 : EXIT_FAILURE);
+    }
+
+    private static Map<String, String> parse(String[] args)
+    {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || eq < 3)
+                throw new IllegalArgumentException("Некорректный аргумент: " + arg);
+
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+
+        return options;
+    }
+
+    private static PublicKey readPublicKey(Path file)
+    {
+        try (InputStream in = Files.newInputStream(file))
+        {
+            return CertificateFactory.getInstance("X.509").generateCertificate(in).getPublicKey();
+        }
+        catch (IOException|CertificateException ex)
+        {
+            throw new IllegalArgumentException("Не удалось прочитать сертификат " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private boolean isExternal()
+    {
+        return targetHost != null;
+    }
+
+    /**
+     * <h3>Нагрузочный тест</h3>
+     *
+     * <p>Сначала все клиенты проходят рукопожатие, затем все сессии получают сообщения одновременно - так скорость
+     * рукопожатий и скорость рассылки измеряются раздельно.</p>
+     */
+    public void run() throws Exception
+    {
+        if (isExternal())
+        {
+            System.out.println("Сервер: " + targetHost + ":" + targetPort + " (внешний); клиентов " + sessions + ", "
+                    + mode + ", " + suite + ".");
+        }
+        else
+        {
+            startServer();
+
+            System.out.println("Сервер: порт " + server.getLocalPort() + ", " + engine + "; клиентов " + sessions
+                    + ", " + mode + ", " + suite + ".");
+        }
+
+        List<Session> serverSessions = new ArrayList<>();
+        List<LoadClient> clients = new ArrayList<>();
+
+        CountDownLatch protectedSessions = new CountDownLatch(isExternal() ? 0 : sessions);
+
+        if (!isExternal())
+        {
+            Thread.ofPlatform().name("loadgen-accept").daemon(true).start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    accept(serverSessions, protectedSessions);
+                }
+            });
+        }
+
+        long handshakeStart = System.nanoTime();
+
+        List<Thread> handshakes = new ArrayList<>();
+
+        for (int i = 0; i < sessions; i++)
+        {
+            handshakes.add(Thread.ofVirtual().name("loadgen-client-" + i).start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    LoadClient client = handshake();
+
+                    if (client != null)
+                    {
+                        synchronized (clients)
+                        {
+                            clients.add(client);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread handshake : handshakes)
+            handshake.join();
+
+        if (!protectedSessions.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            throw new IllegalStateException("Сервер не защитил все соединения.");
+
+        long handshakeNanos = System.nanoTime() - handshakeStart;
+
+        ServerMetrics.Snapshot before = isExternal() ? null : server.getMetricsSnapshot();
+
+        long sendStart = System.nanoTime();
+
+        List<Thread> workers = new ArrayList<>();
+
+        for (LoadClient client : clients)
+        {
+            workers.add(Thread.ofVirtual().start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    receive(client);
+                }
+            }));
+        }
+
+        for (Session session : serverSessions)
+        {
+            workers.add(Thread.ofVirtual().start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    send(session);
+                }
+            }));
+        }
+
+        for (Thread worker : workers)
+            worker.join();
+
+        long sendNanos = System.nanoTime() - sendStart;
+
+        if (isExternal())
+        {
+            for (LoadClient client : clients)
+                client.close();
+
+            report(clients.size(), handshakeNanos, sendNanos, null, null);
+
+            return;
+        }
+
+        ServerMetrics.Snapshot after = server.getMetricsSnapshot();
+
+        if (acknowledge)
+            awaitAcknowledgements(after.getRecordsOut() - before.getRecordsOut());
+
+        for (Session session : serverSessions)
+            server.disconnect(session);
+
+        for (LoadClient client : clients)
+            client.close();
+
+        server.disconnect();
+
+        if (server.getCryptoWorkerPool() != null)
+            server.getCryptoWorkerPool().close();
+
+        report(clients.size(), handshakeNanos, sendNanos, before, after);
+    }
+
+    /**
+     * <h3>Ожидание подтверждений</h3>
+     *
+     * <p>Подтверждения доставки сервер читает асинхронно, поэтому последние из них могут прийти после того, как
+     * клиенты приняли все сообщения.</p>
+     */
+    private void awaitAcknowledgements(long records) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (acknowledged.get() < records && System.nanoTime() < deadline)
+            Thread.sleep(10);
+    }
+
+    private void startServer() throws Server.HighlightSocketException
+    {
+        KeyPair signatureKeys = CryptographicAlgorithms.generateKeyPair();
+
+        serverKey = signatureKeys.getPublic();
+
+        server = new Server();
+
+        server.setMode(engine);
+        server.setMaxSessions(Math.max(Server.DEFAULT_MAX_SESSIONS, sessions));
+        server.setKeyExchangeSuites(EnumSet.allOf(KeyExchangeSuite.class));
+        server.setKeyPairPool(new KeyPairPool(16, 4, 1, keyPairUses));
+
+        if (cryptoWorkers > 0)
+            server.setCryptoWorkerPool(new CryptoWorkerPool(cryptoWorkers));
+
+        server.initSignature(signatureKeys.getPrivate());
+        server.highlightSocket(0);
+    }
+
+    private void accept(List<Session> serverSessions, CountDownLatch protectedSessions)
+    {
+        int accepted = 0;
+
+        while (accepted < sessions)
+        {
+            Session session;
+
+            try
+            {
+                session = server.connection();
+            }
+            catch (Server.ConnectionException ex)
+            {
+                continue;
+            }
+
+            accepted++;
+
+            Thread.ofVirtual().start(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protect(session, serverSessions, protectedSessions);
+                }
+            });
+        }
+    }
+
+    private void protect(Session session, List<Session> serverSessions, CountDownLatch protectedSessions)
+    {
+        try
+        {
+            server.connectionProtection(session);
+
+            server.startReceiving(session, new SessionListener()
+            {
+                @Override
+                public void onMessageDelivered(Session session, long sequence)
+                {
+                    acknowledged.incrementAndGet();
+                }
+            });
+
+            synchronized (serverSessions)
+            {
+                serverSessions.add(session);
+            }
+        }
+        catch (Server.ConnectionProtectionException ex)
+        {
+            failures.incrementAndGet();
+
+            System.err.println(session + ": " + ex.getMessage());
+
+            server.disconnect(session);
+        }
+        finally
+        {
+            protectedSessions.countDown();
+        }
+    }
+
+    private LoadClient handshake()
+    {
+        LoadClient client = null;
+
+        try
+        {
+            client = isExternal()
+                    ? new LoadClient(targetHost, targetPort, mode, suite, serverKey)
+                    : new LoadClient(server.getLocalPort(), mode, suite, serverKey);
+
+            long start = System.nanoTime();
+
+            client.handshake();
+
+            handshakeLatency.recordSince(start);
+
+            return client;
+        }
+        catch (Exception ex)
+        {
+            failures.incrementAndGet();
+
+            System.err.println("Рукопожатие не удалось: " + ex.getMessage());
+
+            if (client != null)
+            {
+                try
+                {
+                    client.close();
+                }
+                catch (Exception ignored)
+                {
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private void receive(LoadClient client)
+    {
+        try
+        {
+            client.receive(messages, deliveryLatency, acknowledge);
+        }
+        catch (Exception ex)
+        {
+            failures.incrementAndGet();
+
+            System.err.println("Приём прерван: " + ex.getMessage());
+        }
+        finally
+        {
+            received.addAndGet(client.getReceived());
+            verificationFailures.addAndGet(client.getVerificationFailures());
+        }
+    }
+
+    private void send(Session session)
+    {
+        String padding = " " + "x".repeat(size - 21);
+
+        CompletableFuture<Void> last = null;
+
+        try
+        {
+            for (int i = 0; i < messages; i++)
+            {
+                String message = String.format("%020d", System.nanoTime()) + padding;
+
+                if (async)
+                    last = server.submitMessage(session, message);
+                else
+                    server.sendMessage(session, message);
+            }
+
+            if (last != null)
+                last.join();
+        }
+        catch (Exception ex)
+        {
+            failures.incrementAndGet();
+
+            System.err.println(session + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param before снимок метрик до рассылки или {@code null}, если сервер внешний.
+     */
+    private void report(int connected, long handshakeNanos, long sendNanos, ServerMetrics.Snapshot before,
+                        ServerMetrics.Snapshot after)
+    {
+        LatencyHistogram.Snapshot handshakes = handshakeLatency.snapshot();
+        LatencyHistogram.Snapshot deliveries = deliveryLatency.snapshot();
+
+        System.out.println();
+        System.out.printf("Рукопожатия: %d из %d за %.2f с, %.1f в секунду%n", connected, sessions,
+                handshakeNanos / 1e9, connected * 1e9 / handshakeNanos);
+        System.out.println("  задержка: " + percentiles(handshakes));
+
+        if (before == null)
+        {
+            if (messages > 0)
+                System.out.printf("Сообщения: %d из %d за %.2f с, %.0f в секунду%n", received.get(),
+                        (long) connected * messages, sendNanos / 1e9, received.get() * 1e9 / sendNanos);
+
+            System.out.println("Неверных тегов: " + verificationFailures.get() + ", ошибок: " + failures.get());
+
+            return;
+        }
+
+        System.out.printf("Сообщения: %d из %d за %.2f с, %.0f в секунду, %.2f МБ/с%n", received.get(),
+                (long) connected * messages, sendNanos / 1e9, received.get() * 1e9 / sendNanos,
+                after.getBytesOutPerSecond(before) / (1024 * 1024));
+        System.out.println("  задержка доставки: " + percentiles(deliveries));
+        System.out.println("  подтверждено записей: " + acknowledged.get());
+        System.out.println("Неверных тегов: " + verificationFailures.get() + ", ошибок: " + failures.get());
+        System.out.println();
+        System.out.println("Метрики сервера: " + after);
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot snapshot)
+    {
+        return String.format("p50=%.0f мкс, p90=%.0f мкс, p99=%.0f мкс, max=%.0f мкс",
+                snapshot.getPercentileMicros(0.5), snapshot.getPercentileMicros(0.9),
+                snapshot.getPercentileMicros(0.99), snapshot.getMaxMicros());
+    }
+}
@@ -5,6 +5,7 @@ import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import model.Server;
 
+import java.security.KeyStoreException;
 import java.security.UnrecoverableKeyException;
 
 public class AuthorizationController
@@ -38,7 +39,7 @@ public class AuthorizationController
 
             return;
         }
-        catch (NullPointerException ex)
+        catch (KeyStoreException ex)
         {
             noAliasLabel.setVisible(true);
 
@@ -5,6 +5,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
+import model.KeyPairPool;
 import model.Server;
 
 import java.io.IOException;
@@ -20,6 +21,9 @@ public class ServerApplication extends Application
     {
         mainStage = stage;
 
+        // пары ключей готовятся, пока пользователь вводит пароль хранилища
+        server.setKeyPairPool(new KeyPairPool());
+
         FXMLLoader fxmlLoader = new FXMLLoader(ServerApplication.class.getResource("authorization-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load());
 
@@ -7,8 +7,11 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.stage.WindowEvent;
 import model.Server;
+import model.Session;
+import model.SessionListener;
 
 import java.io.IOException;
+import java.util.function.BiConsumer;
 
 /**
  * <h2>Контроллер для (за) FXML-файлом</h2>
@@ -22,17 +25,6 @@ import java.io.IOException;
  */
 public class ServerController
 {
-    /**
-     * ОЖИДАНИЕ
-     */
-    private static final int WAITING = 1;
-
-    private static final int SEND_MESSAGE = 2;
-    private static final int MESSAGE_DELIVERED = 3;
-    private static final int DISCONNECT = -1;
-
-    private int SIGNAL = WAITING;
-
     private static final int ERROR_PORT_NUMBER = -1;
 
     private boolean connected = false;
@@ -173,7 +165,35 @@ public class ServerController
     @FXML
     protected void onClickSendMessageButton()
     {
-        SIGNAL = 2;
+        String message = messageTextArea.getText();
+
+        if (message.length() == 0)
+            return;
+
+        messageTextArea.setText("");
+
+        errorSendMessageLabel.setVisible(false);
+
+        server.submitMessage(message).whenComplete(new BiConsumer<Void, Throwable>()
+        {
+            @Override
+            public void accept(Void result, Throwable ex)
+            {
+                if (ex == null)
+                    return;
+
+                Platform.runLater(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        errorSendMessageLabel.setText(ex.getMessage());
+
+                        errorSendMessageLabel.setVisible(true);
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -297,11 +317,7 @@ public class ServerController
 
                 connected  = true;
 
-                Thread synchronization = new Thread(new Synchronization());
-
-                synchronization.setDaemon(true);
-
-                synchronization.start();
+                server.startReceiving(server.getSession(), new SynchronizationListener());
             }
             catch (Server.ConnectionException ex)
             {
@@ -410,125 +426,29 @@ public class ServerController
     }
 
     /**
-     * <h2>Класс для синхронизации работы серверного и клиентского приложений</h2>
+     * <h2>Слушатель событий сессии клиент-приложения</h2>
+     *
+     * <p>Вызывается потоком приёма данных сервера, поэтому изменения интерфейса передаются в поток JavaFX.</p>
      */
-    class Synchronization implements Runnable
+    class SynchronizationListener implements SessionListener
     {
         @Override
-        public void run()
+        public void onDisconnect(Session session)
         {
-
-            try
+            Platform.runLater(new Runnable()
             {
-                Thread.sleep(250);
-
-                switch (SIGNAL)
-                {
-                    case WAITING ->
-                    {
-                        server.synchronizationOut(WAITING);
-                    }
-                    case SEND_MESSAGE ->
-                    {
-                        server.synchronizationOut(SEND_MESSAGE);
-
-                        String message = messageTextArea.getText();
-
-                        if (message.length() == 0)
-                            return;
-
-                        server.sendMessage(message);
-
-                        messageTextArea.setText("");
-
-                        SIGNAL = WAITING;
-                    }
-                    case DISCONNECT ->
-                    {
-                        disconnect();
-                        return;
-                    }
-                }
-
-                exit:
-                while (true)
+                @Override
+                public void run()
                 {
-                    Thread.sleep(500);
-
-                    int signal = DISCONNECT;
-
-                    if (connected)
-                        signal = server.synchronizationIn();
-
-                    switch (signal)
-                    {
-                        case WAITING ->
-                        {
-//                            System.out.println("Ждём");
-                        }
-                        case MESSAGE_DELIVERED ->
-                        {
-//                            signal = client.synchronization();
-//                            System.out.println("Ооо кошелёк!!!");
-                        }
-                        case DISCONNECT ->
-                        {
-                            disconnect();
-
-                            break exit;
-                        }
-                    }
-
-                    switch (SIGNAL)
-                    {
-                        case WAITING ->
-                        {
-                            server.synchronizationOut(WAITING);
-                        }
-                        case SEND_MESSAGE ->
-                        {
-                            server.synchronizationOut(SEND_MESSAGE);
-
-                            String message = messageTextArea.getText();
-
-                            if (message.length() == 0)
-                                return;
-
-                            server.sendMessage(message);
-
-                            messageTextArea.setText("");
-
-                            SIGNAL = WAITING;
-                        }
-                        case DISCONNECT ->
-                        {
-                            disconnect();
-
-                            break exit;
-                        }
-                    }
+                    disconnect();
                 }
-            }
-            catch (Server.SynchronizationException ex)
-            {
-                System.out.println(ex.getMessage());
-                disconnect();
-            }
-            catch (Server.SendMessageException ex)
-            {
-                errorSendMessageLabel.setText(ex.getMessage());
-
-                errorSendMessageLabel.setVisible(true);
-            }
-            catch (InterruptedException ex)
-            {
-
-            }
+            });
         }
 
         private void disconnect()
         {
-            server.disconnect();
+            if (connected)
+                server.disconnect();
 
             connected = false;
 
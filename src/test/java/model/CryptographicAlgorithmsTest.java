@@ -0,0 +1,108 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * <h2>Проверка HMAC в готовый массив</h2>
+ *
+ * <p>Для {@code HmacSHA256} {@link CryptographicAlgorithms#mac(String, Key, ByteBuffer, byte[], int)} считает код
+ * по RFC 2104 поверх {@link java.security.MessageDigest}. Результат сверяется с {@link Mac} для пустых данных,
+ * ключей короче, равных и длиннее блока хеша и для повторного использования экземпляра потока после смены ключа.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class CryptographicAlgorithmsTest
+{
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final byte[] DATA = "сообщение для проверки".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void emptyDataMatchesMac() throws Exception
+    {
+        Key key = key(32, 1);
+
+        assertArrayEquals(expected(key, new byte[0]), actual(key, new byte[0]));
+    }
+
+    @Test
+    void keysOfEveryLengthMatchMac() throws Exception
+    {
+        // ключ длиннее блока в 64 байта сначала хешируется
+        for (int length : new int[] {1, 32, 63, 64, 65, 100, 200})
+        {
+            Key key = key(length, length);
+
+            assertArrayEquals(expected(key, DATA), actual(key, DATA), "длина ключа " + length);
+        }
+    }
+
+    @Test
+    void keyChangeReinitializesPads() throws Exception
+    {
+        Key first = key(100, 1);
+        Key second = key(16, 2);
+
+        assertArrayEquals(expected(first, DATA), actual(first, DATA));
+        assertArrayEquals(expected(second, DATA), actual(second, DATA));
+
+        // возврат к длинному ключу и повтор с тем же ключом без переинициализации
+        assertArrayEquals(expected(first, DATA), actual(first, DATA));
+        assertArrayEquals(expected(first, new byte[0]), actual(first, new byte[0]));
+    }
+
+    @Test
+    void writesAtOffset() throws Exception
+    {
+        Key key = key(32, 3);
+
+        byte[] output = new byte[40];
+
+        int length = CryptographicAlgorithms.mac(ALGORITHM, key, ByteBuffer.wrap(DATA), output, 8);
+
+        assertEquals(32, length);
+        assertArrayEquals(expected(key, DATA), Arrays.copyOfRange(output, 8, 40));
+        assertArrayEquals(new byte[8], Arrays.copyOf(output, 8));
+    }
+
+    private static Key key(int length, int seed)
+    {
+        byte[] encoded = new byte[length];
+
+        for (int i = 0; i < length; i++)
+            encoded[i] = (byte) (seed * 31 + i);
+
+        return new SecretKeySpec(encoded, ALGORITHM);
+    }
+
+    private static byte[] expected(Key key, byte[] data) throws GeneralSecurityException
+    {
+        Mac mac = Mac.getInstance(ALGORITHM);
+
+        mac.init(key);
+
+        return mac.doFinal(data);
+    }
+
+    private static byte[] actual(Key key, byte[] data) throws GeneralSecurityException
+    {
+        byte[] output = new byte[32];
+
+        CryptographicAlgorithms.mac(ALGORITHM, key, ByteBuffer.wrap(data), output, 0);
+
+        return output;
+    }
+}
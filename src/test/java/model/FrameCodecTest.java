@@ -0,0 +1,214 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * <h2>Проверка формата кадров</h2>
+ *
+ * <p>Числа varint на границах длины, кодирование и разбор кадров всех типов, отказ от неполных, слишком длинных и
+ * повреждённых кадров.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class FrameCodecTest
+{
+    private static final int[] TYPES = {
+            FrameCodec.TYPE_MESSAGE,
+            FrameCodec.TYPE_STREAM_BEGIN,
+            FrameCodec.TYPE_STREAM_END,
+            FrameCodec.TYPE_CONTROL,
+            FrameCodec.TYPE_BATCH,
+            FrameCodec.TYPE_TICKET
+    };
+
+    @Test
+    void varintRoundTripAtLengthEdges() throws IOException
+    {
+        long[] values = {0, 0x7FL, 0x80L, 0x3FFFL, 0x4000L, 0x7FFFFFFFFL, 0x800000000L, Long.MAX_VALUE, -1L};
+        int[] lengths = {1, 1, 2, 2, 3, 5, 6, 9, 10};
+
+        for (int i = 0; i < values.length; i++)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+
+            FrameCodec.putVarint(buffer, values[i]);
+
+            assertEquals(lengths[i], FrameCodec.varintLength(values[i]), "длина " + values[i]);
+            assertEquals(lengths[i], buffer.position(), "записано для " + values[i]);
+
+            buffer.flip();
+
+            assertEquals(values[i], FrameCodec.getVarint(buffer));
+
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    void encodeDecodeEveryType() throws IOException
+    {
+        byte[] payload = "сообщение".getBytes(StandardCharsets.UTF_8);
+        byte[] tag = {1, 2, 3, 4, 5};
+
+        for (int type : TYPES)
+        {
+            for (long sequence : new long[] {0, 127, 128, 1L << 40})
+            {
+                ByteBuffer frame = encode(type, sequence, payload, tag);
+
+                FrameCodec.Frame decoded = FrameCodec.decode(frame);
+
+                assertNotNull(decoded);
+                assertEquals(type, decoded.getType());
+                assertEquals(FrameCodec.FLAG_TAG, decoded.getFlags());
+                assertEquals(sequence, decoded.getSequence());
+                assertArrayEquals(payload, bytes(decoded.getPayload()));
+                assertArrayEquals(tag, bytes(decoded.getTag()));
+                assertEquals(0, frame.remaining());
+                assertEquals(FrameCodec.headerLength(FrameCodec.FLAG_TAG, sequence, payload.length) + payload.length,
+                        decoded.getAuthenticated().remaining());
+
+                ByteBuffer untagged = encode(type, sequence, payload, null);
+
+                decoded = FrameCodec.decode(untagged);
+
+                assertNotNull(decoded);
+                assertEquals(type, decoded.getType());
+                assertEquals(0, decoded.getFlags());
+                assertNull(decoded.getTag());
+                assertArrayEquals(payload, bytes(decoded.getPayload()));
+            }
+        }
+    }
+
+    @Test
+    void batchPayloadRoundTrip() throws IOException
+    {
+        String[] messages = {"", "a", "x".repeat(200)};
+
+        ByteBuffer batch = ByteBuffer.allocate(512);
+
+        FrameCodec.putVarint(batch, messages.length);
+
+        for (String message : messages)
+        {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+
+            FrameCodec.putVarint(batch, bytes.length);
+            batch.put(bytes);
+        }
+
+        FrameCodec.Frame decoded = FrameCodec.decode(encode(FrameCodec.TYPE_BATCH, 7, bytes(batch.flip()), null));
+
+        assertNotNull(decoded);
+        assertEquals(FrameCodec.TYPE_BATCH, decoded.getType());
+
+        ByteBuffer payload = decoded.getPayload();
+
+        assertEquals(messages.length, FrameCodec.getVarint(payload));
+
+        for (String message : messages)
+        {
+            int length = (int) FrameCodec.getVarint(payload);
+
+            assertEquals(message, StandardCharsets.UTF_8.decode(payload.slice(payload.position(), length)).toString());
+
+            payload.position(payload.position() + length);
+        }
+
+        assertEquals(0, payload.remaining());
+    }
+
+    @Test
+    void truncatedFrameIsNotDecoded() throws IOException
+    {
+        ByteBuffer frame = encode(FrameCodec.TYPE_MESSAGE, 300, new byte[40], new byte[16]);
+
+        for (int length = 0; length < frame.remaining(); length++)
+        {
+            ByteBuffer part = frame.slice(0, length);
+
+            assertNull(FrameCodec.decode(part), "длина " + length);
+            assertEquals(0, part.position());
+        }
+
+        assertNotNull(FrameCodec.decode(frame));
+    }
+
+    @Test
+    void oversizedFrameIsRejected()
+    {
+        ByteBuffer header = ByteBuffer.allocate(16);
+
+        header.put((byte) FrameCodec.VERSION).put((byte) FrameCodec.TYPE_MESSAGE);
+
+        FrameCodec.putVarint(header, 0);
+        FrameCodec.putVarint(header, Integer.MAX_VALUE + 1L);
+
+        assertThrows(IOException.class, () -> FrameCodec.decode(header.flip()));
+
+        FrameReader reader = new FrameReader(16, 64);
+
+        ByteBuffer record = ByteBuffer.allocate(FrameReader.HEADER_LENGTH).putInt(65).flip();
+
+        assertThrows(IOException.class, () -> reader.feed(record));
+    }
+
+    @Test
+    void badSequenceIsRejected()
+    {
+        ByteBuffer frame = ByteBuffer.allocate(16);
+
+        frame.put((byte) FrameCodec.VERSION).put((byte) FrameCodec.TYPE_MESSAGE);
+
+        for (int i = 0; i < 11; i++)
+            frame.put((byte) 0x80);
+
+        frame.put((byte) 0);
+
+        assertThrows(IOException.class, () -> FrameCodec.decode(frame.flip()));
+    }
+
+    @Test
+    void badVersionIsRejected()
+    {
+        ByteBuffer frame = encode(FrameCodec.TYPE_MESSAGE, 1, new byte[4], null);
+
+        frame.put(0, (byte) (FrameCodec.VERSION + 1));
+
+        assertThrows(IOException.class, () -> FrameCodec.decode(frame));
+    }
+
+    private static ByteBuffer encode(int type, long sequence, byte[] payload, byte[] tag)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.frameLength(tag != null ? FrameCodec.FLAG_TAG : 0, sequence,
+                payload.length, tag != null ? tag.length : 0));
+
+        FrameCodec.encode(frame, type, 0, sequence, ByteBuffer.wrap(payload), tag != null ? ByteBuffer.wrap(tag) : null);
+
+        assertEquals(0, frame.remaining());
+
+        return frame.flip();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+
+        buffer.duplicate().get(bytes);
+
+        return bytes;
+    }
+}
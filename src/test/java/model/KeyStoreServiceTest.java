@@ -0,0 +1,122 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <h2>Проверка перезагрузки хранилища ключей</h2>
+ *
+ * <p>Смена пароля и переименование записи заменяют снимок, а повреждённый файл оставляет прежний. Хранилища
+ * создаются утилитой {@code keytool} из проверяемого JDK.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class KeyStoreServiceTest
+{
+    private static final String ALIAS = "server";
+    private static final String PASSWORD = "first-password";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void passwordRotationReplacesSnapshot() throws Exception
+    {
+        Path file = createKeyStore("store.p12", ALIAS, PASSWORD);
+
+        try (KeyStoreService service = new KeyStoreService(file))
+        {
+            PrivateKey before = service.getPrivateKey(ALIAS, PASSWORD);
+
+            replace(file, createKeyStore("rotated.p12", ALIAS, "second-password"));
+
+            assertTrue(service.reload());
+            assertEquals(1, service.getReloads());
+
+            PrivateKey after = service.getPrivateKey(ALIAS, "second-password");
+
+            assertNotNull(after);
+            assertNotEquals(before, after);
+
+            // запись со старым паролем выпала из кэша и не расшифровывается из нового содержимого
+            assertThrows(UnrecoverableKeyException.class, () -> service.getPrivateKey(ALIAS, PASSWORD));
+        }
+    }
+
+    @Test
+    void renamedAliasReplacesSnapshot() throws Exception
+    {
+        Path file = createKeyStore("store.p12", ALIAS, PASSWORD);
+
+        try (KeyStoreService service = new KeyStoreService(file))
+        {
+            service.getPrivateKey(ALIAS, PASSWORD);
+
+            replace(file, createKeyStore("renamed.p12", "renamed", PASSWORD));
+
+            assertTrue(service.reload());
+
+            assertNotNull(service.getPrivateKey("renamed", PASSWORD));
+            assertThrows(KeyStoreService.EntryNotFoundException.class,
+                    () -> service.getPrivateKey(ALIAS, PASSWORD));
+        }
+    }
+
+    @Test
+    void corruptFileKeepsSnapshot() throws Exception
+    {
+        Path file = createKeyStore("store.p12", ALIAS, PASSWORD);
+
+        try (KeyStoreService service = new KeyStoreService(file))
+        {
+            PrivateKey before = service.getPrivateKey(ALIAS, PASSWORD);
+
+            byte[] content = Files.readAllBytes(file);
+
+            Files.write(file, Arrays.copyOf(content, content.length / 2));
+
+            assertFalse(service.reload());
+            assertEquals(0, service.getReloads());
+
+            assertEquals(before, service.getPrivateKey(ALIAS, PASSWORD));
+        }
+    }
+
+    private Path createKeyStore(String name, String alias, String password) throws IOException, InterruptedException
+    {
+        Path file = directory.resolve(name);
+
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", alias, "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=test",
+                "-storetype", "PKCS12", "-keystore", file.toString(), "-storepass", password, "-keypass", password)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        assertEquals(0, keytool.waitFor(), "keytool");
+
+        return file;
+    }
+
+    private static void replace(Path target, Path source) throws IOException
+    {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
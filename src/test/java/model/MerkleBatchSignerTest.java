@@ -0,0 +1,231 @@
+package model;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <h2>Проверка тегов пакетной подписи</h2>
+ *
+ * <p>Теги пакетов разного размера, в том числе с листьями, перенесёнными на уровень выше без пары, проверяются
+ * {@link MerkleBatchSigner#verify(ByteBuffer, ByteBuffer, String, java.security.PublicKey)}; подменённое сообщение,
+ * переставленные узлы пути, чужие номер и размер пакета и обрезанный тег отвергаются.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class MerkleBatchSignerTest
+{
+    private static final String ALGORITHM = "SHA256withRSA";
+
+    private static KeyPair keys;
+
+    @BeforeAll
+    static void generateKeys()
+    {
+        keys = CryptographicAlgorithms.generateKeyPair();
+    }
+
+    @Test
+    void roundTripForEveryBatchSize() throws Exception
+    {
+        for (int size : new int[] {1, 2, 3, 5, 64})
+        {
+            List<byte[]> messages = messages(size);
+            List<byte[]> tags = signBatch(messages);
+
+            for (int i = 0; i < size; i++)
+            {
+                Proof proof = Proof.parse(tags.get(i));
+
+                assertEquals(i, proof.index, "номер в пакете из " + size);
+                assertEquals(size, proof.count, "размер пакета");
+                assertTrue(verify(messages.get(i), tags.get(i)), "сообщение " + i + " пакета из " + size);
+            }
+        }
+    }
+
+    @Test
+    void rejectsTamperedMessage() throws Exception
+    {
+        List<byte[]> messages = messages(5);
+        List<byte[]> tags = signBatch(messages);
+
+        byte[] tampered = messages.get(2).clone();
+
+        tampered[0] ^= 1;
+
+        assertFalse(verify(tampered, tags.get(2)));
+
+        // тег другого сообщения того же пакета
+        assertFalse(verify(messages.get(2), tags.get(3)));
+    }
+
+    @Test
+    void rejectsSwappedSiblings() throws Exception
+    {
+        List<byte[]> messages = messages(5);
+        List<byte[]> tags = signBatch(messages);
+
+        Proof proof = Proof.parse(tags.get(1));
+
+        assertTrue(proof.siblings.size() >= 2);
+
+        List<byte[]> swapped = new ArrayList<>(proof.siblings);
+
+        swapped.set(0, proof.siblings.get(1));
+        swapped.set(1, proof.siblings.get(0));
+
+        assertFalse(verify(messages.get(1), proof.with(proof.index, proof.count, swapped)));
+    }
+
+    @Test
+    void rejectsWrongPathLength() throws Exception
+    {
+        List<byte[]> messages = messages(5);
+        List<byte[]> tags = signBatch(messages);
+
+        // последний лист пакета из пяти переносится наверх без пары и имеет самый короткий путь
+        Proof proof = Proof.parse(tags.get(4));
+
+        List<byte[]> longer = new ArrayList<>(proof.siblings);
+
+        longer.add(new byte[32]);
+
+        assertFalse(verify(messages.get(4), proof.with(proof.index, proof.count, longer)));
+        assertFalse(verify(messages.get(4), proof.with(proof.index, proof.count,
+                proof.siblings.subList(0, proof.siblings.size() - 1))));
+    }
+
+    @Test
+    void rejectsWrongIndexOrCount() throws Exception
+    {
+        List<byte[]> messages = messages(5);
+        List<byte[]> tags = signBatch(messages);
+
+        Proof proof = Proof.parse(tags.get(2));
+
+        assertFalse(verify(messages.get(2), proof.with(3, proof.count, proof.siblings)));
+        assertFalse(verify(messages.get(2), proof.with(5, proof.count, proof.siblings)));
+        assertFalse(verify(messages.get(2), proof.with(-1, proof.count, proof.siblings)));
+        assertFalse(verify(messages.get(2), proof.with(proof.index, 4, proof.siblings)));
+        assertFalse(verify(messages.get(2), proof.with(proof.index, 6, proof.siblings)));
+    }
+
+    @Test
+    void rejectsTruncatedTag() throws Exception
+    {
+        List<byte[]> messages = messages(3);
+        List<byte[]> tags = signBatch(messages);
+
+        byte[] tag = tags.get(0);
+
+        for (int length : new int[] {0, 1, 2, 3, 20, tag.length / 2, tag.length - 1})
+            assertFalse(verify(messages.get(0), Arrays.copyOf(tag, length)), "длина " + length);
+    }
+
+    private static List<byte[]> messages(int count)
+    {
+        List<byte[]> messages = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+            messages.add(("сообщение " + i).getBytes(StandardCharsets.UTF_8));
+
+        return messages;
+    }
+
+    /**
+     * <h3>Подпись одного пакета</h3>
+     *
+     * <p>Размер пакета равен числу сообщений, а окно ожидания велико, поэтому все сообщения попадают в один пакет.</p>
+     */
+    private static List<byte[]> signBatch(List<byte[]> messages) throws Exception
+    {
+        try (MerkleBatchSigner signer = new MerkleBatchSigner(messages.size(), 10_000, ALGORITHM, keys.getPrivate()))
+        {
+            List<CompletableFuture<byte[]>> results = new ArrayList<>();
+
+            for (byte[] message : messages)
+                results.add(signer.submit(ByteBuffer.wrap(message)));
+
+            List<byte[]> tags = new ArrayList<>();
+
+            for (CompletableFuture<byte[]> result : results)
+                tags.add(result.get());
+
+            return tags;
+        }
+    }
+
+    private static boolean verify(byte[] message, byte[] tag) throws GeneralSecurityException
+    {
+        return MerkleBatchSigner.verify(ByteBuffer.wrap(message), ByteBuffer.wrap(tag), ALGORITHM, keys.getPublic());
+    }
+
+    /**
+     * <h2>Разобранный тег</h2>
+     *
+     * <p>Для подмены отдельных полей тег разбирается и собирается заново
+     * ({@link MerkleBatchSigner.BatchProof#encode(int, int, List, byte[])}).</p>
+     */
+    private static class Proof
+    {
+        private final int index;
+        private final int count;
+        private final List<byte[]> siblings;
+        private final byte[] rootSign;
+
+        private Proof(int index, int count, List<byte[]> siblings, byte[] rootSign)
+        {
+            this.index = index;
+            this.count = count;
+            this.siblings = siblings;
+            this.rootSign = rootSign;
+        }
+
+        static Proof parse(byte[] tag) throws IOException
+        {
+            ByteBuffer src = ByteBuffer.wrap(tag);
+
+            int index = (int) FrameCodec.getVarint(src);
+            int count = (int) FrameCodec.getVarint(src);
+            int size = (int) FrameCodec.getVarint(src);
+
+            List<byte[]> siblings = new ArrayList<>(size);
+
+            for (int i = 0; i < size; i++)
+            {
+                byte[] sibling = new byte[32];
+
+                src.get(sibling);
+
+                siblings.add(sibling);
+            }
+
+            byte[] rootSign = new byte[(int) FrameCodec.getVarint(src)];
+
+            src.get(rootSign);
+
+            return new Proof(index, count, siblings, rootSign);
+        }
+
+        byte[] with(int index, int count, List<byte[]> siblings)
+        {
+            return MerkleBatchSigner.BatchProof.encode(index, count, siblings, rootSign);
+        }
+    }
+}
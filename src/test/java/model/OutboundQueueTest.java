@@ -0,0 +1,211 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <h2>Проверка границ очереди исходящих сообщений</h2>
+ *
+ * <p>Очередь заполняется сверх {@code maxMessages} и {@code maxBytes}, и для каждой политики переполнения
+ * ({@link OverflowPolicy}) проверяются операции, которыми её выполняет {@link Server}: отказ в постановке,
+ * вытеснение самого старого сообщения, ожидание места и отмена очереди при отключении. Управляющие кадры проходят
+ * всегда.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class OutboundQueueTest
+{
+    private static final int MAX_MESSAGES = 3;
+    private static final long MAX_BYTES = 100;
+
+    @Test
+    void rejectsPastMaxMessages()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        for (int i = 0; i < MAX_MESSAGES; i++)
+            assertTrue(queue.offer(message(10), MAX_MESSAGES, MAX_BYTES));
+
+        assertFalse(queue.offer(message(10), MAX_MESSAGES, MAX_BYTES));
+
+        assertEquals(MAX_MESSAGES, queue.size());
+        assertEquals(30, queue.bytes());
+    }
+
+    @Test
+    void rejectsPastMaxBytes()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        assertTrue(queue.offer(message(60), MAX_MESSAGES, MAX_BYTES));
+        assertFalse(queue.offer(message(41), MAX_MESSAGES, MAX_BYTES));
+        assertTrue(queue.offer(message(40), MAX_MESSAGES, MAX_BYTES));
+
+        assertEquals(2, queue.size());
+        assertEquals(100, queue.bytes());
+    }
+
+    @Test
+    void acceptsOversizedMessageIntoEmptyQueue()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        assertTrue(queue.offer(message(1000), MAX_MESSAGES, MAX_BYTES));
+        assertFalse(queue.offer(message(1), MAX_MESSAGES, MAX_BYTES));
+    }
+
+    @Test
+    void controlFramesAlwaysGetThrough()
+    {
+        OutboundQueue queue = fullQueue();
+
+        OutboundQueue.Item control = control();
+
+        assertTrue(queue.offer(control, MAX_MESSAGES, MAX_BYTES));
+        assertEquals(MAX_MESSAGES + 1, queue.size());
+
+        // и вытеснение их не трогает
+        for (int i = 0; i < MAX_MESSAGES; i++)
+            assertEquals(FrameCodec.TYPE_MESSAGE, queue.dropOldest().type);
+
+        assertNull(queue.dropOldest());
+        assertSame(control, queue.poll());
+    }
+
+    @Test
+    void dropOldestMakesRoomForNewMessage()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        OutboundQueue.Item oldest = message(10);
+
+        queue.offer(oldest, MAX_MESSAGES, MAX_BYTES);
+        queue.offer(message(10), MAX_MESSAGES, MAX_BYTES);
+        queue.offer(message(10), MAX_MESSAGES, MAX_BYTES);
+
+        OutboundQueue.Item newest = message(10);
+
+        assertFalse(queue.offer(newest, MAX_MESSAGES, MAX_BYTES));
+        assertSame(oldest, queue.dropOldest());
+        assertTrue(queue.offer(newest, MAX_MESSAGES, MAX_BYTES));
+
+        assertEquals(MAX_MESSAGES, queue.size());
+
+        OutboundQueue.Item last = null;
+
+        for (OutboundQueue.Item item; (item = queue.poll()) != null; )
+            last = item;
+
+        assertSame(newest, last);
+    }
+
+    @Test
+    void blockedSenderWakesWhenWriterTakesMessage() throws InterruptedException
+    {
+        OutboundQueue queue = fullQueue();
+
+        OutboundQueue.Item item = message(10);
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch queued = new CountDownLatch(1);
+
+        Thread sender = Thread.ofVirtual().start(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    waiting.countDown();
+
+                    while (!queue.offer(item, MAX_MESSAGES, MAX_BYTES))
+                        queue.awaitSpace(item, MAX_MESSAGES, MAX_BYTES, TimeUnit.SECONDS.toNanos(30));
+
+                    queued.countDown();
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            }
+        });
+
+        waiting.await();
+
+        assertFalse(queued.await(100, TimeUnit.MILLISECONDS), "отправитель не должен пройти в полную очередь");
+
+        queue.poll();
+
+        assertTrue(queued.await(5, TimeUnit.SECONDS), "отправитель не разбужен освободившимся местом");
+
+        sender.join();
+
+        assertEquals(MAX_MESSAGES, queue.size());
+    }
+
+    @Test
+    void blockedSenderGivesUpAfterTimeout() throws InterruptedException
+    {
+        OutboundQueue queue = fullQueue();
+
+        long start = System.nanoTime();
+
+        queue.awaitSpace(message(10), MAX_MESSAGES, MAX_BYTES, TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertFalse(queue.offer(message(10), MAX_MESSAGES, MAX_BYTES));
+    }
+
+    @Test
+    void disconnectFailsQueuedMessages()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        OutboundQueue.Item first = message(10);
+        OutboundQueue.Item control = control();
+
+        queue.offer(first, MAX_MESSAGES, MAX_BYTES);
+        queue.offer(control, MAX_MESSAGES, MAX_BYTES);
+
+        queue.fail(new IllegalStateException("Сессия закрыта."));
+
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.bytes());
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> first.result.get());
+
+        assertTrue(ex.getCause() instanceof IllegalStateException);
+        assertTrue(control.result.isCompletedExceptionally());
+    }
+
+    private static OutboundQueue fullQueue()
+    {
+        OutboundQueue queue = new OutboundQueue();
+
+        for (int i = 0; i < MAX_MESSAGES; i++)
+            queue.offer(message(10), MAX_MESSAGES, MAX_BYTES);
+
+        return queue;
+    }
+
+    private static OutboundQueue.Item message(int length)
+    {
+        return new OutboundQueue.Item(FrameCodec.TYPE_MESSAGE, new byte[length]);
+    }
+
+    private static OutboundQueue.Item control()
+    {
+        return new OutboundQueue.Item(FrameCodec.TYPE_CONTROL, new byte[] {1});
+    }
+}
@@ -0,0 +1,97 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * <h2>Проверка кэша билетов возобновления</h2>
+ *
+ * <p>Билет погашается один раз, истёкший билет учитывается как истёкший, а не как попадание, при переполнении
+ * вытесняется самая старая запись, и билет не возобновляет сессию с другим способом аутентификации.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class SessionTicketCacheTest
+{
+    private static final Key SECRET = new SecretKeySpec(new byte[32], "HmacSHA256");
+
+    @Test
+    void ticketIsRedeemedOnlyOnce()
+    {
+        SessionTicketCache cache = new SessionTicketCache(10, 60_000);
+
+        byte[] ticket = cache.issue(SECRET, AuthenticationMode.HMAC);
+
+        SessionTicketCache.Entry entry = cache.redeem(ticket, AuthenticationMode.HMAC);
+
+        assertNotNull(entry);
+        assertSame(SECRET, entry.getSecret());
+
+        assertNull(cache.redeem(ticket, AuthenticationMode.HMAC));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void expiredTicketIsNotHit() throws InterruptedException
+    {
+        SessionTicketCache cache = new SessionTicketCache(10, 1);
+
+        byte[] ticket = cache.issue(SECRET, AuthenticationMode.HMAC);
+
+        Thread.sleep(20);
+
+        assertNull(cache.redeem(ticket, AuthenticationMode.HMAC));
+
+        assertEquals(1, cache.getExpired());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    void eldestTicketIsEvictedAtCapacity()
+    {
+        SessionTicketCache cache = new SessionTicketCache(2, 60_000);
+
+        byte[] first = cache.issue(SECRET, AuthenticationMode.HMAC);
+        byte[] second = cache.issue(SECRET, AuthenticationMode.HMAC);
+        byte[] third = cache.issue(SECRET, AuthenticationMode.HMAC);
+
+        assertEquals(2, cache.size());
+
+        assertNull(cache.redeem(first, AuthenticationMode.HMAC));
+        assertNotNull(cache.redeem(second, AuthenticationMode.HMAC));
+        assertNotNull(cache.redeem(third, AuthenticationMode.HMAC));
+
+        assertEquals(3, cache.getIssued());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void ticketDoesNotResumeOtherAuthenticationMode()
+    {
+        SessionTicketCache cache = new SessionTicketCache(10, 60_000);
+
+        byte[] ticket = cache.issue(SECRET, AuthenticationMode.SIGNATURE);
+
+        assertNull(cache.redeem(ticket, AuthenticationMode.HMAC));
+
+        // несовпавший билет тоже погашен и не может быть предъявлен снова с верным способом
+        assertNull(cache.redeem(ticket, AuthenticationMode.SIGNATURE));
+
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
@@ -0,0 +1,152 @@
+package ske.loadgen;
+
+import model.AuthenticationMode;
+import model.CryptographicAlgorithms;
+import model.KeyExchangeSuite;
+import model.LatencyHistogram;
+import model.Server;
+import model.ServerMode;
+import model.Session;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <h2>Проверка отправки без создания объектов</h2>
+ *
+ * <p>После прогрева {@link Server#sendMessage(Session, String)} в режиме {@link AuthenticationMode#HMAC} не должен
+ * создавать объектов в вызывающем потоке, пока сокет успевает за сервером. Клиент проверяет HMAC каждого кадра
+ * экземпляром {@link javax.crypto.Mac}.</p>
+ *
+ * <p>Режимы с ЭЦП здесь не проверяются: {@link java.security.Signature#sign()} возвращает новый массив на каждый
+ * вызов, поэтому их путь отправки без создания объектов не обходится.</p>
+ *
+ * @author Kydryavcev Ilya
+ * @version 1.0
+ * @since 12.03.24
+ */
+class SendAllocationTest
+{
+    private static final int WARMUP = 20_000;
+    private static final int MESSAGES = 10_000;
+
+    /**
+     * Допуск на редкие события вне пути отправки: сборку мусора, рост внутренних таблиц JDK.
+     */
+    private static final double MAX_BYTES_PER_MESSAGE = 4;
+
+    @Test
+    void selectorSendDoesNotAllocate() throws Exception
+    {
+        assertSendDoesNotAllocate(ServerMode.SELECTOR);
+    }
+
+    @Test
+    void virtualThreadSendDoesNotAllocate() throws Exception
+    {
+        assertSendDoesNotAllocate(ServerMode.VIRTUAL_THREADS);
+    }
+
+    private static void assertSendDoesNotAllocate(ServerMode engine) throws Exception
+    {
+        KeyPair keys = CryptographicAlgorithms.generateKeyPair();
+
+        Server server = new Server();
+
+        server.setMode(engine);
+        server.initSignature(keys.getPrivate());
+        server.highlightSocket(0);
+
+        LoadClient client = new LoadClient(server.getLocalPort(), AuthenticationMode.HMAC, KeyExchangeSuite.RSA_WRAP,
+                keys.getPublic());
+
+        Exception[] failure = new Exception[1];
+
+        Thread handshake = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    client.handshake();
+                }
+                catch (Exception ex)
+                {
+                    failure[0] = ex;
+                }
+            }
+        }, "allocation-handshake");
+
+        handshake.start();
+
+        Session session = server.connection();
+
+        server.connectionProtection(session);
+
+        handshake.join();
+
+        if (failure[0] != null)
+            throw failure[0];
+
+        Thread receiver = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    client.receive(WARMUP + MESSAGES, new LatencyHistogram(), false);
+                }
+                catch (Exception ex)
+                {
+                    failure[0] = ex;
+                }
+            }
+        }, "allocation-receiver");
+
+        receiver.start();
+
+        try
+        {
+            String message = "x".repeat(64);
+
+            for (int i = 0; i < WARMUP; i++)
+                server.sendMessage(session, message);
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+            long thread = Thread.currentThread().threadId();
+
+            long before = threads.getThreadAllocatedBytes(thread);
+
+            for (int i = 0; i < MESSAGES; i++)
+                server.sendMessage(session, message);
+
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            receiver.join(30_000);
+
+            if (failure[0] != null)
+                throw failure[0];
+
+            assertEquals(WARMUP + MESSAGES, client.getReceived());
+            assertEquals(0, client.getVerificationFailures());
+
+            assertTrue((double) allocated / MESSAGES <= MAX_BYTES_PER_MESSAGE,
+                    allocated + " байт на " + MESSAGES + " сообщений");
+        }
+        finally
+        {
+            server.disconnect(session);
+            server.disconnect();
+
+            client.close();
+        }
+    }
+}